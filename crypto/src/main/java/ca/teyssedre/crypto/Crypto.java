@@ -30,7 +30,14 @@ import android.os.Handler;
 import android.os.Looper;
 import android.util.Base64;
 
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
 import java.security.GeneralSecurityException;
 import java.security.InvalidKeyException;
 import java.security.Key;
@@ -42,41 +49,110 @@ import java.security.NoSuchProviderException;
 import java.security.PrivateKey;
 import java.security.Provider;
 import java.security.PublicKey;
+import java.security.SecureRandom;
 import java.security.Security;
 import java.security.Signature;
 import java.security.SignatureException;
+import java.security.spec.AlgorithmParameterSpec;
+import java.security.spec.ECGenParameterSpec;
 import java.security.spec.PKCS8EncodedKeySpec;
 import java.security.spec.X509EncodedKeySpec;
 import java.sql.SQLException;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.BitSet;
 import java.util.List;
 import java.util.Set;
 import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 
 import javax.crypto.BadPaddingException;
 import javax.crypto.Cipher;
 import javax.crypto.IllegalBlockSizeException;
+import javax.crypto.KeyAgreement;
 import javax.crypto.KeyGenerator;
 import javax.crypto.NoSuchPaddingException;
 import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.IvParameterSpec;
 import javax.crypto.spec.SecretKeySpec;
 
 import ca.teyssedre.crypto.store.db.KeyStoreDataSource;
 import ca.teyssedre.crypto.store.models.KeySet;
+import ca.teyssedre.crypto.utils.Base64Url;
 import ca.teyssedre.crypto.utils.CryptoException;
+import ca.teyssedre.crypto.utils.KeyCache;
+import ca.teyssedre.crypto.utils.PrimitivePool;
+import ca.teyssedre.crypto.utils.VerificationCache;
 import ca.teyssedre.crypto.views.UIHelper;
 
 public class Crypto {
 
+    private static final String AES_TRANSFORMATION = "AES/CBC/PKCS5Padding";
+    private static final String RSA_TRANSFORMATION = "RSA";
+    private static final String RSA_SIGNATURE = "SHA256withRSA";
+    private static final String RSA_KEY = "RSA";
+    private static final String EC_KEY = "EC";
+    private static final String EC_CURVE = "secp256r1";
+    private static final String EC_SIGNATURE = "SHA256withECDSA";
+    private static final String EC_AGREEMENT = "ECDH";
+    private static final int AES_IV_LENGTH = 16;
+    private static final int STREAM_CHUNK = 8192;
+    private static final String TEXT_CODEC_V1 = "~1";
+    private static final String GCM_TRANSFORMATION = "AES/GCM/NoPadding";
+    private static final byte GCM_FRAME_VERSION = 1;
+    private static final int GCM_IV_LENGTH = 12;
+    private static final int GCM_TAG_LENGTH = 16;
+    private static final boolean HAS_GCM_SPEC = HasGCMSpec();
+    private static final SecureRandom RANDOM = new SecureRandom();
+    private static final int BATCH_THREADS = Runtime.getRuntime().availableProcessors();
+    private static final int BATCH_MIN_CHUNK = 4;
+    private static final VerificationCache VERIFIED = new VerificationCache();
+    private static final KeyCache<PublicKey> PUBLIC_KEYS = new KeyCache<>(256, 0);
+
+    /**
+     * Workers of {@link #ValidateSignaturesBatch(PublicKey, List, List)}, threads are only started
+     * on the first batch and stop after being idle.
+     */
+    private static final ThreadPoolExecutor VERIFIERS = new ThreadPoolExecutor(BATCH_THREADS, BATCH_THREADS,
+            30, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "Crypto-verifier");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    static {
+        VERIFIERS.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Chunk buffers reused by the AES streaming methods of the current thread, the second one
+     * holds the cipher output of a chunk plus one block of padding.
+     */
+    private static final ThreadLocal<byte[][]> STREAM_BUFFERS = new ThreadLocal<byte[][]>() {
+        @Override
+        protected byte[][] initialValue() {
+            return new byte[][]{new byte[STREAM_CHUNK], new byte[STREAM_CHUNK + 2 * AES_IV_LENGTH]};
+        }
+    };
+
     private Context context;
     private UIHelper uiHelper;
     private KeyStoreDataSource keyStorage;
     private boolean dialogNotification = true;
     private ThreadPoolExecutor background;
     private Handler uiThread;
+    private KeyPairPool keyPairPool;
 
     //region Singleton
     /**
@@ -96,6 +172,8 @@ public class Crypto {
         LinkedBlockingDeque<Runnable> queue = new LinkedBlockingDeque<>();
         this.background = new ThreadPoolExecutor(1, i, 1, TimeUnit.SECONDS, queue);
         this.uiThread = new Handler(Looper.getMainLooper());
+        this.keyPairPool = new KeyPairPool(context);
+        this.keyPairPool.Start();
     }
 
     public void finalize() throws Throwable {
@@ -184,7 +262,7 @@ public class Crypto {
      * @throws IllegalBlockSizeException
      */
     public static byte[] EncryptWithAES(SecretKey key, byte[] data) throws NoSuchPaddingException, NoSuchAlgorithmException, InvalidKeyException, BadPaddingException, IllegalBlockSizeException {
-        Cipher c = Cipher.getInstance("AES/CBC/PKCS5Padding");
+        Cipher c = PrimitivePool.getCipher(AES_TRANSFORMATION);
         c.init(Cipher.ENCRYPT_MODE, key);
         return c.doFinal(data);
     }
@@ -202,10 +280,223 @@ public class Crypto {
      * @throws IllegalBlockSizeException
      */
     public static byte[] DecryptWithAES(SecretKey key, byte[] data) throws NoSuchPaddingException, NoSuchAlgorithmException, InvalidKeyException, BadPaddingException, IllegalBlockSizeException {
-        Cipher c = Cipher.getInstance("AES/CBC/PKCS5Padding");
+        Cipher c = PrimitivePool.getCipher(AES_TRANSFORMATION);
         c.init(Cipher.DECRYPT_MODE, key);
         return c.doFinal(data);
     }
+
+    /**
+     * Authenticated encryption of {@code data} with AES-GCM. The output is a self contained frame:
+     * <pre>
+     * [version:1][iv:12][ciphertext][tag:16]
+     * </pre>
+     * A fresh random IV is generated for every call. Any change on the frame or on the {@code aad}
+     * is detected by {@link #DecryptWithAESGCM(SecretKey, byte[], byte[])}, no extra signature is
+     * needed for the integrity of the content.
+     *
+     * @param key  {@link SecretKey} instance use to encrypt the content.
+     * @param data {@code byte[]} content to encrypt.
+     * @param aad  additional authenticated data, not encrypted nor stored in the frame, may be null.
+     * @return {@code byte[]} frame.
+     * @throws GeneralSecurityException
+     */
+    public static byte[] EncryptWithAESGCM(SecretKey key, byte[] data, byte[] aad) throws GeneralSecurityException {
+        byte[] iv = new byte[GCM_IV_LENGTH];
+        RANDOM.nextBytes(iv);
+        Cipher c = PrimitivePool.getCipher(GCM_TRANSFORMATION);
+        c.init(Cipher.ENCRYPT_MODE, key, GCMSpec(iv));
+        if (aad != null) {
+            c.updateAAD(aad);
+        }
+        byte[] frame = new byte[1 + GCM_IV_LENGTH + c.getOutputSize(data.length)];
+        frame[0] = GCM_FRAME_VERSION;
+        System.arraycopy(iv, 0, frame, 1, GCM_IV_LENGTH);
+        int length = c.doFinal(data, 0, data.length, frame, 1 + GCM_IV_LENGTH);
+        return length == frame.length - 1 - GCM_IV_LENGTH ? frame : Arrays.copyOf(frame, 1 + GCM_IV_LENGTH + length);
+    }
+
+    /**
+     * Decrypt and authenticate a frame produced by {@link #EncryptWithAESGCM(SecretKey, byte[], byte[])}.
+     *
+     * @param key   {@link SecretKey} instance to use for decryption.
+     * @param frame {@code byte[]} frame to decrypt.
+     * @param aad   additional authenticated data given on encryption, may be null.
+     * @return {@code byte[]} decrypted content.
+     * @throws javax.crypto.AEADBadTagException if the frame or the {@code aad} were modified.
+     * @throws GeneralSecurityException         if the frame is malformed or of an unknown version.
+     */
+    public static byte[] DecryptWithAESGCM(SecretKey key, byte[] frame, byte[] aad) throws GeneralSecurityException {
+        if (frame.length < 1 + GCM_IV_LENGTH + GCM_TAG_LENGTH) {
+            throw new GeneralSecurityException("AES-GCM frame too short");
+        }
+        if (frame[0] != GCM_FRAME_VERSION) {
+            throw new GeneralSecurityException("Unknown AES-GCM frame version " + frame[0]);
+        }
+        Cipher c = PrimitivePool.getCipher(GCM_TRANSFORMATION);
+        c.init(Cipher.DECRYPT_MODE, key, GCMSpec(Arrays.copyOfRange(frame, 1, 1 + GCM_IV_LENGTH)));
+        if (aad != null) {
+            c.updateAAD(aad);
+        }
+        return c.doFinal(frame, 1 + GCM_IV_LENGTH, frame.length - 1 - GCM_IV_LENGTH);
+    }
+
+    /**
+     * {@link GCMParameterSpec} is only available from API 19, the provider of older platforms
+     * takes the IV alone and uses a 128 bits tag. The class is looked up instead of the platform
+     * version, so the same path is taken on a plain JVM where the version is unknown.
+     */
+    private static AlgorithmParameterSpec GCMSpec(byte[] iv) {
+        if (HAS_GCM_SPEC) {
+            return new GCMParameterSpec(GCM_TAG_LENGTH * 8, iv);
+        }
+        return new IvParameterSpec(iv);
+    }
+
+    private static boolean HasGCMSpec() {
+        try {
+            Class.forName("javax.crypto.spec.GCMParameterSpec");
+            return true;
+        } catch (ClassNotFoundException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Helper to generate a random IV for the in place {@link ByteBuffer} AES methods.
+     *
+     * @return array of 16 random bytes.
+     */
+    public static byte[] GenerateAESIV() {
+        byte[] iv = new byte[AES_IV_LENGTH];
+        RANDOM.nextBytes(iv);
+        return iv;
+    }
+
+    /**
+     * Encrypt the content of {@code in} into {@code out} chunk by chunk, the memory used stays the
+     * same whatever the size of the content. The random IV is written first on {@code out} so
+     * {@link #DecryptWithAES(SecretKey, InputStream, OutputStream)} can restore it. The streams are
+     * not closed.
+     *
+     * @param key {@link SecretKey} instance use to encrypt the content.
+     * @param in  {@link InputStream} of the content to encrypt, read until its end.
+     * @param out {@link OutputStream} receiving the IV and the encrypted content.
+     * @return number of bytes written on {@code out}.
+     * @throws IOException
+     * @throws GeneralSecurityException
+     */
+    public static long EncryptWithAES(SecretKey key, InputStream in, OutputStream out) throws IOException,
+            GeneralSecurityException {
+        Cipher c = PrimitivePool.getCipher(AES_TRANSFORMATION);
+        c.init(Cipher.ENCRYPT_MODE, key);
+        byte[] iv = c.getIV();
+        out.write(iv);
+        return iv.length + CipherStream(c, in, out);
+    }
+
+    /**
+     * Decrypt the content produced by {@link #EncryptWithAES(SecretKey, InputStream, OutputStream)}
+     * chunk by chunk. The streams are not closed.
+     *
+     * @param key {@link SecretKey} instance to use for decryption.
+     * @param in  {@link InputStream} of the IV followed by the encrypted content.
+     * @param out {@link OutputStream} receiving the decrypted content.
+     * @return number of bytes written on {@code out}.
+     * @throws IOException
+     * @throws GeneralSecurityException
+     */
+    public static long DecryptWithAES(SecretKey key, InputStream in, OutputStream out) throws IOException,
+            GeneralSecurityException {
+        byte[] iv = new byte[AES_IV_LENGTH];
+        int read = 0;
+        while (read < iv.length) {
+            int n = in.read(iv, read, iv.length - read);
+            if (n < 0) {
+                throw new EOFException("AES stream truncated before the end of the IV");
+            }
+            read += n;
+        }
+        Cipher c = PrimitivePool.getCipher(AES_TRANSFORMATION);
+        c.init(Cipher.DECRYPT_MODE, key, new IvParameterSpec(iv));
+        return CipherStream(c, in, out);
+    }
+
+    /**
+     * Channel version of {@link #EncryptWithAES(SecretKey, InputStream, OutputStream)}, the IV is
+     * written first. The channels are not closed.
+     *
+     * @param key {@link SecretKey} instance use to encrypt the content.
+     * @param in  {@link ReadableByteChannel} of the content to encrypt, read until its end.
+     * @param out {@link WritableByteChannel} receiving the IV and the encrypted content.
+     * @return number of bytes written on {@code out}.
+     * @throws IOException
+     * @throws GeneralSecurityException
+     */
+    public static long EncryptWithAES(SecretKey key, ReadableByteChannel in, WritableByteChannel out)
+            throws IOException, GeneralSecurityException {
+        Cipher c = PrimitivePool.getCipher(AES_TRANSFORMATION);
+        c.init(Cipher.ENCRYPT_MODE, key);
+        byte[] iv = c.getIV();
+        WriteFully(out, ByteBuffer.wrap(iv));
+        return iv.length + CipherChannel(c, in, out);
+    }
+
+    /**
+     * Channel version of {@link #DecryptWithAES(SecretKey, InputStream, OutputStream)}. The
+     * channels are not closed.
+     *
+     * @param key {@link SecretKey} instance to use for decryption.
+     * @param in  {@link ReadableByteChannel} of the IV followed by the encrypted content.
+     * @param out {@link WritableByteChannel} receiving the decrypted content.
+     * @return number of bytes written on {@code out}.
+     * @throws IOException
+     * @throws GeneralSecurityException
+     */
+    public static long DecryptWithAES(SecretKey key, ReadableByteChannel in, WritableByteChannel out)
+            throws IOException, GeneralSecurityException {
+        ByteBuffer iv = ByteBuffer.allocate(AES_IV_LENGTH);
+        while (iv.hasRemaining()) {
+            if (in.read(iv) < 0) {
+                throw new EOFException("AES stream truncated before the end of the IV");
+            }
+        }
+        Cipher c = PrimitivePool.getCipher(AES_TRANSFORMATION);
+        c.init(Cipher.DECRYPT_MODE, key, new IvParameterSpec(iv.array()));
+        return CipherChannel(c, in, out);
+    }
+
+    /**
+     * Encrypt in place the remaining content of {@code buffer}. The encrypted content starts at the
+     * current position and the limit is moved to its end, the buffer capacity must leave room for
+     * one block of padding. The IV is not stored in the buffer.
+     *
+     * @param key    {@link SecretKey} instance use to encrypt the content.
+     * @param iv     16 bytes, see {@link #GenerateAESIV()}.
+     * @param buffer {@link ByteBuffer} holding the content to encrypt.
+     * @return number of encrypted bytes.
+     * @throws GeneralSecurityException
+     */
+    public static int EncryptWithAES(SecretKey key, byte[] iv, ByteBuffer buffer) throws GeneralSecurityException {
+        Cipher c = PrimitivePool.getCipher(AES_TRANSFORMATION);
+        c.init(Cipher.ENCRYPT_MODE, key, new IvParameterSpec(iv));
+        return CipherInPlace(c, buffer);
+    }
+
+    /**
+     * Decrypt in place the remaining content of {@code buffer}, the limit is moved to the end of
+     * the decrypted content.
+     *
+     * @param key    {@link SecretKey} instance to use for decryption.
+     * @param iv     16 bytes used to encrypt the content.
+     * @param buffer {@link ByteBuffer} holding the encrypted content.
+     * @return number of decrypted bytes.
+     * @throws GeneralSecurityException
+     */
+    public static int DecryptWithAES(SecretKey key, byte[] iv, ByteBuffer buffer) throws GeneralSecurityException {
+        Cipher c = PrimitivePool.getCipher(AES_TRANSFORMATION);
+        c.init(Cipher.DECRYPT_MODE, key, new IvParameterSpec(iv));
+        return CipherInPlace(c, buffer);
+    }
     //endregion
 
     //region RSA
@@ -219,18 +510,23 @@ public class Crypto {
      * @throws NoSuchAlgorithmException
      */
     public static KeyPair GenerateRSAPair(int lenght) throws NoSuchAlgorithmException, NoSuchProviderException {
-        if (lenght <= 1024) {
-            lenght = 1024;
-        } else if (lenght >= 4096) {
-            lenght = 4096;
-        } else {
-            lenght = 2048;
-        }
         KeyPairGenerator kpg = KeyPairGenerator.getInstance("RSA");
-        kpg.initialize(lenght);
+        kpg.initialize(RSALength(lenght));
         return kpg.genKeyPair();
     }
 
+    /**
+     * Round the {@code length} to a supported RSA key length: 1024, 2048 or 4096.
+     */
+    static int RSALength(int length) {
+        if (length <= 1024) {
+            return 1024;
+        } else if (length >= 4096) {
+            return 4096;
+        }
+        return 2048;
+    }
+
     /**
      * Helper to encrypt using a given {@link PrivateKey} instance.
      *
@@ -244,7 +540,7 @@ public class Crypto {
      * @throws IllegalBlockSizeException
      */
     public static byte[] EncryptWithRSA(PrivateKey privateKey, byte[] data) throws NoSuchPaddingException, NoSuchAlgorithmException, InvalidKeyException, BadPaddingException, IllegalBlockSizeException {
-        Cipher c = Cipher.getInstance("RSA");
+        Cipher c = PrimitivePool.getCipher(RSA_TRANSFORMATION);
         c.init(Cipher.ENCRYPT_MODE, privateKey);
         return c.doFinal(data);
     }
@@ -260,7 +556,7 @@ public class Crypto {
      * @throws IllegalBlockSizeException
      */
     public static byte[] DecryptWithRSA(PublicKey publicKey, byte[] data) throws NoSuchPaddingException, NoSuchAlgorithmException, InvalidKeyException, BadPaddingException, IllegalBlockSizeException {
-        Cipher c = Cipher.getInstance("RSA");
+        Cipher c = PrimitivePool.getCipher(RSA_TRANSFORMATION);
         c.init(Cipher.DECRYPT_MODE, publicKey);
         return c.doFinal(data);
     }
@@ -278,7 +574,7 @@ public class Crypto {
     public static byte[] SignWithRSA(PrivateKey privateKey, byte[] data) throws NoSuchAlgorithmException,
             InvalidKeyException, SignatureException, NoSuchProviderException {
         byte[] signedBytes = null;
-        Signature s = Signature.getInstance("SHA256withRSA");
+        Signature s = PrimitivePool.getSignature(RSA_SIGNATURE);
         s.initSign(privateKey);
         s.update(data);
         signedBytes = s.sign();
@@ -287,6 +583,8 @@ public class Crypto {
 
     /**
      * Helper to validate a signed content {@code data} using a {@link PublicKey} with the RSA algorithm.
+     * Valid signatures are remembered in a {@link VerificationCache}, validating the same content
+     * again skips the RSA operation.
      *
      * @param publicKey {@link PublicKey} object to validate the signature.
      * @param data      {@link byte} array representing the signed data.
@@ -297,17 +595,199 @@ public class Crypto {
      */
     public static boolean ValidateSignatureWithRSA(PublicKey publicKey, byte[] data, byte[] signature)
             throws NoSuchAlgorithmException, InvalidKeyException, SignatureException, NoSuchProviderException {
-        Signature s = Signature.getInstance("SHA256withRSA");
+        ByteBuffer cacheKey = VERIFIED.KeyOf(publicKey, data, signature);
+        if (VERIFIED.Contains(cacheKey)) {
+            return true;
+        }
+        Signature s = PrimitivePool.getSignature(RSA_SIGNATURE);
+        s.initVerify(publicKey);
+        s.update(data);
+        boolean valid = s.verify(signature);
+        if (valid) {
+            VERIFIED.Add(cacheKey);
+        }
+        return valid;
+    }
+
+    /**
+     * Cache used by {@link #ValidateSignatureWithRSA(PublicKey, byte[], byte[])}, exposed for its
+     * metrics and to clear it when a key is revoked.
+     *
+     * @return {@link VerificationCache} instance.
+     */
+    public static VerificationCache getVerificationCache() {
+        return VERIFIED;
+    }
+
+    /**
+     * Validate many signatures made with the same key, the list is split in contiguous ranges
+     * verified in parallel, one per core, the calling thread taking the first range. A malformed
+     * signature is reported as invalid.
+     *
+     * @param publicKey  {@link PublicKey} object to validate the signatures.
+     * @param data       {@link List} of signed contents.
+     * @param signatures {@link List} of signatures, in the same order as {@code data}.
+     * @return {@link BitSet} with the bit of each valid signature set.
+     * @throws GeneralSecurityException if the key can't be used or the validation was interrupted.
+     */
+    public static BitSet ValidateSignaturesBatch(final PublicKey publicKey, final List<byte[]> data,
+                                                 final List<byte[]> signatures) throws GeneralSecurityException {
+        if (data.size() != signatures.size()) {
+            throw new IllegalArgumentException("Each data must come with its signature");
+        }
+        int count = data.size();
+        int ranges = Math.min(BATCH_THREADS, (count + BATCH_MIN_CHUNK - 1) / BATCH_MIN_CHUNK);
+        if (ranges <= 1) {
+            return ValidateRange(publicKey, data, signatures, 0, count);
+        }
+        int size = (count + ranges - 1) / ranges;
+        List<Future<BitSet>> futures = new ArrayList<>(ranges - 1);
+        BitSet results;
+        try {
+            for (int from = size; from < count; from += size) {
+                final int start = from;
+                final int end = Math.min(from + size, count);
+                futures.add(VERIFIERS.submit(new Callable<BitSet>() {
+                    @Override
+                    public BitSet call() throws Exception {
+                        return ValidateRange(publicKey, data, signatures, start, end);
+                    }
+                }));
+            }
+            // The first range runs on the caller, the others are cancelled below if it throws.
+            results = ValidateRange(publicKey, data, signatures, 0, size);
+            for (Future<BitSet> future : futures) {
+                results.or(future.get());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new GeneralSecurityException("Signature validation interrupted", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof GeneralSecurityException) {
+                throw (GeneralSecurityException) e.getCause();
+            }
+            throw new GeneralSecurityException(e.getCause());
+        } finally {
+            for (Future<BitSet> future : futures) {
+                future.cancel(false);
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Validate the signatures between {@code from} (inclusive) and {@code to} (exclusive) with the
+     * {@link Signature} instance of the current thread.
+     */
+    private static BitSet ValidateRange(PublicKey publicKey, List<byte[]> data, List<byte[]> signatures,
+                                        int from, int to) throws GeneralSecurityException {
+        BitSet valid = new BitSet(to);
+        Signature s = PrimitivePool.getSignature(RSA_SIGNATURE);
+        s.initVerify(publicKey);
+        for (int i = from; i < to; i++) {
+            try {
+                s.update(data.get(i));
+                if (s.verify(signatures.get(i))) {
+                    valid.set(i);
+                }
+            } catch (SignatureException e) {
+                // Malformed signature, the instance must be reset before the next one.
+                s.initVerify(publicKey);
+            }
+        }
+        return valid;
+    }
+    //endregion
+
+    //region EC
+
+    /**
+     * Helper to generate a pair of keys on the NIST P-256 curve. The generation takes milliseconds
+     * where RSA takes seconds, and the encoded keys are about ten times smaller.
+     *
+     * @return {@link KeyPair} object instance that contains "public" key and "private" key.
+     * @throws GeneralSecurityException
+     */
+    public static KeyPair GenerateECPair() throws GeneralSecurityException {
+        KeyPairGenerator kpg = KeyPairGenerator.getInstance(EC_KEY);
+        kpg.initialize(new ECGenParameterSpec(EC_CURVE));
+        return kpg.genKeyPair();
+    }
+
+    /**
+     * Helper to sign a content {@code data} using a {@link PrivateKey} with the ECDSA algorithm.
+     *
+     * @param privateKey EC {@link PrivateKey} used to sign the data.
+     * @param data       {@link Byte} array to sign.
+     * @return {@link Byte} array, DER encoded signature.
+     * @throws GeneralSecurityException
+     */
+    public static byte[] SignWithEC(PrivateKey privateKey, byte[] data) throws GeneralSecurityException {
+        Signature s = PrimitivePool.getSignature(EC_SIGNATURE);
+        s.initSign(privateKey);
+        s.update(data);
+        return s.sign();
+    }
+
+    /**
+     * Helper to validate a signed content {@code data} using a {@link PublicKey} with the ECDSA
+     * algorithm. Valid signatures are remembered in the same {@link VerificationCache} as RSA.
+     *
+     * @param publicKey EC {@link PublicKey} object to validate the signature.
+     * @param data      {@link byte} array representing the signed data.
+     * @param signature {@link byte} array of the signature.
+     * @return {@link boolean} value indicate if the signature is valid.
+     * @throws GeneralSecurityException
+     */
+    public static boolean ValidateSignatureWithEC(PublicKey publicKey, byte[] data, byte[] signature)
+            throws GeneralSecurityException {
+        ByteBuffer cacheKey = VERIFIED.KeyOf(publicKey, data, signature);
+        if (VERIFIED.Contains(cacheKey)) {
+            return true;
+        }
+        Signature s = PrimitivePool.getSignature(EC_SIGNATURE);
         s.initVerify(publicKey);
         s.update(data);
-        return s.verify(signature);
+        boolean valid;
+        try {
+            valid = s.verify(signature);
+        } catch (SignatureException e) {
+            // Malformed DER signature.
+            return false;
+        }
+        if (valid) {
+            VERIFIED.Add(cacheKey);
+        }
+        return valid;
+    }
+
+    /**
+     * ECDH key agreement between the local {@code privateKey} and the {@code peerKey}. Both sides
+     * get the same AES-256 key, derived with SHA-256 from the shared secret.
+     *
+     * @param privateKey EC {@link PrivateKey} of the local side.
+     * @param peerKey    EC {@link PublicKey} of the peer.
+     * @return {@link SecretKey} shared with the peer.
+     * @throws GeneralSecurityException
+     */
+    public static SecretKey AgreeWithECDH(PrivateKey privateKey, PublicKey peerKey) throws GeneralSecurityException {
+        KeyAgreement agreement = PrimitivePool.getKeyAgreement(EC_AGREEMENT);
+        agreement.init(privateKey);
+        agreement.doPhase(peerKey, true);
+        byte[] secret = agreement.generateSecret();
+        byte[] derived = PrimitivePool.getMessageDigest("SHA-256").digest(secret);
+        Arrays.fill(secret, (byte) 0);
+        SecretKey key = new SecretKeySpec(derived, "AES");
+        Arrays.fill(derived, (byte) 0);
+        return key;
     }
     //endregion
 
     //region Generics
 
     /**
-     * Function to parse {@link String} instance into a {@link PrivateKey}.
+     * Function to parse {@link String} instance into a {@link PrivateKey}. The parsed keys are
+     * kept a few minutes in a {@link KeyCache}.
      *
      * @param key64 {@link String} representing the {@link Base64} string value of stored key.
      * @return {@link PrivateKey} instance restore through the {@code PKCS8EncodedKeySpec} class.
@@ -315,9 +795,22 @@ public class Crypto {
      * @see PKCS8EncodedKeySpec
      */
     public static PrivateKey StringToPrivateKey(String key64) throws GeneralSecurityException {
+        return StringToPrivateKey(key64, RSA_KEY);
+    }
+
+    /**
+     * Function to parse {@link String} instance into a {@link PrivateKey} of the {@code algorithm}.
+     * Private keys are never cached, every call returns a new instance owned by the caller.
+     *
+     * @param key64     {@link String} representing the {@link Base64} string value of stored key.
+     * @param algorithm {@link String} key algorithm, see {@link KeySet#getAlgorithm()}.
+     * @return {@link PrivateKey} instance restore through the {@code PKCS8EncodedKeySpec} class.
+     * @throws GeneralSecurityException
+     */
+    public static PrivateKey StringToPrivateKey(String key64, String algorithm) throws GeneralSecurityException {
         byte[] clear = base64Decode(key64);
         PKCS8EncodedKeySpec keySpec = new PKCS8EncodedKeySpec(clear);
-        KeyFactory fact = KeyFactory.getInstance("RSA");
+        KeyFactory fact = PrimitivePool.getKeyFactory(algorithm);
         PrivateKey privateKey = fact.generatePrivate(keySpec);
         Arrays.fill(clear, (byte) 0);
         return privateKey;
@@ -332,14 +825,15 @@ public class Crypto {
      * @see PKCS8EncodedKeySpec
      */
     public static String PrivateKeyRSAToString(PrivateKey privateKey) throws GeneralSecurityException {
-        KeyFactory fact = KeyFactory.getInstance("RSA");
+        KeyFactory fact = PrimitivePool.getKeyFactory(RSA_KEY);
         PKCS8EncodedKeySpec spec = fact.getKeySpec(privateKey, PKCS8EncodedKeySpec.class);
         byte[] packed = spec.getEncoded();
         return base64Encode(packed).replaceAll("\\n", "");
     }
 
     /**
-     * Function to parse {@link String} instance into a {@link PublicKey}.
+     * Function to parse {@link String} instance into a {@link PublicKey}. The parsed keys are
+     * interned in a {@link KeyCache}, the same stored value always gives the same instance.
      *
      * @param key64 {@link String} representing the {@link Base64} string value of stored key.
      * @return {@link PublicKey} instance restore through the {@code X509EncodedKeySpec} class.
@@ -347,10 +841,38 @@ public class Crypto {
      * @see X509EncodedKeySpec
      */
     public static PublicKey StringToPublicKey(String key64) throws GeneralSecurityException {
+        return StringToPublicKey(key64, RSA_KEY);
+    }
+
+    /**
+     * Function to parse {@link String} instance into a {@link PublicKey} of the {@code algorithm}.
+     *
+     * @param key64     {@link String} representing the {@link Base64} string value of stored key.
+     * @param algorithm {@link String} key algorithm, see {@link KeySet#getAlgorithm()}.
+     * @return {@link PublicKey} instance restore through the {@code X509EncodedKeySpec} class.
+     * @throws GeneralSecurityException
+     */
+    public static PublicKey StringToPublicKey(String key64, String algorithm) throws GeneralSecurityException {
+        ByteBuffer fingerprint = KeyCache.FingerprintOf(key64, algorithm);
+        PublicKey publicKey = PUBLIC_KEYS.Get(fingerprint);
+        if (publicKey != null) {
+            return publicKey;
+        }
         byte[] data = base64Decode(key64);
         X509EncodedKeySpec spec = new X509EncodedKeySpec(data);
-        KeyFactory fact = KeyFactory.getInstance("RSA");
-        return fact.generatePublic(spec);
+        KeyFactory fact = PrimitivePool.getKeyFactory(algorithm);
+        publicKey = fact.generatePublic(spec);
+        PUBLIC_KEYS.Put(fingerprint, publicKey);
+        return publicKey;
+    }
+
+    /**
+     * Cache used by {@link #StringToPublicKey(String)}, exposed for its metrics.
+     *
+     * @return {@link KeyCache} instance.
+     */
+    public static KeyCache<PublicKey> getPublicKeyCache() {
+        return PUBLIC_KEYS;
     }
 
     /**
@@ -362,11 +884,36 @@ public class Crypto {
      * @see X509EncodedKeySpec
      */
     public static String PublicKeyRSAToString(PublicKey publicKey) throws GeneralSecurityException {
-        KeyFactory fact = KeyFactory.getInstance("RSA");
+        KeyFactory fact = PrimitivePool.getKeyFactory(RSA_KEY);
         X509EncodedKeySpec spec = fact.getKeySpec(publicKey, X509EncodedKeySpec.class);
         return base64Encode(spec.getEncoded()).replaceAll("\\n", "");
     }
 
+    /**
+     * Function to parse a {@link PublicKey} of any algorithm into a {@link String} value, the key
+     * is stored in its X.509 encoding, same as {@link #PublicKeyRSAToString(PublicKey)} for RSA.
+     *
+     * @param publicKey {@link PublicKey} instance to transform.
+     * @return {@link String} Base64 value of the encoded key.
+     */
+    public static String PublicKeyToString(PublicKey publicKey) {
+        return base64Encode(publicKey.getEncoded()).replaceAll("\\n", "");
+    }
+
+    /**
+     * Function to parse a {@link PrivateKey} of any algorithm into a {@link String} value, the key
+     * is stored in its PKCS#8 encoding, same as {@link #PrivateKeyRSAToString(PrivateKey)} for RSA.
+     *
+     * @param privateKey {@link PrivateKey} instance to transform.
+     * @return {@link String} Base64 value of the encoded key.
+     */
+    public static String PrivateKeyToString(PrivateKey privateKey) {
+        byte[] packed = privateKey.getEncoded();
+        String value = base64Encode(packed).replaceAll("\\n", "");
+        Arrays.fill(packed, (byte) 0);
+        return value;
+    }
+
     /**
      * Helper to generate a {@link Key} from a {@link String} value.
      *
@@ -478,6 +1025,69 @@ public class Crypto {
 
     //region Helpers
 
+    /**
+     * Run the initialized {@code cipher} over {@code in} with the reusable chunk buffers of the
+     * current thread.
+     */
+    private static long CipherStream(Cipher cipher, InputStream in, OutputStream out) throws IOException,
+            GeneralSecurityException {
+        byte[][] buffers = STREAM_BUFFERS.get();
+        byte[] input = buffers[0];
+        byte[] output = buffers[1];
+        long written = 0;
+        int n;
+        while ((n = in.read(input)) != -1) {
+            int length = cipher.update(input, 0, n, output, 0);
+            out.write(output, 0, length);
+            written += length;
+        }
+        int length = cipher.doFinal(output, 0);
+        out.write(output, 0, length);
+        return written + length;
+    }
+
+    /**
+     * Channel version of {@link #CipherStream(Cipher, InputStream, OutputStream)}.
+     */
+    private static long CipherChannel(Cipher cipher, ReadableByteChannel in, WritableByteChannel out)
+            throws IOException, GeneralSecurityException {
+        byte[][] buffers = STREAM_BUFFERS.get();
+        ByteBuffer input = ByteBuffer.wrap(buffers[0]);
+        ByteBuffer output = ByteBuffer.wrap(buffers[1]);
+        long written = 0;
+        while (in.read(input) != -1) {
+            input.flip();
+            output.clear();
+            cipher.update(input, output);
+            output.flip();
+            written += WriteFully(out, output);
+            input.clear();
+        }
+        int length = cipher.doFinal(buffers[1], 0);
+        return written + WriteFully(out, ByteBuffer.wrap(buffers[1], 0, length));
+    }
+
+    /**
+     * Cipher operations on {@link ByteBuffer} are copy-safe, the output can overlap the input.
+     */
+    private static int CipherInPlace(Cipher cipher, ByteBuffer buffer) throws GeneralSecurityException {
+        int start = buffer.position();
+        ByteBuffer input = buffer.duplicate();
+        ByteBuffer output = buffer.duplicate();
+        output.limit(output.capacity());
+        int length = cipher.doFinal(input, output);
+        buffer.limit(start + length);
+        return length;
+    }
+
+    private static int WriteFully(WritableByteChannel out, ByteBuffer buffer) throws IOException {
+        int length = buffer.remaining();
+        while (buffer.hasRemaining()) {
+            out.write(buffer);
+        }
+        return length;
+    }
+
     public static byte[] base64Decode(String stored) {
         return Base64.decode(stored.getBytes(), Base64.DEFAULT);
     }
@@ -486,14 +1096,30 @@ public class Crypto {
         return Base64.encodeToString(packed, 0, packed.length, Base64.DEFAULT);
     }
 
+    /**
+     * Helper to turn bytes into a compact text value. The value is the {@link Base64Url} of the bytes
+     * behind a version marker: {@code ~1}. The marker can't start a legacy base 36 value,
+     * {@link #stringToBytes(String)} still decodes those.
+     *
+     * @param b {@code byte[]} to encode.
+     * @return {@link String} encoded value.
+     */
     public static String bytesToString(byte[] b) {
-        byte[] b2 = new byte[b.length + 1];
-        b2[0] = 1;
-        System.arraycopy(b, 0, b2, 1, b.length);
-        return new BigInteger(b2).toString(36);
+        return TEXT_CODEC_V1 + Base64Url.Encode(b);
     }
 
+    /**
+     * Reverse of {@link #bytesToString(byte[])}, values produced by the former base 36 codec are
+     * still accepted.
+     *
+     * @param s {@link String} encoded value.
+     * @return {@code byte[]} decoded value.
+     */
     public static byte[] stringToBytes(String s) {
+        if (s.startsWith(TEXT_CODEC_V1)) {
+            return Base64Url.Decode(s.substring(TEXT_CODEC_V1.length()));
+        }
+        // Legacy base 36 value, the leading 1 byte kept the sign and the leading zeros.
         byte[] b2 = new BigInteger(s, 36).toByteArray();
         return Arrays.copyOfRange(b2, 1, b2.length);
     }
@@ -505,19 +1131,22 @@ public class Crypto {
 
     /**
      * Execute the generation of RSA key in a new thread and add {@link android.app.ProgressDialog}
-     * to inform the user of the status.
+     * to inform the user of the status. A pre-generated pair of the {@link KeyPairPool} is used
+     * when available, in which case no dialog is shown.
      *
      * @param min      {@link Integer} value of the RSA key min length;
      * @param callback {@link ICryptoCallback} instance to callback on completion.
      */
     public void GenerateRSAPairAsync(final int min, final ICryptoCallback<KeyPair> callback) {
-        ShowProgress("Generating RSA Pair " + min);
+        if (keyPairPool.getReady(min) == 0) {
+            ShowProgress("Generating RSA Pair " + min);
+        }
         background.execute(new Runnable() {
             @Override
             public void run() {
                 KeyPair keyPair = null;
                 try {
-                    keyPair = GenerateRSAPair(min);
+                    keyPair = keyPairPool.Take(min);
                 } catch (NoSuchAlgorithmException | NoSuchProviderException e) {
                     e.printStackTrace();
                 }
@@ -587,6 +1216,33 @@ public class Crypto {
         });
     }
 
+    /**
+     * Asynchronous version of {@link #ValidateSignaturesBatch(PublicKey, List, List)}, the
+     * {@code callback} receives null if the key can't be used.
+     *
+     * @param publicKey  {@link PublicKey} object to validate the signatures.
+     * @param data       {@link List} of signed contents.
+     * @param signatures {@link List} of signatures, in the same order as {@code data}.
+     * @param callback   {@link ICryptoCallback} instance to callback on completion.
+     */
+    public void ValidateSignaturesBatchAsync(final PublicKey publicKey, final List<byte[]> data,
+                                             final List<byte[]> signatures, final ICryptoCallback<BitSet> callback) {
+        background.execute(new Runnable() {
+            @Override
+            public void run() {
+                BitSet valid = null;
+                try {
+                    valid = ValidateSignaturesBatch(publicKey, data, signatures);
+                } catch (GeneralSecurityException e) {
+                    e.printStackTrace();
+                }
+                if (callback != null) {
+                    callback.OnComplete(valid);
+                }
+            }
+        });
+    }
+
     /**
      * Helper to retrieve from the {@code keyStorage} all the {@link KeySet}.
      *
@@ -620,6 +1276,28 @@ public class Crypto {
         return keyStorage.GetKeySetForId(keyId);
     }
 
+    /**
+     * Page of the {@code keyStorage} after the id {@code afterId}, the keys are parsed on first access.
+     *
+     * @param afterId id of the last {@link KeySet} of the previous page, -1 for the first page.
+     * @param limit   maximum number of {@link KeySet} in the page.
+     * @return {@link List} of {@link KeySet} ordered by id.
+     */
+    public List<KeySet> GetStoredKeysPage(long afterId, int limit) {
+        return keyStorage.GetKeySetPage(afterId, limit);
+    }
+
+    /**
+     * Page of the {@code keyStorage} at the position {@code offset}, see {@link #GetStoredKeysPage(long, int)}.
+     */
+    public List<KeySet> GetStoredKeysPageAt(int offset, int limit) {
+        return keyStorage.GetKeySetPageAt(offset, limit);
+    }
+
+    public long GetStoredKeysCount() {
+        return keyStorage.GetKeySetCount();
+    }
+
     /**
      * Generate a RSA Pair key, on complete the pair is added to the {@code keyStorage}.
      *
@@ -670,6 +1348,34 @@ public class Crypto {
         });
     }
 
+    /**
+     * Generate a P-256 pair for the {@code key} and store it, the EC counterpart of
+     * {@link #PushRSAKeyAsync(KeySet, ICryptoCallback)}.
+     *
+     * @param key      {@link KeySet} instance to push inside the database.
+     * @param callback {@link ICryptoCallback<KeySet>} callback methods.
+     */
+    public void PushECKeyAsync(final KeySet key, final ICryptoCallback<KeySet> callback) {
+        background.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    KeyPair data = GenerateECPair();
+                    key.setAlgorithm(KeySet.ALGORITHM_EC);
+                    key.setLength(256);
+                    key.setPrivateKey(data.getPrivate());
+                    key.setPublicKey(data.getPublic());
+                    key.setId(keyStorage.AddKeyPair(key));
+                } catch (GeneralSecurityException e) {
+                    e.printStackTrace();
+                }
+                if (callback != null) {
+                    callback.OnComplete(key);
+                }
+            }
+        });
+    }
+
     /**
      * @param key      {@link KeySet} instance to push inside the database.
      * @param callback {@link ICryptoCallback<KeySet>} callback methods.
@@ -736,6 +1442,13 @@ public class Crypto {
         });
     }
 
+    /**
+     * @return {@link KeyPairPool} instance, to tune the number of pairs kept ready and read its metrics.
+     */
+    public KeyPairPool getKeyPairPool() {
+        return keyPairPool;
+    }
+
     public void UpdateActivity(Activity activity) {
         this.uiHelper = UIHelper.getInstance(activity);
     }
@@ -0,0 +1,254 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015. Pierre Teyssedre
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package ca.teyssedre.crypto;
+
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.os.BatteryManager;
+import android.os.Build;
+import android.os.PowerManager;
+import android.os.Process;
+
+import java.security.GeneralSecurityException;
+import java.security.KeyPair;
+import java.security.NoSuchAlgorithmException;
+import java.security.NoSuchProviderException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Pool of RSA key pairs generated ahead of time. For each key length a number of pairs are kept
+ * ready, one pair at a time is generated on a background thread of the lowest priority. The pool
+ * only refills while the device is charging or not interactive, except for the first
+ * {@code minReady} pairs of each length which are always generated. When the pool is empty the
+ * pair is generated on demand.
+ */
+public class KeyPairPool {
+
+    public static final int DEFAULT_TARGET = 2;
+    public static final int DEFAULT_MIN_READY = 1;
+    private static final long RETRY_DELAY = 60 * 1000;
+
+    //region Properties
+    private final Context context;
+    private final ConcurrentHashMap<Integer, LinkedBlockingQueue<KeyPair>> ready;
+    private final Map<Integer, Integer> targets;
+    private final ScheduledExecutorService generator;
+    private final AtomicBoolean scheduled;
+    private final AtomicLong hits;
+    private final AtomicLong misses;
+    private volatile int minReady;
+    //endregion
+
+    KeyPairPool(Context context) {
+        this.context = context.getApplicationContext();
+        this.ready = new ConcurrentHashMap<>();
+        this.targets = new ConcurrentHashMap<>();
+        this.scheduled = new AtomicBoolean();
+        this.hits = new AtomicLong();
+        this.misses = new AtomicLong();
+        this.minReady = DEFAULT_MIN_READY;
+        this.targets.put(2048, DEFAULT_TARGET);
+        this.generator = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(final Runnable r) {
+                Thread thread = new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        Process.setThreadPriority(Process.THREAD_PRIORITY_LOWEST);
+                        r.run();
+                    }
+                }, "Crypto-keypool");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    //region Public Methods
+
+    /**
+     * Start filling the pool.
+     */
+    public void Start() {
+        Schedule(0);
+    }
+
+    /**
+     * Change the number of pairs kept ready for a key length.
+     *
+     * @param length RSA key length, normalized as in {@link Crypto#GenerateRSAPair(int)}.
+     * @param count  number of pairs to keep ready, 0 to stop generating this length.
+     */
+    public void setTarget(int length, int count) {
+        targets.put(Crypto.RSALength(length), Math.max(0, count));
+        Schedule(0);
+    }
+
+    /**
+     * @param minReady number of pairs of each length generated even while the device is in use.
+     */
+    public void setMinReady(int minReady) {
+        this.minReady = Math.max(0, minReady);
+        Schedule(0);
+    }
+
+    /**
+     * Take a ready pair, or generate one on the calling thread if none is ready.
+     *
+     * @param length RSA key length, normalized as in {@link Crypto#GenerateRSAPair(int)}.
+     * @return {@link KeyPair} instance never handed out before.
+     * @throws NoSuchAlgorithmException
+     * @throws NoSuchProviderException
+     */
+    public KeyPair Take(int length) throws NoSuchAlgorithmException, NoSuchProviderException {
+        length = Crypto.RSALength(length);
+        KeyPair pair = QueueOf(length).poll();
+        Schedule(0);
+        if (pair != null) {
+            hits.incrementAndGet();
+            return pair;
+        }
+        misses.incrementAndGet();
+        return Crypto.GenerateRSAPair(length);
+    }
+    //endregion
+
+    //region Metrics
+
+    /**
+     * @param length RSA key length.
+     * @return number of pairs ready for the {@code length}.
+     */
+    public int getReady(int length) {
+        return QueueOf(Crypto.RSALength(length)).size();
+    }
+
+    /**
+     * @param length RSA key length.
+     * @return number of pairs the pool tries to keep ready for the {@code length}.
+     */
+    public int getTarget(int length) {
+        Integer target = targets.get(Crypto.RSALength(length));
+        return target == null ? 0 : target;
+    }
+
+    /**
+     * @return number of pairs taken from the pool.
+     */
+    public long getHits() {
+        return hits.get();
+    }
+
+    /**
+     * @return number of pairs generated on demand because the pool was empty.
+     */
+    public long getMisses() {
+        return misses.get();
+    }
+    //endregion
+
+    //region Private Methods
+
+    private LinkedBlockingQueue<KeyPair> QueueOf(int length) {
+        LinkedBlockingQueue<KeyPair> queue = ready.get(length);
+        if (queue == null) {
+            LinkedBlockingQueue<KeyPair> created = new LinkedBlockingQueue<>();
+            queue = ready.putIfAbsent(length, created);
+            if (queue == null) {
+                queue = created;
+            }
+        }
+        return queue;
+    }
+
+    private void Schedule(long delay) {
+        if (scheduled.compareAndSet(false, true)) {
+            generator.schedule(refill, delay, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Generate one pair for the length the most in need then schedule the next one.
+     */
+    private final Runnable refill = new Runnable() {
+        @Override
+        public void run() {
+            scheduled.set(false);
+            int next = 0;
+            int nextReady = Integer.MAX_VALUE;
+            for (Map.Entry<Integer, Integer> target : targets.entrySet()) {
+                int count = QueueOf(target.getKey()).size();
+                if (count < target.getValue() && count < nextReady) {
+                    next = target.getKey();
+                    nextReady = count;
+                }
+            }
+            if (next == 0) {
+                return;
+            }
+            if (nextReady >= minReady && !isIdleOrCharging()) {
+                Schedule(RETRY_DELAY);
+                return;
+            }
+            try {
+                QueueOf(next).offer(Crypto.GenerateRSAPair(next));
+            } catch (GeneralSecurityException e) {
+                e.printStackTrace();
+                Schedule(RETRY_DELAY);
+                return;
+            }
+            Schedule(0);
+        }
+    };
+
+    @SuppressWarnings("deprecation")
+    private boolean isIdleOrCharging() {
+        Intent battery = context.registerReceiver(null, new IntentFilter(Intent.ACTION_BATTERY_CHANGED));
+        if (battery != null) {
+            int status = battery.getIntExtra(BatteryManager.EXTRA_STATUS, -1);
+            if (status == BatteryManager.BATTERY_STATUS_CHARGING || status == BatteryManager.BATTERY_STATUS_FULL) {
+                return true;
+            }
+        }
+        PowerManager power = (PowerManager) context.getSystemService(Context.POWER_SERVICE);
+        if (power == null) {
+            return false;
+        }
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT_WATCH) {
+            return !power.isInteractive();
+        }
+        return !power.isScreenOn();
+    }
+    //endregion
+}
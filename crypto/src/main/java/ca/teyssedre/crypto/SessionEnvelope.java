@@ -0,0 +1,259 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015. Pierre Teyssedre
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package ca.teyssedre.crypto;
+
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.security.Key;
+import java.security.PrivateKey;
+import java.security.PublicKey;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+
+import ca.teyssedre.crypto.utils.PrimitivePool;
+
+/**
+ * Hybrid encryption of messages exchanged with a peer. A random AES-256 session key is wrapped
+ * once with the RSA public key of the peer and reused for many messages, each message is then
+ * encrypted with AES-GCM. The RSA cost is paid once per session on both ends instead of once per
+ * message.
+ * <p/>
+ * Every envelope carries the wrapped key so it can be opened even if the previous ones were lost,
+ * the receiver keeps the unwrapped keys by session id and only runs RSA on a new session:
+ * <pre>
+ * [version:1][session:8][wrapped length:2][wrapped key][AES-GCM frame]
+ * </pre>
+ * A session rotates after {@code maxMessages} messages, after {@code maxAge} milliseconds or when
+ * the public key of the peer changes.
+ */
+public class SessionEnvelope {
+
+    public static final long DEFAULT_MAX_MESSAGES = 10000;
+    public static final long DEFAULT_MAX_AGE = 60 * 60 * 1000;
+    public static final int DEFAULT_CACHE_SIZE = 64;
+    private static final byte VERSION = 1;
+    private static final String WRAP_TRANSFORMATION = "RSA/ECB/OAEPWithSHA-1AndMGF1Padding";
+    private static final int SESSION_KEY_LENGTH = 256;
+
+    /**
+     * Sending side of a session.
+     */
+    private static class Session {
+        final long id;
+        final SecretKey key;
+        final PublicKey peerKey;
+        final byte[] wrappedKey;
+        final long created;
+        final AtomicLong count;
+
+        Session(long id, SecretKey key, PublicKey peerKey, byte[] wrappedKey, long created) {
+            this.id = id;
+            this.key = key;
+            this.peerKey = peerKey;
+            this.wrappedKey = wrappedKey;
+            this.created = created;
+            this.count = new AtomicLong();
+        }
+    }
+
+    /**
+     * Receiving side of a session.
+     */
+    private static class OpenedSession {
+        final byte[] wrappedKey;
+        final SecretKey key;
+
+        OpenedSession(byte[] wrappedKey, SecretKey key) {
+            this.wrappedKey = wrappedKey;
+            this.key = key;
+        }
+    }
+
+    //region Properties
+    private final long maxMessages;
+    private final long maxAge;
+    private final SecureRandom random;
+    private final ConcurrentMap<String, Session> outgoing;
+    private final Map<Long, OpenedSession> incoming;
+    //endregion
+
+    public SessionEnvelope() {
+        this(DEFAULT_MAX_MESSAGES, DEFAULT_MAX_AGE, DEFAULT_CACHE_SIZE);
+    }
+
+    /**
+     * @param maxMessages number of messages sealed with a session key before it rotates.
+     * @param maxAge      milliseconds a session key is used before it rotates.
+     * @param cacheSize   number of session keys of the peers kept unwrapped.
+     */
+    public SessionEnvelope(long maxMessages, long maxAge, final int cacheSize) {
+        this.maxMessages = maxMessages;
+        this.maxAge = maxAge;
+        this.random = new SecureRandom();
+        this.outgoing = new ConcurrentHashMap<>();
+        this.incoming = new LinkedHashMap<Long, OpenedSession>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, OpenedSession> eldest) {
+                return size() > cacheSize;
+            }
+        };
+    }
+
+    //region Public Methods
+
+    /**
+     * Encrypt {@code data} for the peer, a new session is opened when needed.
+     *
+     * @param peerId  {@link String} identifier of the peer, one session is kept per peer.
+     * @param peerKey {@link PublicKey} of the peer, used to wrap the session key.
+     * @param data    {@code byte[]} content to encrypt.
+     * @param aad     additional authenticated data, such as the message header, may be null.
+     * @return {@code byte[]} envelope.
+     * @throws GeneralSecurityException
+     */
+    public byte[] Seal(String peerId, PublicKey peerKey, byte[] data, byte[] aad) throws GeneralSecurityException {
+        Session session = SessionFor(peerId, peerKey);
+        byte[] frame = Crypto.EncryptWithAESGCM(session.key, data, aad);
+        ByteBuffer envelope = ByteBuffer.allocate(1 + 8 + 2 + session.wrappedKey.length + frame.length);
+        envelope.put(VERSION);
+        envelope.putLong(session.id);
+        envelope.putShort((short) session.wrappedKey.length);
+        envelope.put(session.wrappedKey);
+        envelope.put(frame);
+        return envelope.array();
+    }
+
+    /**
+     * Decrypt an envelope produced by {@link #Seal(String, PublicKey, byte[], byte[])}, the
+     * session key is unwrapped with {@code privateKey} the first time the session is seen.
+     *
+     * @param privateKey {@link PrivateKey} matching the public key used by the sender.
+     * @param envelope   {@code byte[]} envelope to open.
+     * @param aad        additional authenticated data given by the sender, may be null.
+     * @return {@code byte[]} decrypted content.
+     * @throws GeneralSecurityException if the envelope is malformed or was modified.
+     */
+    public byte[] Open(PrivateKey privateKey, byte[] envelope, byte[] aad) throws GeneralSecurityException {
+        ByteBuffer buffer = ByteBuffer.wrap(envelope);
+        if (buffer.remaining() < 1 + 8 + 2 || buffer.get() != VERSION) {
+            throw new GeneralSecurityException("Unknown session envelope");
+        }
+        long id = buffer.getLong();
+        int wrappedLength = buffer.getShort() & 0xffff;
+        if (buffer.remaining() < wrappedLength) {
+            throw new GeneralSecurityException("Session envelope truncated");
+        }
+        byte[] wrappedKey = new byte[wrappedLength];
+        buffer.get(wrappedKey);
+        SecretKey key = OpenedKey(id, wrappedKey, privateKey);
+        byte[] frame = Arrays.copyOfRange(envelope, buffer.position(), envelope.length);
+        return Crypto.DecryptWithAESGCM(key, frame, aad);
+    }
+
+    /**
+     * Drop the current session of the peer, the next message will open a new one.
+     *
+     * @param peerId {@link String} identifier of the peer.
+     */
+    public void Rotate(String peerId) {
+        outgoing.remove(peerId);
+    }
+
+    /**
+     * Drop every session, sent and received.
+     */
+    public void Clear() {
+        outgoing.clear();
+        synchronized (incoming) {
+            incoming.clear();
+        }
+    }
+    //endregion
+
+    //region Private Methods
+
+    /**
+     * Current session of the peer, rotated when expired or when the peer changed its key. The new
+     * session key is wrapped without lock, senders to other peers never wait on RSA, and published
+     * with a compare-and-set. A sender losing the race uses the session published by the winner.
+     */
+    private Session SessionFor(String peerId, PublicKey peerKey) throws GeneralSecurityException {
+        while (true) {
+            long now = System.currentTimeMillis();
+            Session session = outgoing.get(peerId);
+            if (session != null && now - session.created < maxAge && session.peerKey.equals(peerKey)
+                    && session.count.incrementAndGet() <= maxMessages) {
+                return session;
+            }
+            Session created = NewSession(peerKey, now);
+            created.count.set(1);
+            boolean published = session == null ? outgoing.putIfAbsent(peerId, created) == null
+                    : outgoing.replace(peerId, session, created);
+            if (published) {
+                return created;
+            }
+        }
+    }
+
+    /**
+     * Generate a session key and wrap it for the peer, the only RSA operation of the sending side.
+     */
+    private Session NewSession(PublicKey peerKey, long now) throws GeneralSecurityException {
+        SecretKey key = Crypto.GenerateAESSecretKey(SESSION_KEY_LENGTH);
+        Cipher c = PrimitivePool.getCipher(WRAP_TRANSFORMATION);
+        c.init(Cipher.WRAP_MODE, peerKey, random);
+        return new Session(random.nextLong(), key, peerKey, c.wrap(key), now);
+    }
+
+    /**
+     * Unwrapped key of the session {@code id}, RSA only runs when the session is new. The wrapped
+     * key is compared as well so a reused id can't select the key of another session.
+     */
+    private SecretKey OpenedKey(long id, byte[] wrappedKey, PrivateKey privateKey) throws GeneralSecurityException {
+        synchronized (incoming) {
+            OpenedSession opened = incoming.get(id);
+            if (opened != null && Arrays.equals(opened.wrappedKey, wrappedKey)) {
+                return opened.key;
+            }
+        }
+        Cipher c = PrimitivePool.getCipher(WRAP_TRANSFORMATION);
+        c.init(Cipher.UNWRAP_MODE, privateKey);
+        Key key = c.unwrap(wrappedKey, "AES", Cipher.SECRET_KEY);
+        SecretKey secretKey = (SecretKey) key;
+        synchronized (incoming) {
+            incoming.put(id, new OpenedSession(wrappedKey, secretKey));
+        }
+        return secretKey;
+    }
+    //endregion
+}
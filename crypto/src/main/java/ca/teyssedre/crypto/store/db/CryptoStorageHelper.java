@@ -35,7 +35,7 @@ public class CryptoStorageHelper extends SQLiteOpenHelper {
 
     public static final String COLUMN_ID = "_id";
     public static final String STORAGE_NAME = "crypto_storage.db";
-    public static final int STORAGE_VERSION = 1;
+    public static final int STORAGE_VERSION = 2;
 
     private List<BaseDataSource> dataSources;
 
@@ -124,7 +124,10 @@ public class CryptoStorageHelper extends SQLiteOpenHelper {
     public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
         synchronized (lock) {
             for (BaseDataSource ds : dataSources) {
-                db.execSQL(ds.UpgradeTableQuery(oldVersion, newVersion));
+                String query = ds.UpgradeTableQuery(oldVersion, newVersion);
+                if (query != null) {
+                    db.execSQL(query);
+                }
             }
         }
     }
@@ -29,12 +29,14 @@ import android.content.Context;
 import android.database.Cursor;
 import android.database.DatabaseUtils;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteDoneException;
+import android.database.sqlite.SQLiteStatement;
 
-import java.security.GeneralSecurityException;
 import java.sql.SQLException;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
 
 import ca.teyssedre.crypto.Crypto;
@@ -43,14 +45,15 @@ import ca.teyssedre.crypto.store.models.KeySet;
 public class KeyStoreDataSource extends BaseDataSource {
 
     //region Properties
-    private static final String KEY_STORE_TABLE_NAME = "keystore";
+    public static final String KEY_STORE_TABLE_NAME = "keystore";
     private static final String TITLE_KEY_COLUMN = "title";
     private static final String DESCRIPTION_KEY_COLUMN = "description";
     private static final String CREATE_DATE_KEY_COLUMN = "created";
     private static final String MODIFY_DATE_KEY_COLUMN = "modified";
     private static final String ENCRYPT_KEY_COLUMN = "encrypt";
-    private static final String DECRYPT_KEY_COLUMN = "decrypt";
+    public static final String DECRYPT_KEY_COLUMN = "decrypt";
     private static final String SECRET_KEY_COLUMN = "secret";
+    public static final String ALGORITHM_KEY_COLUMN = "algorithm";
 
     private static final String CREATE_TABLE = "CREATE TABLE "
             + KEY_STORE_TABLE_NAME + "(" + CryptoStorageHelper.COLUMN_ID
@@ -61,14 +64,33 @@ public class KeyStoreDataSource extends BaseDataSource {
             + MODIFY_DATE_KEY_COLUMN + " DATE, "
             + ENCRYPT_KEY_COLUMN + " TEXT, "
             + DECRYPT_KEY_COLUMN + " TEXT, "
-            + SECRET_KEY_COLUMN + " TEXT "
+            + SECRET_KEY_COLUMN + " TEXT, "
+            + ALGORITHM_KEY_COLUMN + " TEXT DEFAULT '" + KeySet.ALGORITHM_RSA + "' "
             + ");";
 
+    // Version 2: algorithm tag, the existing keys are RSA.
+    private static final String ADD_ALGORITHM_COLUMN = "ALTER TABLE " + KEY_STORE_TABLE_NAME
+            + " ADD COLUMN " + ALGORITHM_KEY_COLUMN + " TEXT DEFAULT '" + KeySet.ALGORITHM_RSA + "'";
+
+    private static final String INSERT_KEY = "INSERT INTO " + KEY_STORE_TABLE_NAME + " ("
+            + TITLE_KEY_COLUMN + ", " + DESCRIPTION_KEY_COLUMN + ", " + CREATE_DATE_KEY_COLUMN + ", "
+            + MODIFY_DATE_KEY_COLUMN + ", " + ENCRYPT_KEY_COLUMN + ", " + DECRYPT_KEY_COLUMN + ", "
+            + ALGORITHM_KEY_COLUMN + ") VALUES (?, ?, ?, ?, ?, ?, ?)";
+    private static final String UPDATE_KEY = "UPDATE " + KEY_STORE_TABLE_NAME + " SET "
+            + TITLE_KEY_COLUMN + " = ?, " + DESCRIPTION_KEY_COLUMN + " = ?, " + MODIFY_DATE_KEY_COLUMN + " = ?, "
+            + ENCRYPT_KEY_COLUMN + " = ?, " + ALGORITHM_KEY_COLUMN + " = ? WHERE " + CryptoStorageHelper.COLUMN_ID + " = ?";
+    private static final String REPLACE_KEY = "UPDATE " + KEY_STORE_TABLE_NAME + " SET "
+            + TITLE_KEY_COLUMN + " = ?, " + DESCRIPTION_KEY_COLUMN + " = ?, " + CREATE_DATE_KEY_COLUMN + " = ?, "
+            + MODIFY_DATE_KEY_COLUMN + " = ?, " + ENCRYPT_KEY_COLUMN + " = ?, " + DECRYPT_KEY_COLUMN + " = ?, "
+            + ALGORITHM_KEY_COLUMN + " = ?, " + SECRET_KEY_COLUMN + " = NULL WHERE " + CryptoStorageHelper.COLUMN_ID + " = ?";
+    private static final String KEY_ID_BY_PUBLIC_KEY = "SELECT " + CryptoStorageHelper.COLUMN_ID + " FROM "
+            + KEY_STORE_TABLE_NAME + " WHERE " + DECRYPT_KEY_COLUMN + " = ? LIMIT 1";
+
     private CryptoStorageHelper dbHelper;
     private SQLiteDatabase database;
     private String[] allColumns = {CryptoStorageHelper.COLUMN_ID, TITLE_KEY_COLUMN,
             DESCRIPTION_KEY_COLUMN, CREATE_DATE_KEY_COLUMN, MODIFY_DATE_KEY_COLUMN,
-            ENCRYPT_KEY_COLUMN, DECRYPT_KEY_COLUMN, SECRET_KEY_COLUMN};
+            ENCRYPT_KEY_COLUMN, DECRYPT_KEY_COLUMN, SECRET_KEY_COLUMN, ALGORITHM_KEY_COLUMN};
     private boolean validateInsert = false;
     //endregion
 
@@ -77,17 +99,31 @@ public class KeyStoreDataSource extends BaseDataSource {
         dbHelper.RegisterDataSource(this);
         try {
             open();
-            close();
         } catch (SQLException e) {
             e.printStackTrace();
         }
     }
 
-    public void open() throws SQLException {
-        database = dbHelper.getWritableDatabase();
+    /**
+     * Long lived connection shared by all the accessors. {@link SQLiteDatabase} is safe to use from
+     * several threads, the accessors run from the UI paging and the executor of {@link Crypto} at
+     * the same time, so none of them closes it.
+     *
+     * @return {@link SQLiteDatabase} open instance.
+     * @throws SQLException
+     */
+    public synchronized SQLiteDatabase open() throws SQLException {
+        if (database == null || !database.isOpen()) {
+            database = dbHelper.getWritableDatabase();
+        }
+        return database;
     }
 
-    public void close() {
+    /**
+     * Release the connection, the next accessor call opens it again. Must not be called while an
+     * accessor may be running.
+     */
+    public synchronized void close() {
         if (database != null) {
             database.close();
             database = null;
@@ -96,44 +132,162 @@ public class KeyStoreDataSource extends BaseDataSource {
     }
 
     public long AddRSAKeyPair(KeySet keyPair) {
+        return AddKeyPair(keyPair);
+    }
+
+    /**
+     * Store the {@code keyPair}, its keys are encoded according to {@link KeySet#getAlgorithm()}.
+     *
+     * @param keyPair {@link KeySet} instance to store.
+     * @return id of the inserted row, -1 on failure.
+     */
+    public long AddKeyPair(KeySet keyPair) {
         try {
-            open();
+            SQLiteDatabase db = open();
             SimpleDateFormat iso8601Format = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
             ContentValues values = new ContentValues();
             values.put(TITLE_KEY_COLUMN, keyPair.getTitle());
             values.put(DESCRIPTION_KEY_COLUMN, keyPair.getDescription());
             values.put(CREATE_DATE_KEY_COLUMN, iso8601Format.format(keyPair.getCreated()));
             values.put(MODIFY_DATE_KEY_COLUMN, iso8601Format.format(keyPair.getModified()));
-            values.put(ENCRYPT_KEY_COLUMN, DatabaseUtils.sqlEscapeString(Crypto.PrivateKeyRSAToString(keyPair.getPrivateKey())));
-            values.put(DECRYPT_KEY_COLUMN, DatabaseUtils.sqlEscapeString(Crypto.PublicKeyRSAToString(keyPair.getPublicKey())));
-            long insertId = database.insert(KEY_STORE_TABLE_NAME, null, values);
+            values.put(ENCRYPT_KEY_COLUMN, DatabaseUtils.sqlEscapeString(Crypto.PrivateKeyToString(keyPair.getPrivateKey())));
+            values.put(DECRYPT_KEY_COLUMN, DatabaseUtils.sqlEscapeString(Crypto.PublicKeyToString(keyPair.getPublicKey())));
+            values.put(ALGORITHM_KEY_COLUMN, keyPair.getAlgorithm());
+            long insertId = db.insert(KEY_STORE_TABLE_NAME, null, values);
             if (validateInsert) {
-                Cursor cursor = database.query(KEY_STORE_TABLE_NAME, allColumns, CryptoStorageHelper.COLUMN_ID + " = " + insertId, null, null, null, null);
+                Cursor cursor = db.query(KEY_STORE_TABLE_NAME, allColumns, CryptoStorageHelper.COLUMN_ID + " = " + insertId, null, null, null, null);
                 cursor.moveToFirst();
                 KeySet ks = cursorToKeySet(cursor);
                 //TODO: validate keys to ensure serialization/deserialization works fine ...
                 cursor.close();
             }
-            close();
             return insertId;
-        } catch (SQLException | GeneralSecurityException e) {
+        } catch (SQLException e) {
             e.printStackTrace();
         }
         return -1;
     }
 
+    /**
+     * Store many pairs in a single transaction with compiled statements. A pair already stored is
+     * recognized by its public key and handled according to {@code mode}. The id of each
+     * {@link KeySet} is updated, and restored if the transaction fails.
+     *
+     * @param keyPairs {@link Collection} of {@link KeySet} to store.
+     * @param mode     {@link ConflictMode} applied to the pairs already stored.
+     * @return number of rows inserted or updated.
+     */
+    public int AddKeyPairs(Collection<KeySet> keyPairs, ConflictMode mode) {
+        int written = 0;
+        SimpleDateFormat iso8601Format = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
+        long[] ids = new long[keyPairs.size()];
+        int index = 0;
+        for (KeySet keyPair : keyPairs) {
+            ids[index++] = keyPair.getId();
+        }
+        boolean committed = false;
+        try {
+            SQLiteDatabase db = open();
+            SQLiteStatement insert = db.compileStatement(INSERT_KEY);
+            SQLiteStatement update = db.compileStatement(UPDATE_KEY);
+            SQLiteStatement replace = db.compileStatement(REPLACE_KEY);
+            SQLiteStatement lookup = db.compileStatement(KEY_ID_BY_PUBLIC_KEY);
+            db.beginTransaction();
+            try {
+                for (KeySet keyPair : keyPairs) {
+                    String privateKey = DatabaseUtils.sqlEscapeString(Crypto.PrivateKeyToString(keyPair.getPrivateKey()));
+                    String publicKey = DatabaseUtils.sqlEscapeString(Crypto.PublicKeyToString(keyPair.getPublicKey()));
+                    long existing;
+                    lookup.bindString(1, publicKey);
+                    try {
+                        existing = lookup.simpleQueryForLong();
+                    } catch (SQLiteDoneException e) {
+                        existing = -1;
+                    }
+                    if (existing > -1) {
+                        if (mode == ConflictMode.IGNORE) {
+                            keyPair.setId(existing);
+                            continue;
+                        }
+                        if (mode == ConflictMode.UPDATE_ON_HASH) {
+                            BindNullable(update, 1, keyPair.getTitle());
+                            BindNullable(update, 2, keyPair.getDescription());
+                            update.bindString(3, iso8601Format.format(keyPair.getModified()));
+                            update.bindString(4, privateKey);
+                            update.bindString(5, keyPair.getAlgorithm());
+                            update.bindLong(6, existing);
+                            update.executeUpdateDelete();
+                            keyPair.setId(existing);
+                            written++;
+                            continue;
+                        }
+                        BindKeySet(replace, keyPair, privateKey, publicKey, iso8601Format);
+                        replace.bindLong(8, existing);
+                        replace.executeUpdateDelete();
+                        keyPair.setId(existing);
+                    } else {
+                        BindKeySet(insert, keyPair, privateKey, publicKey, iso8601Format);
+                        keyPair.setId(insert.executeInsert());
+                    }
+                    written++;
+                }
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+                insert.close();
+                update.close();
+                replace.close();
+                lookup.close();
+            }
+            committed = true;
+        } catch (SQLException e) {
+            e.printStackTrace();
+            return 0;
+        } finally {
+            if (!committed) {
+                // The rows were rolled back, so are the ids.
+                index = 0;
+                for (KeySet keyPair : keyPairs) {
+                    keyPair.setId(ids[index++]);
+                }
+            }
+        }
+        return written;
+    }
+
+    /**
+     * Bind the columns of the {@code keyPair} in the order of {@link #INSERT_KEY} and {@link #REPLACE_KEY}.
+     */
+    private static void BindKeySet(SQLiteStatement statement, KeySet keyPair, String privateKey, String publicKey,
+                                   SimpleDateFormat iso8601Format) {
+        BindNullable(statement, 1, keyPair.getTitle());
+        BindNullable(statement, 2, keyPair.getDescription());
+        statement.bindString(3, iso8601Format.format(keyPair.getCreated()));
+        statement.bindString(4, iso8601Format.format(keyPair.getModified()));
+        statement.bindString(5, privateKey);
+        statement.bindString(6, publicKey);
+        statement.bindString(7, keyPair.getAlgorithm());
+    }
+
+    private static void BindNullable(SQLiteStatement statement, int index, String value) {
+        if (value == null) {
+            statement.bindNull(index);
+        } else {
+            statement.bindString(index, value);
+        }
+    }
+
     public List<KeySet> GetAllKeySet() {
         List<KeySet> list = new ArrayList<>();
         try {
-            open();
-            Cursor cursor = database.query(KEY_STORE_TABLE_NAME, allColumns, null, null, null, null, null);
-            cursor.moveToFirst();
-            while (!cursor.isAfterLast()) {
-                KeySet ks = cursorToKeySet(cursor);
-                list.add(ks);
+            Cursor cursor = open().query(KEY_STORE_TABLE_NAME, allColumns, null, null, null, null, null);
+            try {
+                while (cursor.moveToNext()) {
+                    list.add(cursorToKeySet(cursor));
+                }
+            } finally {
+                cursor.close();
             }
-            cursor.close();
-            close();
         } catch (SQLException e) {
             e.printStackTrace();
         }
@@ -141,9 +295,7 @@ public class KeyStoreDataSource extends BaseDataSource {
     }
 
     public void DeleteKeyById(long itemId) throws SQLException {
-        open();
-        database.delete(KEY_STORE_TABLE_NAME, CryptoStorageHelper.COLUMN_ID + " = " + itemId, null);
-        close();
+        open().delete(KEY_STORE_TABLE_NAME, CryptoStorageHelper.COLUMN_ID + " = " + itemId, null);
     }
 
     private KeySet cursorToKeySet(Cursor cursor) {
@@ -155,19 +307,20 @@ public class KeyStoreDataSource extends BaseDataSource {
             ks.setDescription(cursor.getString(2));
             ks.setCreated(iso8601Format.parse(cursor.getString(3)));
             ks.setModified(iso8601Format.parse(cursor.getString(4)));
-            if (cursor.getString(5) != null)
-                ks.setPrivateKey(Crypto.StringToPrivateKey(cursor.getString(5).replaceAll("'", "")));
-            if (cursor.getString(6) != null)
-                ks.setPublicKey(Crypto.StringToPublicKey(cursor.getString(6).replaceAll("'", "")));
-            if (cursor.getString(7) != null)
-                ks.setSecretKey(Crypto.StringToAESKey(cursor.getString(7).replaceAll("'", "")));
-            cursor.moveToNext();
-        } catch (GeneralSecurityException | ParseException e) {
+            if (cursor.getString(8) != null)
+                ks.setAlgorithm(cursor.getString(8));
+            // the keys are parsed by the getters of the KeySet when they are needed
+            ks.setEncodedKeys(unescape(cursor.getString(6)), unescape(cursor.getString(5)), unescape(cursor.getString(7)));
+        } catch (ParseException e) {
             e.printStackTrace();
         }
         return ks;
     }
 
+    private static String unescape(String stored) {
+        return stored == null ? null : stored.replaceAll("'", "");
+    }
+
     public boolean isValidateInsert() {
         return validateInsert;
     }
@@ -184,26 +337,78 @@ public class KeyStoreDataSource extends BaseDataSource {
 
     @Override
     public String UpgradeTableQuery(int oldVersion, int newVersion) {
+        if (oldVersion < 2 && newVersion >= 2) {
+            return ADD_ALGORITHM_COLUMN;
+        }
         return null;
     }
 
     public KeySet GetKeySetForId(long keyId) {
         List<KeySet> list = new ArrayList<>();
         try {
-            open();
-            Cursor cursor = database.query(KEY_STORE_TABLE_NAME, allColumns, CryptoStorageHelper.COLUMN_ID + " = " + keyId, null, null, null, null);
-            cursor.moveToFirst();
-            while (!cursor.isAfterLast()) {
-                KeySet ks = cursorToKeySet(cursor);
-                list.add(ks);
+            Cursor cursor = open().query(KEY_STORE_TABLE_NAME, allColumns, CryptoStorageHelper.COLUMN_ID + " = " + keyId, null, null, null, null);
+            try {
+                while (cursor.moveToNext()) {
+                    list.add(cursorToKeySet(cursor));
+                }
+            } finally {
+                cursor.close();
             }
-            cursor.close();
-            close();
         } catch (SQLException e) {
             e.printStackTrace();
         }
         return list.size() > 0 ? list.get(0) : null;
     }
 
+    /**
+     * Keyset pagination on the id, the page starts right after {@code afterId} whatever the number
+     * of rows before it. The keys are not parsed, see {@link KeySet#setEncodedKeys(String, String, String)}.
+     *
+     * @param afterId id of the last {@link KeySet} of the previous page, -1 for the first page.
+     * @param limit   maximum number of {@link KeySet} in the page.
+     * @return {@link List} of {@link KeySet} ordered by id.
+     */
+    public List<KeySet> GetKeySetPage(long afterId, int limit) {
+        return QueryPage(CryptoStorageHelper.COLUMN_ID + " > " + afterId, String.valueOf(limit));
+    }
+
+    /**
+     * Page at a position, used when the id before the page is unknown (e.g. a fast scroll).
+     *
+     * @param offset position of the first {@link KeySet} of the page.
+     * @param limit  maximum number of {@link KeySet} in the page.
+     * @return {@link List} of {@link KeySet} ordered by id.
+     */
+    public List<KeySet> GetKeySetPageAt(int offset, int limit) {
+        return QueryPage(null, offset + "," + limit);
+    }
+
+    public long GetKeySetCount() {
+        try {
+            return DatabaseUtils.queryNumEntries(open(), KEY_STORE_TABLE_NAME);
+        } catch (SQLException e) {
+            e.printStackTrace();
+        }
+        return 0;
+    }
+
+    private List<KeySet> QueryPage(String selection, String limit) {
+        List<KeySet> list = new ArrayList<>();
+        try {
+            Cursor cursor = open().query(KEY_STORE_TABLE_NAME, allColumns, selection, null, null, null,
+                    CryptoStorageHelper.COLUMN_ID, limit);
+            try {
+                while (cursor.moveToNext()) {
+                    list.add(cursorToKeySet(cursor));
+                }
+            } finally {
+                cursor.close();
+            }
+        } catch (SQLException e) {
+            e.printStackTrace();
+        }
+        return list;
+    }
+
     //endregion
 }
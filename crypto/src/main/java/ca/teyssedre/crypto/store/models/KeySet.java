@@ -25,16 +25,27 @@
 package ca.teyssedre.crypto.store.models;
 
 import java.io.Serializable;
+import java.security.GeneralSecurityException;
 import java.security.PrivateKey;
 import java.security.PublicKey;
 import java.util.Date;
 
 import javax.crypto.SecretKey;
 
+import ca.teyssedre.crypto.Crypto;
+
 public class KeySet implements Serializable {
 
+    public static final String ALGORITHM_RSA = "RSA";
+    public static final String ALGORITHM_EC = "EC";
+    /**
+     * Format of the stored private key, read by {@link Crypto#StringToPrivateKey(String, String)}.
+     */
+    public static final String PRIVATE_KEY_FORMAT = "PKCS#8";
+
     //region Properties
     private long id;
+    private String algorithm;
     private String title;
     private String description;
     private int length;
@@ -43,12 +54,17 @@ public class KeySet implements Serializable {
     private PublicKey publicKey;
     private PrivateKey privateKey;
     private SecretKey secretKey;
+    // stored form of the keys, parsed on first access; the key fields are guarded by this
+    private String encodedPublicKey;
+    private String encodedPrivateKey;
+    private String encodedSecretKey;
     //endregion
 
     public KeySet() {
         title = "Default key";
         description = "key set for encrypt/decrypt";
         length = 0;
+        algorithm = ALGORITHM_RSA;
         created = new Date();
         modified = new Date();
     }
@@ -62,6 +78,17 @@ public class KeySet implements Serializable {
         this.id = id;
     }
 
+    /**
+     * @return {@link String} algorithm of the keys, {@link #ALGORITHM_RSA} or {@link #ALGORITHM_EC}.
+     */
+    public String getAlgorithm() {
+        return algorithm;
+    }
+
+    public void setAlgorithm(String algorithm) {
+        this.algorithm = algorithm;
+    }
+
     public String getTitle() {
         return title;
     }
@@ -102,28 +129,94 @@ public class KeySet implements Serializable {
         this.modified = modified;
     }
 
-    public PublicKey getPublicKey() {
+    public synchronized PublicKey getPublicKey() {
+        if (publicKey == null && encodedPublicKey != null) {
+            try {
+                publicKey = Crypto.StringToPublicKey(encodedPublicKey, algorithm);
+            } catch (GeneralSecurityException e) {
+                e.printStackTrace();
+            }
+            encodedPublicKey = null;
+        }
         return publicKey;
     }
 
-    public void setPublicKey(PublicKey publicKey) {
+    public synchronized void setPublicKey(PublicKey publicKey) {
         this.publicKey = publicKey;
-    }
-
-    public PrivateKey getPrivateKey() {
+        this.encodedPublicKey = null;
+    }
+
+    public synchronized PrivateKey getPrivateKey() {
+        if (privateKey == null && encodedPrivateKey != null) {
+            try {
+                privateKey = Crypto.StringToPrivateKey(encodedPrivateKey, algorithm);
+            } catch (GeneralSecurityException e) {
+                e.printStackTrace();
+            }
+            encodedPrivateKey = null;
+        }
         return privateKey;
     }
 
-    public void setPrivateKey(PrivateKey privateKey) {
+    public synchronized void setPrivateKey(PrivateKey privateKey) {
         this.privateKey = privateKey;
+        this.encodedPrivateKey = null;
     }
 
-    public SecretKey getSecretKey() {
+    public synchronized SecretKey getSecretKey() {
+        if (secretKey == null && encodedSecretKey != null) {
+            secretKey = Crypto.StringToAESKey(encodedSecretKey);
+            encodedSecretKey = null;
+        }
         return secretKey;
     }
 
-    public void setSecretKey(SecretKey secretKey) {
+    public synchronized void setSecretKey(SecretKey secretKey) {
         this.secretKey = secretKey;
+        this.encodedSecretKey = null;
+    }
+
+    /**
+     * Keep the stored form of the keys, each one is parsed by its getter on first access so a
+     * list of key sets can be shown without parsing any key. The key getters are synchronized,
+     * a set loaded on one thread and shown on another parses each key once.
+     *
+     * @param publicKey64  Base64 public key or null.
+     * @param privateKey64 Base64 private key or null.
+     * @param secretKey64  Base64 AES key or null.
+     */
+    public synchronized void setEncodedKeys(String publicKey64, String privateKey64, String secretKey64) {
+        this.publicKey = null;
+        this.privateKey = null;
+        this.secretKey = null;
+        this.encodedPublicKey = publicKey64;
+        this.encodedPrivateKey = privateKey64;
+        this.encodedSecretKey = secretKey64;
+    }
+
+    /**
+     * @return true if the set has a private key, without parsing it.
+     */
+    public synchronized boolean hasPrivateKey() {
+        return privateKey != null || encodedPrivateKey != null;
+    }
+
+    /**
+     * @return format of the private key, without parsing it, null if the set has none or if
+     * the key has no encoded form.
+     */
+    public synchronized String getPrivateKeyFormat() {
+        if (privateKey != null) {
+            return privateKey.getFormat();
+        }
+        return encodedPrivateKey != null ? PRIVATE_KEY_FORMAT : null;
+    }
+
+    /**
+     * @return true if the set has a secret key, without parsing it.
+     */
+    public synchronized boolean hasSecretKey() {
+        return secretKey != null || encodedSecretKey != null;
     }
     //endregion
 }
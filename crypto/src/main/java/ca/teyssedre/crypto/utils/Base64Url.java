@@ -0,0 +1,113 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015. Pierre Teyssedre
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package ca.teyssedre.crypto.utils;
+
+import java.util.Arrays;
+
+/**
+ * URL safe Base64 (RFC 4648 section 5) without padding nor line breaks. Plain Java, the values are
+ * the same as {@code android.util.Base64} with {@code URL_SAFE | NO_WRAP | NO_PADDING} but the
+ * codec does not depend on the platform, {@code java.util.Base64} needs API 26.
+ */
+public final class Base64Url {
+
+    private static final char[] ALPHABET = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789-_".toCharArray();
+    private static final int[] VALUES = new int[128];
+
+    static {
+        Arrays.fill(VALUES, -1);
+        for (int i = 0; i < ALPHABET.length; i++) {
+            VALUES[ALPHABET[i]] = i;
+        }
+    }
+
+    private Base64Url() {
+    }
+
+    /**
+     * @param data {@code byte[]} to encode.
+     * @return {@link String} encoded value, {@code ceil(4 * length / 3)} characters.
+     */
+    public static String Encode(byte[] data) {
+        char[] out = new char[(data.length * 4 + 2) / 3];
+        int o = 0;
+        int i = 0;
+        for (; i + 2 < data.length; i += 3) {
+            int bits = (data[i] & 0xff) << 16 | (data[i + 1] & 0xff) << 8 | (data[i + 2] & 0xff);
+            out[o++] = ALPHABET[bits >>> 18];
+            out[o++] = ALPHABET[(bits >>> 12) & 0x3f];
+            out[o++] = ALPHABET[(bits >>> 6) & 0x3f];
+            out[o++] = ALPHABET[bits & 0x3f];
+        }
+        int left = data.length - i;
+        if (left > 0) {
+            int bits = (data[i] & 0xff) << 16 | (left == 2 ? (data[i + 1] & 0xff) << 8 : 0);
+            out[o++] = ALPHABET[bits >>> 18];
+            out[o++] = ALPHABET[(bits >>> 12) & 0x3f];
+            if (left == 2) {
+                out[o] = ALPHABET[(bits >>> 6) & 0x3f];
+            }
+        }
+        return new String(out);
+    }
+
+    /**
+     * @param value {@link String} returned by {@link #Encode(byte[])}.
+     * @return {@code byte[]} decoded value.
+     * @throws IllegalArgumentException if {@code value} is not an unpadded URL safe Base64 value.
+     */
+    public static byte[] Decode(String value) {
+        int length = value.length();
+        if (length % 4 == 1) {
+            throw new IllegalArgumentException("Invalid Base64url length: " + length);
+        }
+        byte[] out = new byte[length * 3 / 4];
+        int o = 0;
+        int bits = 0;
+        int count = 0;
+        for (int i = 0; i < length; i++) {
+            char c = value.charAt(i);
+            int v = c < 128 ? VALUES[c] : -1;
+            if (v < 0) {
+                throw new IllegalArgumentException("Invalid Base64url character at " + i);
+            }
+            bits = bits << 6 | v;
+            if (++count == 4) {
+                out[o++] = (byte) (bits >>> 16);
+                out[o++] = (byte) (bits >>> 8);
+                out[o++] = (byte) bits;
+                bits = 0;
+                count = 0;
+            }
+        }
+        if (count == 3) {
+            out[o++] = (byte) (bits >>> 10);
+            out[o] = (byte) (bits >>> 2);
+        } else if (count == 2) {
+            out[o] = (byte) (bits >>> 4);
+        }
+        return out;
+    }
+}
@@ -0,0 +1,230 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015. Pierre Teyssedre
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package ca.teyssedre.crypto.utils;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.PublicKey;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded LRU of parsed public keys, indexed by the SHA-256 fingerprint of their algorithm and stored
+ * {@link String} value. Parsing a key decodes its Base64 value and runs a {@code KeyFactory}, the
+ * cache turns the repeated parsing of the same key into a digest and a lookup. The stored value
+ * itself is never kept, only its fingerprint.
+ * <p/>
+ * With a {@code ttl}, the expired keys are dropped by a background sweep even if nobody asks for
+ * them again. Eviction only releases the cache reference, a key already returned stays usable by
+ * its holder.
+ * <p/>
+ * Only public keys can be cached. A shared private key could neither be destroyed on eviction,
+ * its holders still use it, nor be trusted to be gone once evicted, so private keys are parsed on
+ * every use and owned by their caller.
+ */
+public class KeyCache<K extends PublicKey> {
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final String DIGEST = "SHA-256";
+    private static final ScheduledExecutorService SWEEPER = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "Crypto-keycache");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    private static class Entry<K> {
+        final K key;
+        final long expiry;
+
+        Entry(K key, long expiry) {
+            this.key = key;
+            this.expiry = expiry;
+        }
+    }
+
+    //region Properties
+    private final long ttlNanos;
+    private final LinkedHashMap<ByteBuffer, Entry<K>> entries;
+    private final Runnable sweep;
+    private final AtomicLong hits;
+    private final AtomicLong misses;
+    private final AtomicLong evictions;
+    private ScheduledFuture<?> sweepTask;
+    //endregion
+
+    /**
+     * @param maxSize maximum number of keys kept.
+     * @param ttl     milliseconds a key is kept, 0 to keep it until evicted by size.
+     */
+    public KeyCache(final int maxSize, long ttl) {
+        this.ttlNanos = TimeUnit.MILLISECONDS.toNanos(ttl);
+        this.hits = new AtomicLong();
+        this.misses = new AtomicLong();
+        this.evictions = new AtomicLong();
+        this.sweep = new Runnable() {
+            @Override
+            public void run() {
+                Purge();
+            }
+        };
+        this.entries = new LinkedHashMap<ByteBuffer, Entry<K>>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<ByteBuffer, Entry<K>> eldest) {
+                if (size() > maxSize) {
+                    evictions.incrementAndGet();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * @param key64     {@link String} stored value of a key.
+     * @param algorithm {@link String} algorithm the key is parsed with, the same value parsed for
+     *                  another algorithm is another entry.
+     * @return {@link ByteBuffer} wrapping the SHA-256 of {@code algorithm} and {@code key64},
+     * compared by content.
+     * @throws NoSuchAlgorithmException
+     */
+    public static ByteBuffer FingerprintOf(String key64, String algorithm) throws NoSuchAlgorithmException {
+        MessageDigest digest = PrimitivePool.getMessageDigest(DIGEST);
+        byte[] name = algorithm.getBytes(UTF8);
+        digest.update(ByteBuffer.allocate(4).putInt(name.length).array());
+        digest.update(name);
+        return ByteBuffer.wrap(digest.digest(key64.getBytes(UTF8)));
+    }
+
+    //region Public Methods
+
+    /**
+     * @param fingerprint {@link ByteBuffer} returned by {@link #FingerprintOf(String, String)}.
+     * @return the parsed key or null if it's not in the cache.
+     */
+    public K Get(ByteBuffer fingerprint) {
+        long now = System.nanoTime();
+        synchronized (entries) {
+            Entry<K> entry = entries.get(fingerprint);
+            if (entry != null) {
+                if (ttlNanos == 0 || entry.expiry - now > 0) {
+                    hits.incrementAndGet();
+                    return entry.key;
+                }
+                entries.remove(fingerprint);
+                evictions.incrementAndGet();
+            }
+        }
+        misses.incrementAndGet();
+        return null;
+    }
+
+    /**
+     * @param fingerprint {@link ByteBuffer} returned by {@link #FingerprintOf(String, String)}.
+     * @param key         parsed key.
+     */
+    public void Put(ByteBuffer fingerprint, K key) {
+        Entry<K> entry = new Entry<>(key, System.nanoTime() + ttlNanos);
+        synchronized (entries) {
+            entries.put(fingerprint, entry);
+            if (ttlNanos > 0 && sweepTask == null) {
+                sweepTask = SWEEPER.schedule(sweep, ttlNanos, TimeUnit.NANOSECONDS);
+            }
+        }
+    }
+
+    /**
+     * Drop the expired keys. Runs on its own once a key was put in a cache with a {@code ttl},
+     * until the cache is empty again.
+     */
+    public void Purge() {
+        long now = System.nanoTime();
+        synchronized (entries) {
+            long next = Long.MAX_VALUE;
+            Iterator<Entry<K>> iterator = entries.values().iterator();
+            while (iterator.hasNext()) {
+                long left = iterator.next().expiry - now;
+                if (ttlNanos > 0 && left <= 0) {
+                    iterator.remove();
+                    evictions.incrementAndGet();
+                } else if (left < next) {
+                    next = left;
+                }
+            }
+            if (sweepTask != null) {
+                sweepTask.cancel(false);
+                sweepTask = null;
+            }
+            if (ttlNanos > 0 && !entries.isEmpty()) {
+                sweepTask = SWEEPER.schedule(sweep, next, TimeUnit.NANOSECONDS);
+            }
+        }
+    }
+
+    /**
+     * Evict every key.
+     */
+    public void Clear() {
+        synchronized (entries) {
+            entries.clear();
+            if (sweepTask != null) {
+                sweepTask.cancel(false);
+                sweepTask = null;
+            }
+        }
+    }
+    //endregion
+
+    //region Metrics
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    public int getSize() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+    //endregion
+}
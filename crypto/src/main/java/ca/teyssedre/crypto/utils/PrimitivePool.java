@@ -0,0 +1,227 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015. Pierre Teyssedre
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package ca.teyssedre.crypto.utils;
+
+import java.security.KeyFactory;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.NoSuchProviderException;
+import java.security.Signature;
+import java.util.HashMap;
+
+import javax.crypto.Cipher;
+import javax.crypto.KeyAgreement;
+import javax.crypto.NoSuchPaddingException;
+
+/**
+ * Per thread cache of JCA primitives keyed by algorithm and provider. The {@code getInstance} lookup
+ * walks the registered providers on every call, reusing the instances skips that cost.
+ * <p/>
+ * Each type has its own map keyed by the algorithm, and by the provider first when one is given, so
+ * a lookup hashes the given {@link String} values and never builds a new one.
+ * <p/>
+ * An instance is only visible to the thread that created it, the caller must re-initialize it
+ * ({@code init}, {@code initSign}, {@code initVerify}) before each use and must not keep it once the
+ * operation is done. Digests are reset by the pool before being returned.
+ */
+public final class PrimitivePool {
+
+    /**
+     * Instances of one thread, by type.
+     */
+    private static final class Pools {
+        final HashMap<String, Cipher> ciphers = new HashMap<>();
+        final HashMap<String, Signature> signatures = new HashMap<>();
+        final HashMap<String, KeyFactory> keyFactories = new HashMap<>();
+        final HashMap<String, KeyAgreement> keyAgreements = new HashMap<>();
+        final HashMap<String, MessageDigest> digests = new HashMap<>();
+        final HashMap<String, HashMap<String, Cipher>> providerCiphers = new HashMap<>();
+        final HashMap<String, HashMap<String, Signature>> providerSignatures = new HashMap<>();
+        final HashMap<String, HashMap<String, KeyFactory>> providerKeyFactories = new HashMap<>();
+    }
+
+    private static final ThreadLocal<Pools> POOL = new ThreadLocal<Pools>() {
+        @Override
+        protected Pools initialValue() {
+            return new Pools();
+        }
+    };
+
+    private PrimitivePool() {
+    }
+
+    /**
+     * @param transformation {@link String} value such as {@code AES/CBC/PKCS5Padding}.
+     * @return {@link Cipher} instance of the current thread.
+     * @throws NoSuchAlgorithmException
+     * @throws NoSuchPaddingException
+     */
+    public static Cipher getCipher(String transformation) throws NoSuchAlgorithmException, NoSuchPaddingException {
+        HashMap<String, Cipher> pool = POOL.get().ciphers;
+        Cipher cipher = pool.get(transformation);
+        if (cipher == null) {
+            cipher = Cipher.getInstance(transformation);
+            pool.put(transformation, cipher);
+        }
+        return cipher;
+    }
+
+    /**
+     * @param transformation {@link String} value such as {@code AES/CBC/PKCS5Padding}.
+     * @param provider       {@link String} name of the provider.
+     * @return {@link Cipher} instance of the current thread.
+     * @throws NoSuchAlgorithmException
+     * @throws NoSuchPaddingException
+     * @throws NoSuchProviderException
+     */
+    public static Cipher getCipher(String transformation, String provider) throws NoSuchAlgorithmException,
+            NoSuchPaddingException, NoSuchProviderException {
+        HashMap<String, Cipher> pool = ProviderPool(POOL.get().providerCiphers, provider);
+        Cipher cipher = pool.get(transformation);
+        if (cipher == null) {
+            cipher = Cipher.getInstance(transformation, provider);
+            pool.put(transformation, cipher);
+        }
+        return cipher;
+    }
+
+    /**
+     * @param algorithm {@link String} value such as {@code SHA256withRSA}.
+     * @return {@link Signature} instance of the current thread.
+     * @throws NoSuchAlgorithmException
+     */
+    public static Signature getSignature(String algorithm) throws NoSuchAlgorithmException {
+        HashMap<String, Signature> pool = POOL.get().signatures;
+        Signature signature = pool.get(algorithm);
+        if (signature == null) {
+            signature = Signature.getInstance(algorithm);
+            pool.put(algorithm, signature);
+        }
+        return signature;
+    }
+
+    /**
+     * @param algorithm {@link String} value such as {@code SHA256withRSA}.
+     * @param provider  {@link String} name of the provider.
+     * @return {@link Signature} instance of the current thread.
+     * @throws NoSuchAlgorithmException
+     * @throws NoSuchProviderException
+     */
+    public static Signature getSignature(String algorithm, String provider) throws NoSuchAlgorithmException,
+            NoSuchProviderException {
+        HashMap<String, Signature> pool = ProviderPool(POOL.get().providerSignatures, provider);
+        Signature signature = pool.get(algorithm);
+        if (signature == null) {
+            signature = Signature.getInstance(algorithm, provider);
+            pool.put(algorithm, signature);
+        }
+        return signature;
+    }
+
+    /**
+     * @param algorithm {@link String} value such as {@code RSA}.
+     * @return {@link KeyFactory} instance of the current thread.
+     * @throws NoSuchAlgorithmException
+     */
+    public static KeyFactory getKeyFactory(String algorithm) throws NoSuchAlgorithmException {
+        HashMap<String, KeyFactory> pool = POOL.get().keyFactories;
+        KeyFactory factory = pool.get(algorithm);
+        if (factory == null) {
+            factory = KeyFactory.getInstance(algorithm);
+            pool.put(algorithm, factory);
+        }
+        return factory;
+    }
+
+    /**
+     * @param algorithm {@link String} value such as {@code RSA}.
+     * @param provider  {@link String} name of the provider.
+     * @return {@link KeyFactory} instance of the current thread.
+     * @throws NoSuchAlgorithmException
+     * @throws NoSuchProviderException
+     */
+    public static KeyFactory getKeyFactory(String algorithm, String provider) throws NoSuchAlgorithmException,
+            NoSuchProviderException {
+        HashMap<String, KeyFactory> pool = ProviderPool(POOL.get().providerKeyFactories, provider);
+        KeyFactory factory = pool.get(algorithm);
+        if (factory == null) {
+            factory = KeyFactory.getInstance(algorithm, provider);
+            pool.put(algorithm, factory);
+        }
+        return factory;
+    }
+
+    /**
+     * @param algorithm {@link String} value such as {@code ECDH}.
+     * @return {@link KeyAgreement} instance of the current thread.
+     * @throws NoSuchAlgorithmException
+     */
+    public static KeyAgreement getKeyAgreement(String algorithm) throws NoSuchAlgorithmException {
+        HashMap<String, KeyAgreement> pool = POOL.get().keyAgreements;
+        KeyAgreement agreement = pool.get(algorithm);
+        if (agreement == null) {
+            agreement = KeyAgreement.getInstance(algorithm);
+            pool.put(algorithm, agreement);
+        }
+        return agreement;
+    }
+
+    /**
+     * @param algorithm {@link String} value such as {@code SHA-256}.
+     * @return {@link MessageDigest} instance of the current thread, reset before being returned.
+     * @throws NoSuchAlgorithmException
+     */
+    public static MessageDigest getMessageDigest(String algorithm) throws NoSuchAlgorithmException {
+        HashMap<String, MessageDigest> pool = POOL.get().digests;
+        MessageDigest digest = pool.get(algorithm);
+        if (digest == null) {
+            digest = MessageDigest.getInstance(algorithm);
+            pool.put(algorithm, digest);
+        } else {
+            digest.reset();
+        }
+        return digest;
+    }
+
+    /**
+     * Drop every instance cached by the current thread, e.g. before returning a thread to a pool
+     * shared with other libraries.
+     */
+    public static void Clear() {
+        POOL.remove();
+    }
+
+    /**
+     * @return map of the instances of the {@code provider}, by algorithm.
+     */
+    private static <T> HashMap<String, T> ProviderPool(HashMap<String, HashMap<String, T>> pools, String provider) {
+        HashMap<String, T> pool = pools.get(provider);
+        if (pool == null) {
+            pool = new HashMap<>();
+            pools.put(provider, pool);
+        }
+        return pool;
+    }
+}
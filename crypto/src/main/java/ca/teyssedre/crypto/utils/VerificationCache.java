@@ -0,0 +1,189 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015. Pierre Teyssedre
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package ca.teyssedre.crypto.utils;
+
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.PublicKey;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded LRU of the signatures already validated. An entry is identified by the fingerprint of the
+ * public key and a SHA-256 digest of the signed content and of the signature, a repeated validation
+ * becomes a digest and a lookup instead of an RSA operation.
+ * <p/>
+ * Only valid signatures are stored, an invalid one is validated again every time. Entries are
+ * evicted when the cache is full, least recently used first, or after {@code ttl} milliseconds.
+ */
+public class VerificationCache {
+
+    public static final int DEFAULT_MAX_SIZE = 1024;
+    public static final long DEFAULT_TTL = 10 * 60 * 1000;
+    private static final String DIGEST = "SHA-256";
+
+    //region Properties
+    private final long ttlNanos;
+    private final LinkedHashMap<ByteBuffer, Long> entries;
+    private final WeakHashMap<PublicKey, byte[]> fingerprints;
+    private final AtomicLong hits;
+    private final AtomicLong misses;
+    private final AtomicLong evictions;
+    //endregion
+
+    public VerificationCache() {
+        this(DEFAULT_MAX_SIZE, DEFAULT_TTL);
+    }
+
+    /**
+     * @param maxSize maximum number of validated signatures kept.
+     * @param ttl     milliseconds a validation is trusted.
+     */
+    public VerificationCache(final int maxSize, long ttl) {
+        this.ttlNanos = TimeUnit.MILLISECONDS.toNanos(ttl);
+        this.fingerprints = new WeakHashMap<>();
+        this.hits = new AtomicLong();
+        this.misses = new AtomicLong();
+        this.evictions = new AtomicLong();
+        this.entries = new LinkedHashMap<ByteBuffer, Long>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<ByteBuffer, Long> eldest) {
+                if (size() > maxSize) {
+                    evictions.incrementAndGet();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    //region Public Methods
+
+    /**
+     * Identifier of a validation, to pass to {@link #Contains(ByteBuffer)} and {@link #Add(ByteBuffer)}.
+     *
+     * @param publicKey {@link PublicKey} used to validate the signature.
+     * @param data      {@code byte[]} signed content.
+     * @param signature {@code byte[]} signature.
+     * @return {@link ByteBuffer} wrapping the digest, compared by content.
+     * @throws NoSuchAlgorithmException
+     */
+    public ByteBuffer KeyOf(PublicKey publicKey, byte[] data, byte[] signature) throws NoSuchAlgorithmException {
+        byte[] fingerprint = FingerprintOf(publicKey);
+        MessageDigest digest = PrimitivePool.getMessageDigest(DIGEST);
+        digest.update(fingerprint);
+        digest.update(ByteBuffer.allocate(4).putInt(data.length).array());
+        digest.update(data);
+        digest.update(signature);
+        return ByteBuffer.wrap(digest.digest());
+    }
+
+    /**
+     * @param key {@link ByteBuffer} returned by {@link #KeyOf(PublicKey, byte[], byte[])}.
+     * @return true if the signature was validated and the entry did not expire.
+     */
+    public boolean Contains(ByteBuffer key) {
+        long now = System.nanoTime();
+        synchronized (entries) {
+            Long expiry = entries.get(key);
+            if (expiry != null) {
+                if (expiry - now > 0) {
+                    hits.incrementAndGet();
+                    return true;
+                }
+                entries.remove(key);
+                evictions.incrementAndGet();
+            }
+        }
+        misses.incrementAndGet();
+        return false;
+    }
+
+    /**
+     * Record a valid signature.
+     *
+     * @param key {@link ByteBuffer} returned by {@link #KeyOf(PublicKey, byte[], byte[])}.
+     */
+    public void Add(ByteBuffer key) {
+        long expiry = System.nanoTime() + ttlNanos;
+        synchronized (entries) {
+            entries.put(key, expiry);
+        }
+    }
+
+    /**
+     * Forget every validation, e.g. when a key was revoked.
+     */
+    public void Clear() {
+        synchronized (entries) {
+            entries.clear();
+        }
+        synchronized (fingerprints) {
+            fingerprints.clear();
+        }
+    }
+    //endregion
+
+    //region Metrics
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    public int getSize() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+    //endregion
+
+    /**
+     * SHA-256 of the encoded key, kept as long as the key instance is alive.
+     */
+    private byte[] FingerprintOf(PublicKey publicKey) throws NoSuchAlgorithmException {
+        synchronized (fingerprints) {
+            byte[] fingerprint = fingerprints.get(publicKey);
+            if (fingerprint != null) {
+                return fingerprint;
+            }
+        }
+        byte[] fingerprint = PrimitivePool.getMessageDigest(DIGEST).digest(publicKey.getEncoded());
+        synchronized (fingerprints) {
+            fingerprints.put(publicKey, fingerprint);
+        }
+        return fingerprint;
+    }
+}
@@ -0,0 +1,82 @@
+package ca.teyssedre.crypto;
+
+import org.junit.Test;
+
+import java.nio.charset.Charset;
+import java.security.GeneralSecurityException;
+import java.util.Arrays;
+
+import javax.crypto.AEADBadTagException;
+import javax.crypto.SecretKey;
+
+import static org.junit.Assert.*;
+
+public class AESGCMTest {
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final byte[] AAD = "header".getBytes(UTF8);
+
+    @Test
+    public void roundTrip() throws Exception {
+        SecretKey key = Crypto.GenerateAESSecretKey(256);
+        for (int size : new int[]{0, 1, 16, 1000}) {
+            byte[] data = new byte[size];
+            byte[] frame = Crypto.EncryptWithAESGCM(key, data, AAD);
+            // [version][iv][ciphertext][tag]
+            assertEquals(1 + 12 + size + 16, frame.length);
+            assertEquals(1, frame[0]);
+            assertArrayEquals(data, Crypto.DecryptWithAESGCM(key, frame, AAD));
+        }
+    }
+
+    @Test
+    public void roundTrip_withoutAad() throws Exception {
+        SecretKey key = Crypto.GenerateAESSecretKey(128);
+        byte[] data = "content".getBytes(UTF8);
+        assertArrayEquals(data, Crypto.DecryptWithAESGCM(key, Crypto.EncryptWithAESGCM(key, data, null), null));
+    }
+
+    @Test
+    public void encrypt_usesAFreshIv() throws Exception {
+        SecretKey key = Crypto.GenerateAESSecretKey(128);
+        byte[] data = "content".getBytes(UTF8);
+        byte[] first = Crypto.EncryptWithAESGCM(key, data, AAD);
+        byte[] second = Crypto.EncryptWithAESGCM(key, data, AAD);
+        assertFalse(Arrays.equals(first, second));
+    }
+
+    @Test
+    public void decrypt_rejectsEveryTamperedByte() throws Exception {
+        SecretKey key = Crypto.GenerateAESSecretKey(256);
+        byte[] frame = Crypto.EncryptWithAESGCM(key, "content".getBytes(UTF8), AAD);
+        // The version byte is checked before the tag, the IV, ciphertext and tag by the tag.
+        for (int i = 0; i < frame.length; i++) {
+            byte[] tampered = frame.clone();
+            tampered[i] ^= 0x01;
+            try {
+                Crypto.DecryptWithAESGCM(key, tampered, AAD);
+                fail("Tampered byte " + i + " accepted");
+            } catch (GeneralSecurityException expected) {
+                // rejected
+            }
+        }
+    }
+
+    @Test(expected = AEADBadTagException.class)
+    public void decrypt_rejectsAnotherAad() throws Exception {
+        SecretKey key = Crypto.GenerateAESSecretKey(256);
+        byte[] frame = Crypto.EncryptWithAESGCM(key, "content".getBytes(UTF8), AAD);
+        Crypto.DecryptWithAESGCM(key, frame, "other".getBytes(UTF8));
+    }
+
+    @Test(expected = AEADBadTagException.class)
+    public void decrypt_rejectsAnotherKey() throws Exception {
+        byte[] frame = Crypto.EncryptWithAESGCM(Crypto.GenerateAESSecretKey(256), "content".getBytes(UTF8), AAD);
+        Crypto.DecryptWithAESGCM(Crypto.GenerateAESSecretKey(256), frame, AAD);
+    }
+
+    @Test(expected = GeneralSecurityException.class)
+    public void decrypt_rejectsAShortFrame() throws Exception {
+        Crypto.DecryptWithAESGCM(Crypto.GenerateAESSecretKey(128), new byte[28], null);
+    }
+}
@@ -0,0 +1,238 @@
+package ca.teyssedre.crypto;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.security.GeneralSecurityException;
+import java.util.Arrays;
+import java.util.Random;
+
+import javax.crypto.SecretKey;
+
+import static org.junit.Assert.*;
+
+public class AESStreamTest {
+
+    /**
+     * Sizes around the 8 KiB chunk and the 16 bytes block of the streaming methods.
+     */
+    private static final int[] SIZES = {0, 1, 15, 16, 17, 8191, 8192, 8193, 100000};
+
+    /**
+     * Size of the content streamed by the bounded memory test, far above any buffer size.
+     */
+    private static final long LARGE_SIZE = 256L * 1024 * 1024;
+    private static final int STREAM_CHUNK = 8192;
+
+    /**
+     * Generated content, byte {@code i} is derived from {@code i} so nothing is held in memory.
+     */
+    private static class PatternInputStream extends InputStream {
+        private final long size;
+        private long position;
+        private int largestRead;
+
+        private PatternInputStream(long size) {
+            this.size = size;
+        }
+
+        private static byte at(long position) {
+            return (byte) (position ^ (position >>> 11));
+        }
+
+        @Override
+        public int read() throws IOException {
+            return position < size ? at(position++) & 0xff : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            largestRead = Math.max(largestRead, len);
+            if (position >= size) {
+                return -1;
+            }
+            int n = (int) Math.min(len, size - position);
+            for (int i = 0; i < n; i++) {
+                b[off + i] = at(position++);
+            }
+            return n;
+        }
+    }
+
+    /**
+     * Sink checking the content against {@link PatternInputStream} and keeping nothing.
+     */
+    private static class PatternOutputStream extends OutputStream {
+        private long position;
+        private int largestWrite;
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            largestWrite = Math.max(largestWrite, len);
+            for (int i = 0; i < len; i++) {
+                if (b[off + i] != PatternInputStream.at(position++)) {
+                    throw new IOException("Content differs at " + (position - 1));
+                }
+            }
+        }
+    }
+
+    private static byte[] content(int size) {
+        byte[] data = new byte[size];
+        new Random(size).nextBytes(data);
+        return data;
+    }
+
+    private static byte[] encryptStream(SecretKey key, byte[] data) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        long written = Crypto.EncryptWithAES(key, new ByteArrayInputStream(data), out);
+        assertEquals(out.size(), written);
+        return out.toByteArray();
+    }
+
+    private static byte[] decryptStream(SecretKey key, byte[] data) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        long written = Crypto.DecryptWithAES(key, new ByteArrayInputStream(data), out);
+        assertEquals(out.size(), written);
+        return out.toByteArray();
+    }
+
+    private static byte[] encryptChannel(SecretKey key, byte[] data) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        long written = Crypto.EncryptWithAES(key, Channels.newChannel(new ByteArrayInputStream(data)),
+                Channels.newChannel(out));
+        assertEquals(out.size(), written);
+        return out.toByteArray();
+    }
+
+    private static byte[] decryptChannel(SecretKey key, byte[] data) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        long written = Crypto.DecryptWithAES(key, Channels.newChannel(new ByteArrayInputStream(data)),
+                Channels.newChannel(out));
+        assertEquals(out.size(), written);
+        return out.toByteArray();
+    }
+
+    @Test
+    public void stream_roundTrip() throws Exception {
+        SecretKey key = Crypto.GenerateAESSecretKey(256);
+        for (int size : SIZES) {
+            byte[] data = content(size);
+            byte[] encrypted = encryptStream(key, data);
+            // IV followed by the padded content.
+            assertEquals(16 + (size / 16 + 1) * 16, encrypted.length);
+            assertArrayEquals(data, decryptStream(key, encrypted));
+        }
+    }
+
+    @Test
+    public void channel_roundTrip() throws Exception {
+        SecretKey key = Crypto.GenerateAESSecretKey(256);
+        for (int size : SIZES) {
+            byte[] data = content(size);
+            assertArrayEquals(data, decryptChannel(key, encryptChannel(key, data)));
+        }
+    }
+
+    @Test
+    public void streamAndChannel_areInterchangeable() throws Exception {
+        SecretKey key = Crypto.GenerateAESSecretKey(128);
+        byte[] data = content(20000);
+        assertArrayEquals(data, decryptChannel(key, encryptStream(key, data)));
+        assertArrayEquals(data, decryptStream(key, encryptChannel(key, data)));
+    }
+
+    @Test
+    public void stream_matchesTheArrayVersion() throws Exception {
+        SecretKey key = Crypto.GenerateAESSecretKey(256);
+        byte[] data = content(5000);
+        byte[] encrypted = encryptStream(key, data);
+        byte[] iv = Arrays.copyOf(encrypted, 16);
+        ByteBuffer buffer = ByteBuffer.wrap(Arrays.copyOfRange(encrypted, 16, encrypted.length));
+        Crypto.DecryptWithAES(key, iv, buffer);
+        assertEquals(ByteBuffer.wrap(data), buffer);
+    }
+
+    @Test
+    public void inPlace_roundTrip() throws Exception {
+        SecretKey key = Crypto.GenerateAESSecretKey(256);
+        byte[] iv = Crypto.GenerateAESIV();
+        byte[] data = content(1000);
+        ByteBuffer buffer = ByteBuffer.allocate(data.length + 16);
+        buffer.put(data).flip();
+        int encrypted = Crypto.EncryptWithAES(key, iv, buffer);
+        assertEquals(1008, encrypted);
+        assertEquals(1008, buffer.remaining());
+        assertFalse(ByteBuffer.wrap(data).equals(buffer));
+        assertEquals(1000, Crypto.DecryptWithAES(key, iv, buffer));
+        assertEquals(ByteBuffer.wrap(data), buffer);
+    }
+
+    @Test(timeout = 120000)
+    public void stream_keepsTheMemoryBounded() throws Exception {
+        final SecretKey key = Crypto.GenerateAESSecretKey(256);
+        final PatternInputStream source = new PatternInputStream(LARGE_SIZE);
+        PipedInputStream encrypted = new PipedInputStream(4 * STREAM_CHUNK);
+        final PipedOutputStream pipe = new PipedOutputStream(encrypted);
+        final Exception[] failure = new Exception[1];
+        Thread encryptor = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    Crypto.EncryptWithAES(key, source, pipe);
+                    pipe.close();
+                } catch (Exception e) {
+                    failure[0] = e;
+                }
+            }
+        });
+        encryptor.start();
+
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        com.sun.management.ThreadMXBean allocations = threads instanceof com.sun.management.ThreadMXBean
+                ? (com.sun.management.ThreadMXBean) threads : null;
+        long id = Thread.currentThread().getId();
+        PatternOutputStream sink = new PatternOutputStream();
+        long before = allocations != null ? allocations.getThreadAllocatedBytes(id) : 0;
+        long written = Crypto.DecryptWithAES(key, encrypted, sink);
+        long allocated = allocations != null ? allocations.getThreadAllocatedBytes(id) - before : 0;
+        encryptor.join();
+
+        assertNull(failure[0]);
+        assertEquals(LARGE_SIZE, written);
+        assertEquals(LARGE_SIZE, sink.position);
+        // Only the chunk buffers of the thread are used, never a buffer sized after the content.
+        assertEquals(STREAM_CHUNK, source.largestRead);
+        assertTrue(sink.largestWrite <= STREAM_CHUNK + 32);
+        // The decryption allocates a small constant amount whatever the size of the content.
+        assertTrue("Allocated " + allocated + " bytes", allocated < 1024 * 1024);
+    }
+
+    @Test(expected = EOFException.class)
+    public void decrypt_rejectsAMissingIV() throws Exception {
+        decryptStream(Crypto.GenerateAESSecretKey(128), new byte[10]);
+    }
+
+    @Test(expected = GeneralSecurityException.class)
+    public void decrypt_rejectsATruncatedStream() throws Exception {
+        SecretKey key = Crypto.GenerateAESSecretKey(128);
+        byte[] encrypted = encryptStream(key, content(100));
+        decryptStream(key, Arrays.copyOf(encrypted, encrypted.length - 1));
+    }
+}
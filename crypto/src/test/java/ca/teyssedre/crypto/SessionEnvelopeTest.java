@@ -0,0 +1,92 @@
+package ca.teyssedre.crypto;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class SessionEnvelopeTest {
+
+    private static KeyPair peer;
+
+    @BeforeClass
+    public static void setUpClass() throws Exception {
+        KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+        generator.initialize(2048);
+        peer = generator.generateKeyPair();
+    }
+
+    private static long sessionOf(byte[] envelope) {
+        return ByteBuffer.wrap(envelope, 1, 8).getLong();
+    }
+
+    @Test
+    public void seal_roundTrip() throws Exception {
+        SessionEnvelope envelopes = new SessionEnvelope();
+        byte[] data = "content".getBytes("UTF-8");
+        byte[] aad = "header".getBytes("UTF-8");
+        byte[] first = envelopes.Seal("bob", peer.getPublic(), data, aad);
+        byte[] second = envelopes.Seal("bob", peer.getPublic(), data, aad);
+        assertEquals(sessionOf(first), sessionOf(second));
+        SessionEnvelope receiver = new SessionEnvelope();
+        assertArrayEquals(data, receiver.Open(peer.getPrivate(), first, aad));
+        assertArrayEquals(data, receiver.Open(peer.getPrivate(), second, aad));
+    }
+
+    @Test
+    public void seal_rotatesAfterMaxMessages() throws Exception {
+        SessionEnvelope envelopes = new SessionEnvelope(2, SessionEnvelope.DEFAULT_MAX_AGE, 4);
+        byte[] data = new byte[10];
+        long first = sessionOf(envelopes.Seal("bob", peer.getPublic(), data, null));
+        assertEquals(first, sessionOf(envelopes.Seal("bob", peer.getPublic(), data, null)));
+        assertFalse(first == sessionOf(envelopes.Seal("bob", peer.getPublic(), data, null)));
+    }
+
+    @Test(timeout = 60000)
+    public void concurrentSeals_neverExceedMaxMessages() throws Exception {
+        final SessionEnvelope envelopes = new SessionEnvelope(5, SessionEnvelope.DEFAULT_MAX_AGE, 4);
+        final List<byte[]> sealed = new ArrayList<>();
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            threads[t] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < 25; i++) {
+                        try {
+                            byte[] envelope = envelopes.Seal("bob", peer.getPublic(), new byte[]{(byte) i}, null);
+                            synchronized (sealed) {
+                                sealed.add(envelope);
+                            }
+                        } catch (Exception e) {
+                            throw new RuntimeException(e);
+                        }
+                    }
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(100, sealed.size());
+        Map<Long, Integer> uses = new HashMap<>();
+        SessionEnvelope receiver = new SessionEnvelope(5, SessionEnvelope.DEFAULT_MAX_AGE, 64);
+        for (byte[] envelope : sealed) {
+            Integer count = uses.get(sessionOf(envelope));
+            uses.put(sessionOf(envelope), count == null ? 1 : count + 1);
+            assertEquals(1, receiver.Open(peer.getPrivate(), envelope, null).length);
+        }
+        for (int count : uses.values()) {
+            assertTrue(Arrays.toString(uses.values().toArray()), count <= 5);
+        }
+    }
+}
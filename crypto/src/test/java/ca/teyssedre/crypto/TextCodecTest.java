@@ -0,0 +1,61 @@
+package ca.teyssedre.crypto;
+
+import org.junit.Test;
+
+import java.math.BigInteger;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class TextCodecTest {
+
+    /**
+     * Value of the former base 36 codec of {@link Crypto#bytesToString(byte[])}.
+     */
+    private static String legacy(byte[] b) {
+        byte[] b2 = new byte[b.length + 1];
+        b2[0] = 1;
+        System.arraycopy(b, 0, b2, 1, b.length);
+        return new BigInteger(b2).toString(36);
+    }
+
+    @Test
+    public void bytesToString_isMarkedBase64url() {
+        byte[] data = {(byte) 0xfb, (byte) 0xff, (byte) 0xbf, 0x00};
+        assertEquals("~1-_-_AA", Crypto.bytesToString(data));
+    }
+
+    @Test
+    public void roundTrip_keepsLeadingZerosAndSign() {
+        byte[][] values = {{}, {0}, {0, 0, 1}, {(byte) 0x80}, {(byte) 0xff, 0}, {0, (byte) 0xff}};
+        for (byte[] value : values) {
+            assertArrayEquals(value, Crypto.stringToBytes(Crypto.bytesToString(value)));
+        }
+    }
+
+    @Test
+    public void roundTrip_randomValues() {
+        Random random = new Random(7);
+        for (int length = 0; length < 200; length += 7) {
+            byte[] data = new byte[length];
+            random.nextBytes(data);
+            assertArrayEquals(data, Crypto.stringToBytes(Crypto.bytesToString(data)));
+        }
+    }
+
+    @Test
+    public void stringToBytes_decodesLegacyValues() {
+        Random random = new Random(11);
+        byte[][] values = {{}, {0}, {0, 0, 1}, {(byte) 0x80}, {(byte) 0xff, 0}};
+        for (byte[] value : values) {
+            assertArrayEquals(value, Crypto.stringToBytes(legacy(value)));
+        }
+        for (int length = 1; length < 100; length += 9) {
+            byte[] data = new byte[length];
+            random.nextBytes(data);
+            String stored = legacy(data);
+            assertFalse(stored.startsWith("~"));
+            assertArrayEquals(data, Crypto.stringToBytes(stored));
+        }
+    }
+}
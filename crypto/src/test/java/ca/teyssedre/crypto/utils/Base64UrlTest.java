@@ -0,0 +1,63 @@
+package ca.teyssedre.crypto.utils;
+
+import org.junit.Test;
+
+import java.nio.charset.Charset;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class Base64UrlTest {
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    @Test
+    public void encode_rfc4648Vectors() {
+        String[][] vectors = {
+                {"", ""}, {"f", "Zg"}, {"fo", "Zm8"}, {"foo", "Zm9v"},
+                {"foob", "Zm9vYg"}, {"fooba", "Zm9vYmE"}, {"foobar", "Zm9vYmFy"}};
+        for (String[] vector : vectors) {
+            assertEquals(vector[1], Base64Url.Encode(vector[0].getBytes(UTF8)));
+            assertArrayEquals(vector[0].getBytes(UTF8), Base64Url.Decode(vector[1]));
+        }
+    }
+
+    @Test
+    public void encode_usesTheUrlSafeAlphabet() {
+        byte[] data = {(byte) 0xfb, (byte) 0xff, (byte) 0xbf};
+        assertEquals("-_-_", Base64Url.Encode(data));
+        assertArrayEquals(data, Base64Url.Decode("-_-_"));
+    }
+
+    @Test
+    public void roundTrip_everyLength() {
+        Random random = new Random(42);
+        for (int length = 0; length < 300; length++) {
+            byte[] data = new byte[length];
+            random.nextBytes(data);
+            String value = Base64Url.Encode(data);
+            assertEquals((length * 4 + 2) / 3, value.length());
+            assertArrayEquals(data, Base64Url.Decode(value));
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void decode_rejectsPadding() {
+        Base64Url.Decode("Zg==");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void decode_rejectsTheStandardAlphabet() {
+        Base64Url.Decode("+/+/");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void decode_rejectsNonAscii() {
+        Base64Url.Decode("Zm\u00e9v");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void decode_rejectsAnImpossibleLength() {
+        Base64Url.Decode("Zm9vY");
+    }
+}
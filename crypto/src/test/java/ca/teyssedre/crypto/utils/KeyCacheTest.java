@@ -0,0 +1,124 @@
+package ca.teyssedre.crypto.utils;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.security.PublicKey;
+
+import static org.junit.Assert.*;
+
+public class KeyCacheTest {
+
+    /**
+     * Public key stub, the cache never looks inside.
+     */
+    private static class TestKey implements PublicKey {
+        @Override
+        public String getAlgorithm() {
+            return "RSA";
+        }
+
+        @Override
+        public String getFormat() {
+            return "X.509";
+        }
+
+        @Override
+        public byte[] getEncoded() {
+            return new byte[16];
+        }
+    }
+
+    @Test
+    public void fingerprintOf_dependsOnTheAlgorithm() throws Exception {
+        assertEquals(KeyCache.FingerprintOf("value", "RSA"), KeyCache.FingerprintOf("value", "RSA"));
+        assertFalse(KeyCache.FingerprintOf("value", "RSA").equals(KeyCache.FingerprintOf("value", "EC")));
+        assertFalse(KeyCache.FingerprintOf("value", "RSA").equals(KeyCache.FingerprintOf("other", "RSA")));
+        // The length prefix keeps the algorithm and the value apart.
+        assertFalse(KeyCache.FingerprintOf("Avalue", "RS").equals(KeyCache.FingerprintOf("value", "RSA")));
+    }
+
+    @Test
+    public void get_returnsThePutKey() throws Exception {
+        KeyCache<TestKey> cache = new KeyCache<>(4, 0);
+        TestKey key = new TestKey();
+        ByteBuffer fingerprint = KeyCache.FingerprintOf("value", "RSA");
+        assertNull(cache.Get(fingerprint));
+        cache.Put(fingerprint, key);
+        assertSame(key, cache.Get(KeyCache.FingerprintOf("value", "RSA")));
+        assertNull(cache.Get(KeyCache.FingerprintOf("value", "EC")));
+        assertEquals(1, cache.getHits());
+        assertEquals(2, cache.getMisses());
+    }
+
+    @Test
+    public void put_evictsTheLeastRecentlyUsed() throws Exception {
+        KeyCache<TestKey> cache = new KeyCache<>(2, 0);
+        TestKey a = new TestKey();
+        TestKey b = new TestKey();
+        cache.Put(KeyCache.FingerprintOf("a", "RSA"), a);
+        cache.Put(KeyCache.FingerprintOf("b", "RSA"), b);
+        assertSame(a, cache.Get(KeyCache.FingerprintOf("a", "RSA")));
+        cache.Put(KeyCache.FingerprintOf("c", "RSA"), new TestKey());
+        assertEquals(2, cache.getSize());
+        assertEquals(1, cache.getEvictions());
+        assertNull(cache.Get(KeyCache.FingerprintOf("b", "RSA")));
+        assertSame(a, cache.Get(KeyCache.FingerprintOf("a", "RSA")));
+    }
+
+    @Test
+    public void get_dropsAnExpiredKey() throws Exception {
+        KeyCache<TestKey> cache = new KeyCache<>(4, 50);
+        ByteBuffer fingerprint = KeyCache.FingerprintOf("value", "RSA");
+        cache.Put(fingerprint, new TestKey());
+        assertNotNull(cache.Get(fingerprint));
+        Thread.sleep(100);
+        assertNull(cache.Get(fingerprint));
+    }
+
+    @Test(timeout = 5000)
+    public void expiredKeys_areSweptWithoutLookup() throws Exception {
+        KeyCache<TestKey> cache = new KeyCache<>(4, 50);
+        cache.Put(KeyCache.FingerprintOf("a", "RSA"), new TestKey());
+        cache.Put(KeyCache.FingerprintOf("b", "RSA"), new TestKey());
+        while (cache.getSize() > 0) {
+            Thread.sleep(10);
+        }
+        assertEquals(2, cache.getEvictions());
+    }
+
+    @Test(timeout = 5000)
+    public void sweep_keepsRunningForLaterKeys() throws Exception {
+        KeyCache<TestKey> cache = new KeyCache<>(4, 50);
+        cache.Put(KeyCache.FingerprintOf("a", "RSA"), new TestKey());
+        Thread.sleep(30);
+        cache.Put(KeyCache.FingerprintOf("b", "RSA"), new TestKey());
+        while (cache.getSize() > 1) {
+            Thread.sleep(5);
+        }
+        assertNotNull(cache.Get(KeyCache.FingerprintOf("b", "RSA")));
+        while (cache.getSize() > 0) {
+            Thread.sleep(5);
+        }
+    }
+
+    @Test
+    public void purge_keepsLiveKeys() throws Exception {
+        KeyCache<TestKey> cache = new KeyCache<>(4, 60 * 1000);
+        cache.Put(KeyCache.FingerprintOf("a", "RSA"), new TestKey());
+        cache.Purge();
+        assertEquals(1, cache.getSize());
+        KeyCache<TestKey> unbounded = new KeyCache<>(4, 0);
+        unbounded.Put(KeyCache.FingerprintOf("a", "RSA"), new TestKey());
+        unbounded.Purge();
+        assertEquals(1, unbounded.getSize());
+    }
+
+    @Test
+    public void clear_dropsEveryKey() throws Exception {
+        KeyCache<TestKey> cache = new KeyCache<>(4, 60 * 1000);
+        cache.Put(KeyCache.FingerprintOf("a", "RSA"), new TestKey());
+        cache.Clear();
+        assertEquals(0, cache.getSize());
+    }
+}
@@ -0,0 +1,91 @@
+package ca.teyssedre.crypto.utils;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.security.KeyPairGenerator;
+import java.security.PublicKey;
+
+import static org.junit.Assert.*;
+
+public class VerificationCacheTest {
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final byte[] DATA = "content".getBytes(UTF8);
+    private static final byte[] SIGNATURE = "signature".getBytes(UTF8);
+
+    private static PublicKey first;
+    private static PublicKey second;
+
+    @BeforeClass
+    public static void setUpClass() throws Exception {
+        KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+        generator.initialize(1024);
+        first = generator.generateKeyPair().getPublic();
+        second = generator.generateKeyPair().getPublic();
+    }
+
+    @Test
+    public void contains_onlyTheAddedValidation() throws Exception {
+        VerificationCache cache = new VerificationCache();
+        ByteBuffer key = cache.KeyOf(first, DATA, SIGNATURE);
+        assertFalse(cache.Contains(key));
+        cache.Add(key);
+        assertTrue(cache.Contains(cache.KeyOf(first, DATA, SIGNATURE)));
+        assertFalse(cache.Contains(cache.KeyOf(second, DATA, SIGNATURE)));
+        assertFalse(cache.Contains(cache.KeyOf(first, "other".getBytes(UTF8), SIGNATURE)));
+        assertFalse(cache.Contains(cache.KeyOf(first, DATA, "other".getBytes(UTF8))));
+        assertEquals(1, cache.getHits());
+        assertEquals(4, cache.getMisses());
+    }
+
+    @Test
+    public void keyOf_separatesTheDataFromTheSignature() throws Exception {
+        VerificationCache cache = new VerificationCache();
+        // Same concatenated bytes, split at another place.
+        ByteBuffer one = cache.KeyOf(first, "ab".getBytes(UTF8), "c".getBytes(UTF8));
+        ByteBuffer other = cache.KeyOf(first, "a".getBytes(UTF8), "bc".getBytes(UTF8));
+        assertFalse(one.equals(other));
+    }
+
+    @Test
+    public void add_evictsTheLeastRecentlyUsed() throws Exception {
+        VerificationCache cache = new VerificationCache(2, VerificationCache.DEFAULT_TTL);
+        ByteBuffer a = cache.KeyOf(first, "a".getBytes(UTF8), SIGNATURE);
+        ByteBuffer b = cache.KeyOf(first, "b".getBytes(UTF8), SIGNATURE);
+        ByteBuffer c = cache.KeyOf(first, "c".getBytes(UTF8), SIGNATURE);
+        cache.Add(a);
+        cache.Add(b);
+        assertTrue(cache.Contains(a));
+        cache.Add(c);
+        assertEquals(2, cache.getSize());
+        assertEquals(1, cache.getEvictions());
+        assertTrue(cache.Contains(a));
+        assertFalse(cache.Contains(b));
+        assertTrue(cache.Contains(c));
+    }
+
+    @Test
+    public void contains_forgetsExpiredValidations() throws Exception {
+        VerificationCache cache = new VerificationCache(16, 50);
+        ByteBuffer key = cache.KeyOf(first, DATA, SIGNATURE);
+        cache.Add(key);
+        assertTrue(cache.Contains(key));
+        Thread.sleep(100);
+        assertFalse(cache.Contains(key));
+        assertEquals(0, cache.getSize());
+        assertEquals(1, cache.getEvictions());
+    }
+
+    @Test
+    public void clear_forgetsEveryValidation() throws Exception {
+        VerificationCache cache = new VerificationCache();
+        ByteBuffer key = cache.KeyOf(first, DATA, SIGNATURE);
+        cache.Add(key);
+        cache.Clear();
+        assertEquals(0, cache.getSize());
+        assertFalse(cache.Contains(key));
+    }
+}
@@ -0,0 +1,208 @@
+package ca.teyssedre.paranoya.store.sources;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.SystemClock;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.UUID;
+
+import ca.teyssedre.crypto.store.db.ConflictMode;
+import ca.teyssedre.paranoya.messaging.data.KeyRelation;
+import ca.teyssedre.paranoya.messaging.data.User;
+
+/**
+ * Runs on a device, the batch writes and the query plans need the Android SQLite which the JVM unit
+ * tests don't have. The users are written in the application database under a relay id nobody uses
+ * and deleted after each test. The source has no relation delete, the relations written by the
+ * tests stay under that relay id.
+ */
+public class ParanoyaUserSourceTest extends AndroidTestCase {
+
+    private static final String TAG = "ParanoyaUserSourceTest";
+    private static final long RELAY = -4242;
+
+    private ParanoyaUserSource source;
+    private final List<User> written = new ArrayList<>();
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        source = ParanoyaUserSource.getInstance(getContext());
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        for (User user : written) {
+            source.deleteUser(user);
+        }
+        written.clear();
+        super.tearDown();
+    }
+
+    private User newUser(String pseudo) {
+        User user = new User(-1, UUID.randomUUID().toString(), "", pseudo, "", 1, RELAY);
+        written.add(user);
+        return user;
+    }
+
+    public void testReplaceKeepsTheIdAndOverwritesTheRow() {
+        User user = newUser("before");
+        assertEquals(1, source.addUsers(Arrays.asList(user), ConflictMode.REPLACE));
+        long id = user.getId();
+        assertTrue(id > -1);
+
+        User replacement = new User(-1, user.getHash(), "avatar", "after", "message", 2, RELAY);
+        assertEquals(1, source.addUsers(Arrays.asList(replacement), ConflictMode.REPLACE));
+        assertEquals(id, replacement.getId());
+        User stored = source.getUserById(id);
+        assertEquals("after", stored.getPseudo());
+        assertEquals("avatar", stored.getAvatarUrl());
+        assertEquals(2, stored.getType());
+    }
+
+    public void testFailedBatchRestoresTheIds() {
+        final User first = newUser("first");
+        final User second = newUser("second");
+        Collection<User> failing = new ArrayList<User>(Arrays.asList(first, second)) {
+            private boolean failed;
+
+            @Override
+            public Iterator<User> iterator() {
+                final Iterator<User> iterator = super.iterator();
+                return new Iterator<User>() {
+                    private int read;
+
+                    @Override
+                    public boolean hasNext() {
+                        return iterator.hasNext();
+                    }
+
+                    @Override
+                    public User next() {
+                        // The second pass restores the ids, only the first one is interrupted.
+                        if (read++ == 1 && !failed && first.getId() > -1) {
+                            failed = true;
+                            throw new IllegalStateException("interrupted");
+                        }
+                        return iterator.next();
+                    }
+
+                    @Override
+                    public void remove() {
+                        iterator.remove();
+                    }
+                };
+            }
+        };
+        assertEquals(0, source.addUsers(failing, ConflictMode.REPLACE));
+        assertEquals(-1, first.getId());
+        assertEquals(-1, second.getId());
+        assertEquals(-1, source.getUserIdByHash(first.getHash()));
+    }
+
+    public void testBatchOf10kIsFasterThanSingleInserts() {
+        int singles = 1000;
+        long start = SystemClock.elapsedRealtime();
+        for (int i = 0; i < singles; i++) {
+            source.addUser(newUser("single " + i));
+        }
+        long singleMillis = SystemClock.elapsedRealtime() - start;
+
+        int batch = 10000;
+        List<User> users = new ArrayList<>(batch);
+        for (int i = 0; i < batch; i++) {
+            users.add(newUser("batch " + i));
+        }
+        start = SystemClock.elapsedRealtime();
+        assertEquals(batch, source.addUsers(users, ConflictMode.REPLACE));
+        long batchMillis = SystemClock.elapsedRealtime() - start;
+
+        Log.i(TAG, singles + " single inserts: " + singleMillis + " ms, batch of " + batch + ": " + batchMillis + " ms");
+        // Per row, one transaction for the whole batch must beat one transaction per row.
+        assertTrue(batchMillis * singles < singleMillis * batch);
+    }
+
+    public void testLookupsUseTheirIndex() {
+        // Opening the source creates or upgrades the schema with its indexes.
+        assertNotNull(source);
+        SQLiteDatabase db = getContext().openOrCreateDatabase("users.db", Context.MODE_PRIVATE, null);
+        try {
+            assertPlanUses(db, "idx_user_fingerprint",
+                    "SELECT userId FROM paranoyaUser WHERE fingerprint = ? LIMIT 1", new String[]{"x"});
+            assertPlanUses(db, "idx_user_relay",
+                    "SELECT * FROM paranoyaUser WHERE relayTo = ?", new String[]{"1"});
+            assertPlanUses(db, "idx_user_type",
+                    "SELECT * FROM paranoyaUser WHERE type = ?", new String[]{"1"});
+            assertPlanUses(db, "idx_relation_user_key",
+                    "SELECT keyId FROM relatedKey WHERE userId = ?", new String[]{"1"});
+            assertPlanUses(db, "idx_relation_user_key",
+                    "SELECT relayId FROM relatedKey WHERE userId = ? AND keyId = ? LIMIT 1", new String[]{"1", "2"});
+        } finally {
+            db.close();
+        }
+    }
+
+    private static void assertPlanUses(SQLiteDatabase db, String index, String sql, String[] args) {
+        StringBuilder plan = new StringBuilder();
+        Cursor cursor = db.rawQuery("EXPLAIN QUERY PLAN " + sql, args);
+        try {
+            // The detail is the last column whatever the SQLite version.
+            while (cursor.moveToNext()) {
+                plan.append(cursor.getString(cursor.getColumnCount() - 1)).append('\n');
+            }
+        } finally {
+            cursor.close();
+        }
+        assertTrue(sql + " -> " + plan, plan.indexOf(index) > -1);
+    }
+
+    public void testBatchAndSingleInsertsRunTogether() throws Exception {
+        final List<User> batch = new ArrayList<>();
+        final List<User> singles = new ArrayList<>();
+        for (int i = 0; i < 2000; i++) {
+            batch.add(newUser("batch " + i));
+            singles.add(newUser("single " + i));
+        }
+        final List<KeyRelation> relations = new ArrayList<>();
+        for (int i = 0; i < 500; i++) {
+            relations.add(new KeyRelation(-1, RELAY, -i - 1, 1, "batch"));
+        }
+        Thread batchWriter = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                source.addUsers(batch, ConflictMode.REPLACE);
+                source.addRelations(relations, ConflictMode.REPLACE);
+            }
+        });
+        Thread singleWriter = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                for (User user : singles) {
+                    source.addUser(user);
+                    source.addRelation(new KeyRelation(-1, RELAY, user.getId(), 1, "single"));
+                }
+            }
+        });
+        batchWriter.start();
+        singleWriter.start();
+        // A lock order inversion between the two paths hangs both threads.
+        batchWriter.join(60 * 1000);
+        singleWriter.join(60 * 1000);
+        assertFalse("batch writer stuck", batchWriter.isAlive());
+        assertFalse("single writer stuck", singleWriter.isAlive());
+        for (User user : batch) {
+            assertTrue(user.getId() > -1);
+        }
+        for (User user : singles) {
+            assertTrue(user.getId() > -1);
+        }
+    }
+}
@@ -27,11 +27,6 @@ package ca.teyssedre.paranoya;
 import android.app.Activity;
 import android.app.Application;
 
-import com.fasterxml.jackson.annotation.JsonInclude;
-import com.fasterxml.jackson.databind.DeserializationFeature;
-import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.databind.SerializationFeature;
-
 import ca.teyssedre.crypto.Crypto;
 import ca.teyssedre.paranoya.store.sources.ParanoyaUserSource;
 import ca.teyssedre.paranoya.utils.IdentityHelper;
@@ -47,8 +42,6 @@ public class ParanoyaApplication extends Application {
     Activity currentActivity;
     IdentityHelper idHelper;
 
-    private ObjectMapper mapper;
-
     @Override
     public void onCreate() {
         super.onCreate();
@@ -57,11 +50,12 @@ public class ParanoyaApplication extends Application {
         userSource = ParanoyaUserSource.getInstance(this);
         idHelper = new IdentityHelper(crypto, userSource);
         socketManager.setIdHelper(idHelper);
+    }
 
-        this.mapper = new ObjectMapper();
-        this.mapper.setSerializationInclusion(JsonInclude.Include.NON_NULL);
-        this.mapper.configure(SerializationFeature.FAIL_ON_EMPTY_BEANS, false);
-        this.mapper.configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+    @Override
+    public void onTerminate() {
+        userSource.close();
+        super.onTerminate();
     }
 
     public void Connect() {
@@ -26,11 +26,13 @@ import ca.teyssedre.paranoya.R;
 import ca.teyssedre.paranoya.fragments.OnItemClickHolder;
 import ca.teyssedre.paranoya.holders.ContactViewHolder;
 import ca.teyssedre.paranoya.messaging.data.User;
+import ca.teyssedre.paranoya.store.PagedSource;
 
 public class ContactAdapter extends RecyclerView.Adapter<ContactViewHolder> {
 
 
     private User[] _data;
+    private PagedSource<User> source;
     private OnItemClickHolder<ContactViewHolder> itemClickListener;
 
     public ContactAdapter() {
@@ -47,10 +49,12 @@ public class ContactAdapter extends RecyclerView.Adapter<ContactViewHolder> {
 
     public void setData(User[] data) {
         this._data = data;
+        this.source = null;
     }
 
     public void setData(List<User> data) {
         if (data != null) {
+            this.source = null;
             this._data = new User[data.size()];
             data.toArray(this._data);
         }
@@ -110,10 +114,26 @@ public class ContactAdapter extends RecyclerView.Adapter<ContactViewHolder> {
         User item = getItem(position);
         if (item != null) {
             holder.UpdateView(item, position);
+        } else {
+            // the page is loading, the row is bound again when it arrives
+            holder.ShowPlaceholder(position);
         }
     }
 
+    /**
+     * Read the users from a {@link PagedSource}, only the pages around the visible rows are held.
+     *
+     * @param source {@link PagedSource} of {@link User}.
+     */
+    public void setSource(PagedSource<User> source) {
+        this.source = source;
+        this._data = null;
+    }
+
     private User getItem(int position) {
+        if (source != null) {
+            return source.get(position);
+        }
         if (_data != null && _data.length > 0 && position > -1 && position < _data.length) {
             return _data[position];
         }
@@ -127,6 +147,9 @@ public class ContactAdapter extends RecyclerView.Adapter<ContactViewHolder> {
      */
     @Override
     public int getItemCount() {
+        if (source != null) {
+            return source.size();
+        }
         return _data != null ? _data.length : 0;
     }
 
@@ -36,10 +36,12 @@ import ca.teyssedre.crypto.store.models.KeySet;
 import ca.teyssedre.paranoya.R;
 import ca.teyssedre.paranoya.fragments.OnItemClickHolder;
 import ca.teyssedre.paranoya.holders.KeySetViewHolder;
+import ca.teyssedre.paranoya.store.PagedSource;
 
 public class KeySetAdapter extends RecyclerView.Adapter<KeySetViewHolder> {
 
     private KeySet[] _array;
+    private PagedSource<KeySet> source;
     private OnItemClickHolder<KeySetViewHolder> itemClickListener;
 
     public KeySetAdapter(List<KeySet> keys) {
@@ -51,11 +53,22 @@ public class KeySetAdapter extends RecyclerView.Adapter<KeySetViewHolder> {
      */
     public void setData(List<KeySet> list) {
         if (list != null) {
+            source = null;
             _array = new KeySet[list.size()];
             list.toArray(_array);
         }
     }
 
+    /**
+     * Read the key sets from a {@link PagedSource}, only the pages around the visible rows are held.
+     *
+     * @param source {@link PagedSource} of {@link KeySet}.
+     */
+    public void setSource(PagedSource<KeySet> source) {
+        this.source = source;
+        this._array = null;
+    }
+
     /**
      * Called when RecyclerView needs a new {@link RecyclerView.ViewHolder} of the given type to represent
      * an item.
@@ -109,9 +122,12 @@ public class KeySetAdapter extends RecyclerView.Adapter<KeySetViewHolder> {
     @Override
     public void onBindViewHolder(KeySetViewHolder holder, int position) {
         KeySet item = getItem(position);
+        holder.setIndex(position);
         if (item != null) {
-            holder.setIndex(position);
             holder.updateView(item);
+        } else {
+            // the page is loading, the row is bound again when it arrives
+            holder.showPlaceholder();
         }
     }
 
@@ -122,10 +138,16 @@ public class KeySetAdapter extends RecyclerView.Adapter<KeySetViewHolder> {
      */
     @Override
     public int getItemCount() {
-        return _array.length;
+        if (source != null) {
+            return source.size();
+        }
+        return _array != null ? _array.length : 0;
     }
 
     public KeySet getItem(int position) {
+        if (source != null) {
+            return source.get(position);
+        }
         return (_array != null && position > -1 && position < _array.length ? _array[position] : null);
     }
 
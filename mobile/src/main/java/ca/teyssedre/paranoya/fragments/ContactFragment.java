@@ -24,6 +24,7 @@
 
 package ca.teyssedre.paranoya.fragments;
 
+import android.os.AsyncTask;
 import android.os.Bundle;
 import android.support.annotation.Nullable;
 import android.support.v7.widget.LinearLayoutManager;
@@ -39,6 +40,7 @@ import ca.teyssedre.paranoya.R;
 import ca.teyssedre.paranoya.adapters.ContactAdapter;
 import ca.teyssedre.paranoya.holders.ContactViewHolder;
 import ca.teyssedre.paranoya.messaging.data.User;
+import ca.teyssedre.paranoya.store.PagedSource;
 import ca.teyssedre.paranoya.store.sources.ParanoyaUserSource;
 
 public class ContactFragment extends ParanoyaFragment implements OnItemClickHolder<ContactViewHolder> {
@@ -46,11 +48,14 @@ public class ContactFragment extends ParanoyaFragment implements OnItemClickHold
     public static final String TAG = "ContactFragment";
 
     private static final String CONTACTS = "CONTACTS";
+    private static final int PAGE_SIZE = 50;
+    private static final int PREFETCH_PAGES = 1;
 
     private RecyclerView list;
     private ContactAdapter adapter;
     private ArrayList<User> contacts;
     private View emptyView;
+    private PagedSource<User> source;
 
     public ContactFragment() {
         contacts = new ArrayList<>();
@@ -78,10 +83,32 @@ public class ContactFragment extends ParanoyaFragment implements OnItemClickHold
     public void onViewCreated(View view, @Nullable Bundle savedInstanceState) {
         super.onViewCreated(view, savedInstanceState);
         tryToRestoreView(savedInstanceState);
-        List<User> allUsers = ParanoyaUserSource.getInstance().getAllUsers();
-        adapter.setData(allUsers);
-        emptyView.setVisibility(allUsers.size() > 0 ? View.GONE : View.VISIBLE);
-        adapter.notifyDataSetChanged();
+        if (source == null) {
+            source = new PagedSource<>(new UserPageLoader(ParanoyaUserSource.getInstance()),
+                    AsyncTask.SERIAL_EXECUTOR, PAGE_SIZE, PREFETCH_PAGES);
+        }
+        source.setListener(new PagedSource.IPageListener() {
+            @Override
+            public void onRefreshed(int count) {
+                emptyView.setVisibility(count > 0 ? View.GONE : View.VISIBLE);
+                adapter.notifyDataSetChanged();
+            }
+
+            @Override
+            public void onPageLoaded(int start, int count) {
+                adapter.notifyItemRangeChanged(start, count);
+            }
+        });
+        adapter.setSource(source);
+        source.refresh();
+    }
+
+    @Override
+    public void onDestroyView() {
+        super.onDestroyView();
+        if (source != null) {
+            source.setListener(null);
+        }
     }
 
     @Override
@@ -132,4 +159,33 @@ public class ContactFragment extends ParanoyaFragment implements OnItemClickHold
     public boolean OnItemLongClick(View v, int position, ContactViewHolder item) {
         return false;
     }
+
+    private static class UserPageLoader implements PagedSource.IPageLoader<User> {
+
+        private final ParanoyaUserSource userSource;
+
+        UserPageLoader(ParanoyaUserSource userSource) {
+            this.userSource = userSource;
+        }
+
+        @Override
+        public long count() {
+            return userSource.getUsersCount();
+        }
+
+        @Override
+        public List<User> loadAfter(long afterId, int limit) {
+            return userSource.getUsersPage(afterId, limit);
+        }
+
+        @Override
+        public List<User> loadAt(int offset, int limit) {
+            return userSource.getUsersPageAt(offset, limit);
+        }
+
+        @Override
+        public long idOf(User item) {
+            return item.getId();
+        }
+    }
 }
@@ -25,6 +25,7 @@
 package ca.teyssedre.paranoya.fragments;
 
 import android.content.Context;
+import android.os.AsyncTask;
 import android.os.Bundle;
 import android.support.annotation.Nullable;
 import android.support.v7.widget.LinearLayoutManager;
@@ -34,24 +35,25 @@ import android.view.View;
 import android.view.ViewGroup;
 import android.widget.TextView;
 
-import java.util.ArrayList;
 import java.util.List;
 
 import ca.teyssedre.crypto.Crypto;
-import ca.teyssedre.crypto.ICryptoCallback;
 import ca.teyssedre.crypto.store.models.KeySet;
 import ca.teyssedre.paranoya.R;
 import ca.teyssedre.paranoya.adapters.KeySetAdapter;
 import ca.teyssedre.paranoya.fragments.dialogs.CreateKeyDialog;
 import ca.teyssedre.paranoya.fragments.dialogs.KeyEditDialog;
 import ca.teyssedre.paranoya.holders.KeySetViewHolder;
+import ca.teyssedre.paranoya.store.PagedSource;
 
 public class KeysFragment extends ParanoyaFragment implements OnItemClickHolder<KeySetViewHolder> {
 
     public static final String TAG = "KeysFragment";
+    private static final int PAGE_SIZE = 50;
+    private static final int PREFETCH_PAGES = 1;
 
     private TextView empty;
-    private List<KeySet> _keys;
+    private PagedSource<KeySet> source;
     private KeySetAdapter adapter;
 
 
@@ -74,8 +76,10 @@ public class KeysFragment extends ParanoyaFragment implements OnItemClickHolder<
     @Override
     public void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
-        _keys = new ArrayList<>();
-        adapter = new KeySetAdapter(_keys);
+        source = new PagedSource<>(new KeySetPageLoader(Crypto.getInstance(getActivity())),
+                AsyncTask.SERIAL_EXECUTOR, PAGE_SIZE, PREFETCH_PAGES);
+        adapter = new KeySetAdapter(null);
+        adapter.setSource(source);
     }
 
     @Override
@@ -108,21 +112,30 @@ public class KeysFragment extends ParanoyaFragment implements OnItemClickHolder<
         FetchKeysFromDB();
     }
 
+    @Override
+    public void onDestroyView() {
+        super.onDestroyView();
+        source.setListener(null);
+    }
+
+    /**
+     * Reload the key sets, only the pages around the visible rows are read from the storage.
+     * Must be called from the main thread.
+     */
     public void FetchKeysFromDB() {
-        Crypto.getInstance(getActivity()).GetAllStoredKeysAsync(new ICryptoCallback<List<KeySet>>() {
+        source.setListener(new PagedSource.IPageListener() {
             @Override
-            public void OnComplete(final List<KeySet> data) {
-                _keys = data;
-                getActivity().runOnUiThread(new Runnable() {
-                    @Override
-                    public void run() {
-                        empty.setVisibility(_keys != null && _keys.size() > 0 ? View.GONE : View.VISIBLE);
-                        adapter.setData(_keys);
-                        adapter.notifyDataSetChanged();
-                    }
-                });
+            public void onRefreshed(int count) {
+                empty.setVisibility(count > 0 ? View.GONE : View.VISIBLE);
+                adapter.notifyDataSetChanged();
+            }
+
+            @Override
+            public void onPageLoaded(int start, int count) {
+                adapter.notifyItemRangeChanged(start, count);
             }
         });
+        source.refresh();
     }
 
     /**
@@ -150,4 +163,33 @@ public class KeysFragment extends ParanoyaFragment implements OnItemClickHolder<
     public boolean OnItemLongClick(View v, int position, KeySetViewHolder item) {
         return false;
     }
+
+    private static class KeySetPageLoader implements PagedSource.IPageLoader<KeySet> {
+
+        private final Crypto crypto;
+
+        KeySetPageLoader(Crypto crypto) {
+            this.crypto = crypto;
+        }
+
+        @Override
+        public long count() {
+            return crypto.GetStoredKeysCount();
+        }
+
+        @Override
+        public List<KeySet> loadAfter(long afterId, int limit) {
+            return crypto.GetStoredKeysPage(afterId, limit);
+        }
+
+        @Override
+        public List<KeySet> loadAt(int offset, int limit) {
+            return crypto.GetStoredKeysPageAt(offset, limit);
+        }
+
+        @Override
+        public long idOf(KeySet item) {
+            return item.getId();
+        }
+    }
 }
@@ -46,6 +46,7 @@ public class ContactViewHolder extends RecyclerView.ViewHolder implements View.O
     private TextView message;
     private UUID userid;
     private int index;
+    private boolean placeholder;
 
     public ContactViewHolder(View itemView) {
         super(itemView);
@@ -77,9 +78,23 @@ public class ContactViewHolder extends RecyclerView.ViewHolder implements View.O
 
     public void UpdateView(User user, int position) {
         index = position;
+        placeholder = false;
         UpdateView(user);
     }
 
+    /**
+     * Bind a row whose page is not loaded yet, the adapter binds it again when the page arrives.
+     * The recycled view must not keep showing the previous user, its clicks are ignored meanwhile.
+     *
+     * @param position position of the row in the adapter.
+     */
+    public void ShowPlaceholder(int position) {
+        index = position;
+        placeholder = true;
+        pseudo.setText(R.string.item_loading);
+        message.setText("");
+    }
+
     /**
      * Called when a view has been clicked.
      *
@@ -87,7 +102,7 @@ public class ContactViewHolder extends RecyclerView.ViewHolder implements View.O
      */
     @Override
     public void onClick(View v) {
-        if (onItemClickHolder != null) {
+        if (onItemClickHolder != null && !placeholder) {
             onItemClickHolder.OnItemClick(itemView, index, this);
         }
     }
@@ -68,8 +68,10 @@ public class KeySetViewHolder extends RecyclerView.ViewHolder implements View.On
         description.setText(keySet.getDescription());
         created.setText(keySet.getCreated().toString());
         String infoStr = itemView.getContext().getString(R.string.invalid_key_set);
-        if (keySet.getPrivateKey() != null) {
-            infoStr = keySet.getPrivateKey().getAlgorithm() + " " + keySet.getPrivateKey().getFormat() + " " + keySet.getLength();
+        // the private key is not parsed to show the list
+        if (keySet.hasPrivateKey()) {
+            String format = keySet.getPrivateKeyFormat();
+            infoStr = keySet.getAlgorithm() + (format != null ? " " + format : "") + " " + keySet.getLength();
         } else if (keySet.getSecretKey() != null) {
             infoStr = keySet.getSecretKey().getAlgorithm() + " " + keySet.getSecretKey().getFormat() + " " + keySet.getLength();
         }
@@ -77,6 +79,19 @@ public class KeySetViewHolder extends RecyclerView.ViewHolder implements View.On
         this.keySet = keySet;
     }
 
+    /**
+     * Bind a row whose page is not loaded yet, the adapter binds it again when the page arrives.
+     * The recycled view must not keep showing the previous key set, its clicks are ignored
+     * meanwhile.
+     */
+    public void showPlaceholder() {
+        title.setText(R.string.item_loading);
+        description.setText("");
+        created.setText("");
+        info.setText("");
+        this.keySet = null;
+    }
+
     public void setIndex(int index) {
         this.index = index;
     }
@@ -96,7 +111,7 @@ public class KeySetViewHolder extends RecyclerView.ViewHolder implements View.On
      */
     @Override
     public void onClick(View v) {
-        if (itemClickListener != null) {
+        if (itemClickListener != null && keySet != null) {
             itemClickListener.OnItemClick(v, index, this);
         }
 
@@ -110,7 +125,7 @@ public class KeySetViewHolder extends RecyclerView.ViewHolder implements View.On
      */
     @Override
     public boolean onLongClick(View v) {
-        if (itemClickListener != null) {
+        if (itemClickListener != null && keySet != null) {
             itemClickListener.OnItemLongClick(v, index, this);
         }
         return false;
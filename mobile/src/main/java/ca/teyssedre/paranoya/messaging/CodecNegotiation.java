@@ -0,0 +1,164 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015. Pierre Teyssedre
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package ca.teyssedre.paranoya.messaging;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Outgoing {@link IEnvelopeCodec} agreed with the peer, bound to the connection it was agreed on.
+ * Every connection starts on the text codec, a binary codec is only used once the peer of the
+ * same connection picked it. A message sent while no binary codec is agreed for the open
+ * connection is written as JSON text, so the queued messages stay readable by any peer.
+ * <p/>
+ * {@link #reset(long)} and {@link #select(String[])} must be called in the order of the socket
+ * events, {@link #send(SocketMessage, IFrameSink)} can be called from any thread.
+ */
+public class CodecNegotiation {
+
+    private static final long NO_CONNECTION = -1;
+
+    private final IEnvelopeCodec[] codecs;
+    private final MessageCodec text;
+    private volatile Selection selection;
+    private volatile long pending = NO_CONNECTION;
+
+    /**
+     * @param codecs supported {@link IEnvelopeCodec}, the first one must be the text codec.
+     */
+    public CodecNegotiation(IEnvelopeCodec... codecs) {
+        if (codecs.length == 0 || codecs[0].isBinary()) {
+            throw new IllegalArgumentException("The first codec must be a text codec");
+        }
+        this.codecs = codecs;
+        this.text = MessageCodec.getInstance();
+        this.selection = new Selection(codecs[0], NO_CONNECTION);
+    }
+
+    /**
+     * A new connection is open, the outgoing messages go back to the text codec until the peer
+     * answers our capabilities.
+     *
+     * @param connection identifier of the open connection.
+     */
+    public void reset(long connection) {
+        pending = connection;
+        selection = new Selection(codecs[0], connection);
+    }
+
+    /**
+     * Answer of the peer to our capabilities: the first name we support becomes the outgoing codec
+     * of the connection given to the last {@link #reset(long)}.
+     *
+     * @param names names announced by the peer, in order of preference.
+     * @return the selected {@link IEnvelopeCodec}, null if none is supported.
+     */
+    public IEnvelopeCodec select(String[] names) {
+        if (names == null) {
+            return null;
+        }
+        for (String name : names) {
+            for (IEnvelopeCodec candidate : codecs) {
+                if (candidate.getName().equals(name)) {
+                    selection = new Selection(candidate, pending);
+                    return candidate;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Write the {@code message} with the codec agreed for the open connection. If the connection
+     * changed since the codec was agreed, or no binary codec is agreed, the message is sent as
+     * JSON text. Signatures are made over the JSON text, signed messages are always sent as text.
+     *
+     * @param message {@link SocketMessage} instance to send.
+     * @param sink    {@link IFrameSink} transport.
+     * @throws IOException if the message can't be serialized.
+     */
+    public void send(SocketMessage<?> message, IFrameSink sink) throws IOException {
+        Selection current = selection;
+        if (current.codec.isBinary() && message.getSignature() == null
+                && sink.sendOnConnection(current.codec.encode(message), current.connection)) {
+            return;
+        }
+        sink.send(text.encodeToString(message));
+    }
+
+    /**
+     * @return the {@link IEnvelopeCodec} currently used for the outgoing messages.
+     */
+    public IEnvelopeCodec getCodec() {
+        return selection.codec;
+    }
+
+    /**
+     * @return names of the supported {@link IEnvelopeCodec}, binary formats first.
+     */
+    public String[] getNames() {
+        String[] names = new String[codecs.length];
+        int i = 0;
+        for (IEnvelopeCodec candidate : codecs) {
+            if (candidate.isBinary()) {
+                names[i++] = candidate.getName();
+            }
+        }
+        for (IEnvelopeCodec candidate : codecs) {
+            if (!candidate.isBinary()) {
+                names[i++] = candidate.getName();
+            }
+        }
+        return names;
+    }
+
+    /**
+     * Find the {@link IEnvelopeCodec} able to read the {@code raw} content.
+     *
+     * @param raw {@link ByteBuffer} received content, its position is not modified.
+     * @return {@link IEnvelopeCodec} instance, null if the format is not recognized.
+     */
+    public IEnvelopeCodec detect(ByteBuffer raw) {
+        for (IEnvelopeCodec candidate : codecs) {
+            if (candidate.accept(raw)) {
+                return candidate;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Codec and connection it was agreed on, published as one value.
+     */
+    private static final class Selection {
+        final IEnvelopeCodec codec;
+        final long connection;
+
+        Selection(IEnvelopeCodec codec, long connection) {
+            this.codec = codec;
+            this.connection = connection;
+        }
+    }
+}
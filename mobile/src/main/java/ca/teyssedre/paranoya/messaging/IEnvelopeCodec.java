@@ -0,0 +1,75 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015. Pierre Teyssedre
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package ca.teyssedre.paranoya.messaging;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Wire format of a {@link SocketMessage}. Every implementation must read and write the same
+ * envelope fields so the client can switch from one format to another on a live connection.
+ */
+public interface IEnvelopeCodec {
+
+    /**
+     * Unique name of the format, used to announce and compare the capability of the peers.
+     *
+     * @return {@link String} name of the codec.
+     */
+    String getName();
+
+    /**
+     * Indicate if the messages of this codec must be sent as binary frames.
+     *
+     * @return true for a binary format, false for a text format.
+     */
+    boolean isBinary();
+
+    /**
+     * Test if the {@code raw} content is written in the format of this codec.
+     *
+     * @param raw {@link ByteBuffer} received content, its position is not modified.
+     * @return true if the codec is able to decode the content.
+     */
+    boolean accept(ByteBuffer raw);
+
+    /**
+     * Write the {@code message} in the format of this codec.
+     *
+     * @param message {@link SocketMessage} instance to write.
+     * @return encoded bytes of the message.
+     * @throws IOException if the message can't be serialized.
+     */
+    byte[] encode(SocketMessage<?> message) throws IOException;
+
+    /**
+     * Read the {@code raw} content in a single pass.
+     *
+     * @param raw {@link ByteBuffer} received content, its position is not modified.
+     * @return {@link SocketFrame} instance.
+     * @throws IOException if the content can't be read.
+     */
+    SocketFrame decode(ByteBuffer raw) throws IOException;
+}
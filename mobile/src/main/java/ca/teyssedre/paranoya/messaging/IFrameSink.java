@@ -0,0 +1,48 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015. Pierre Teyssedre
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package ca.teyssedre.paranoya.messaging;
+
+/**
+ * Transport used by {@link CodecNegotiation} to put the encoded messages on the wire.
+ */
+public interface IFrameSink {
+
+    /**
+     * Send the binary {@code frame} only if the connection {@code connection} is still the open
+     * one. A binary frame is never queued: the format was agreed with the peer of that connection.
+     *
+     * @param frame      {@code byte[]} encoded message.
+     * @param connection identifier of the connection the codec was negotiated on.
+     * @return true if the frame was sent, false if that connection is gone.
+     */
+    boolean sendOnConnection(byte[] frame, long connection);
+
+    /**
+     * Send the text {@code frame}, queued until a connection is open if needed.
+     *
+     * @param frame {@link String} JSON message.
+     */
+    void send(String frame);
+}
@@ -0,0 +1,67 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015. Pierre Teyssedre
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package ca.teyssedre.paranoya.messaging;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Default {@link IEnvelopeCodec} writing the messages as UTF-8 JSON text frames.
+ */
+public class JsonEnvelopeCodec implements IEnvelopeCodec {
+
+    public static final String NAME = "json";
+
+    private final MessageCodec codec;
+
+    public JsonEnvelopeCodec() {
+        this.codec = MessageCodec.getInstance();
+    }
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    @Override
+    public boolean isBinary() {
+        return false;
+    }
+
+    @Override
+    public boolean accept(ByteBuffer raw) {
+        return raw.hasRemaining() && raw.get(raw.position()) == '{';
+    }
+
+    @Override
+    public byte[] encode(SocketMessage<?> message) throws IOException {
+        return codec.encode(message);
+    }
+
+    @Override
+    public SocketFrame decode(ByteBuffer raw) throws IOException {
+        return codec.decode(raw);
+    }
+}
@@ -0,0 +1,489 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015. Pierre Teyssedre
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package ca.teyssedre.paranoya.messaging;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonLocation;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.io.SegmentedStringWriter;
+import com.fasterxml.jackson.core.util.ByteArrayBuilder;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.JavaType;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.databind.util.TokenBuffer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+import ca.teyssedre.paranoya.messaging.data.KeyMessage;
+import ca.teyssedre.paranoya.messaging.data.KeyRelation;
+import ca.teyssedre.paranoya.messaging.data.User;
+import ca.teyssedre.paranoya.messaging.enums.SocketMessageType;
+
+/**
+ * Single holder of the Jackson configuration used to read and write {@link SocketMessage}.
+ * The {@link ObjectMapper} is configured once and never touched again, which makes it safe to
+ * share between threads. {@link ObjectReader} and {@link ObjectWriter} are immutable so they are
+ * built once per payload type and reused for every message.
+ */
+public final class MessageCodec {
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final int AAD_VERSION = 2;
+
+    private final ObjectMapper mapper;
+    private final ConcurrentHashMap<Class<?>, ObjectReader> readers;
+    private final ConcurrentHashMap<Class<?>, ObjectReader> dataReaders;
+    private final ConcurrentHashMap<Class<?>, ObjectWriter> writers;
+    private final ObjectReader rawReader;
+    private final ThreadLocal<ByteArrayBuilder> buffers;
+
+    //region Singleton
+    private static volatile MessageCodec instance;
+
+    private MessageCodec() {
+        this.mapper = new ObjectMapper();
+        this.mapper.setSerializationInclusion(JsonInclude.Include.NON_NULL);
+        this.mapper.configure(SerializationFeature.FAIL_ON_EMPTY_BEANS, false);
+        this.mapper.configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+        this.readers = new ConcurrentHashMap<>();
+        this.dataReaders = new ConcurrentHashMap<>();
+        this.writers = new ConcurrentHashMap<>();
+        this.rawReader = mapper.readerFor(SocketMessage.class);
+        this.buffers = new ThreadLocal<ByteArrayBuilder>() {
+            @Override
+            protected ByteArrayBuilder initialValue() {
+                return new ByteArrayBuilder(mapper.getFactory()._getBufferRecycler());
+            }
+        };
+        // Payloads exchanged on the socket are known ahead, warm them up.
+        readerFor(KeyMessage.class);
+        readerFor(User.class);
+        readerFor(KeyRelation.class);
+        dataReaderFor(KeyMessage.class);
+        dataReaderFor(User.class);
+        dataReaderFor(KeyRelation.class);
+        writerFor(KeyMessage.class);
+        writerFor(User.class);
+        writerFor(KeyRelation.class);
+    }
+
+    /**
+     * Getter of the singleton {@code instance}, the first call will build the shared
+     * {@link ObjectMapper} and the pre-built readers and writers.
+     *
+     * @return {@link MessageCodec} singleton instance.
+     */
+    public static MessageCodec getInstance() {
+        if (instance == null) {
+            synchronized (MessageCodec.class) {
+                if (instance == null) {
+                    instance = new MessageCodec();
+                }
+            }
+        }
+        return instance;
+    }
+    //endregion
+
+    /**
+     * Accessor to the shared {@link ObjectMapper}. The instance must not be reconfigured.
+     *
+     * @return {@link ObjectMapper} shared instance.
+     */
+    public ObjectMapper getMapper() {
+        return mapper;
+    }
+
+    /**
+     * Retrieve the {@link ObjectReader} able to read a complete {@link SocketMessage} with a
+     * {@code data} bound to the {@code dataType} class.
+     *
+     * @param dataType {@link Class} of the payload.
+     * @return {@link ObjectReader} cached instance.
+     */
+    public ObjectReader readerFor(Class<?> dataType) {
+        if (dataType == null) {
+            return rawReader;
+        }
+        ObjectReader reader = readers.get(dataType);
+        if (reader == null) {
+            JavaType type = mapper.getTypeFactory().constructParametricType(SocketMessage.class, dataType);
+            reader = mapper.readerFor(type);
+            ObjectReader previous = readers.putIfAbsent(dataType, reader);
+            if (previous != null) {
+                reader = previous;
+            }
+        }
+        return reader;
+    }
+
+    /**
+     * Retrieve the {@link ObjectWriter} for a payload {@code dataType}.
+     *
+     * @param dataType {@link Class} of the payload.
+     * @return {@link ObjectWriter} cached instance.
+     */
+    public ObjectWriter writerFor(Class<?> dataType) {
+        ObjectWriter writer = writers.get(dataType);
+        if (writer == null) {
+            writer = mapper.writerFor(dataType);
+            ObjectWriter previous = writers.putIfAbsent(dataType, writer);
+            if (previous != null) {
+                writer = previous;
+            }
+        }
+        return writer;
+    }
+
+    /**
+     * Retrieve the {@link ObjectReader} for the payload {@code dataType} alone, without the
+     * {@link SocketMessage} envelope.
+     *
+     * @param dataType {@link Class} of the payload.
+     * @return {@link ObjectReader} cached instance.
+     */
+    public ObjectReader dataReaderFor(Class<?> dataType) {
+        ObjectReader reader = dataReaders.get(dataType);
+        if (reader == null) {
+            reader = mapper.readerFor(dataType);
+            ObjectReader previous = dataReaders.putIfAbsent(dataType, reader);
+            if (previous != null) {
+                reader = previous;
+            }
+        }
+        return reader;
+    }
+
+    /**
+     * Payload class carried by a {@link SocketMessage} of the given {@code type}.
+     *
+     * @param type {@link SocketMessageType} value.
+     * @return {@link Class} of the payload or null if the type has no known payload.
+     */
+    public static Class<?> dataTypeOf(SocketMessageType type) {
+        switch (type) {
+            case KeyExchange:
+            case KeyValidation:
+                return KeyMessage.class;
+            case OnlineStatus:
+                return User.class;
+            case DataText:
+            case DataBinary:
+                // Base64 value of a ca.teyssedre.crypto.SessionEnvelope
+                return String.class;
+            case Capabilities:
+                // names of the IEnvelopeCodec, by preference
+                return String[].class;
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * Canonical bytes of the header fields of a message, bound as additional authenticated data
+     * when the payload is encrypted with AES-GCM. The serialized JSON can't be used since the
+     * field order and the codec of the envelope may change between both ends. Only the fields set
+     * by the sender are bound, the {@code origin} is assigned by the relay after the payload has
+     * been sealed.
+     *
+     * @param type        {@link SocketMessageType} of the message.
+     * @param destination {@link String} destination, may be null.
+     * @param serial      serial number of the message.
+     * @return {@code byte[]} value to pass as AAD.
+     */
+    public static byte[] headerAad(SocketMessageType type, String destination, int serial) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            out.writeByte(AAD_VERSION);
+            out.writeInt(type.getValue());
+            writeNullable(out, destination);
+            out.writeInt(serial);
+        } catch (IOException e) {
+            // Never raised by a ByteArrayOutputStream.
+            throw new IllegalStateException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static void writeNullable(DataOutputStream out, String value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeUTF(value);
+        }
+    }
+
+    /**
+     * Read the {@code raw} message in a single pass. The header fields are extracted and the
+     * {@code data} subtree is buffered, along with its exact text, so the payload can be validated
+     * and bound afterward without parsing the message again.
+     *
+     * @param raw {@link String} serialized message.
+     * @return {@link SocketFrame} instance.
+     * @throws IOException if the message is not a valid JSON object.
+     */
+    public SocketFrame decode(String raw) throws IOException {
+        SocketFrame frame = new SocketFrame();
+        if (raw == null || raw.length() == 0) {
+            return frame;
+        }
+        long[] span = read(mapper.getFactory().createParser(raw), frame, false);
+        if (span != null) {
+            frame.setRawData(raw.substring((int) span[0], (int) span[1]).getBytes(UTF8));
+        }
+        return frame;
+    }
+
+    /**
+     * Binary version of {@link #decode(String)}, the {@code raw} message is read as UTF-8 JSON
+     * directly from the buffer without building a {@link String} of the whole message.
+     *
+     * @param raw {@link ByteBuffer} serialized message, its position is not modified.
+     * @return {@link SocketFrame} instance.
+     * @throws IOException if the message is not a valid JSON object.
+     */
+    public SocketFrame decode(ByteBuffer raw) throws IOException {
+        if (raw == null || !raw.hasRemaining()) {
+            return new SocketFrame();
+        }
+        byte[] bytes = bytesOf(raw);
+        return decode(mapper.getFactory().createParser(bytes, 0, raw.remaining()), bytes, true);
+    }
+
+    /**
+     * Read a message from a byte based {@code parser}, whatever the format of the underlying
+     * {@link JsonFactory}. The bytes of the {@code data} subtree are only kept for a JSON source:
+     * a binary format like Smile back-references names and values written earlier in the frame,
+     * so its span is not the signed text and must never reach a signature check.
+     *
+     * @param parser      {@link JsonParser} reading {@code source} from its first byte.
+     * @param source      {@code byte[]} content read by the {@code parser}.
+     * @param jsonSource  true if {@code source} is JSON text, the raw data is then kept.
+     * @return {@link SocketFrame} instance.
+     * @throws IOException if the message is not a valid object.
+     */
+    SocketFrame decode(JsonParser parser, byte[] source, boolean jsonSource) throws IOException {
+        SocketFrame frame = new SocketFrame();
+        long[] span = read(parser, frame, true);
+        if (span != null && jsonSource) {
+            frame.setRawData(Arrays.copyOfRange(source, (int) span[0], (int) span[1]));
+        }
+        return frame;
+    }
+
+    /**
+     * Access the remaining content of {@code raw} as an array starting at index 0, the backing array
+     * is used when possible and a copy is made otherwise.
+     *
+     * @param raw {@link ByteBuffer} content, its position is not modified.
+     * @return {@code byte[]} holding {@code raw.remaining()} bytes from index 0.
+     */
+    static byte[] bytesOf(ByteBuffer raw) {
+        if (raw.hasArray() && raw.arrayOffset() + raw.position() == 0) {
+            return raw.array();
+        }
+        byte[] bytes = new byte[raw.remaining()];
+        raw.duplicate().get(bytes);
+        return bytes;
+    }
+
+    /**
+     * Walk the message once, fill the header of the {@code frame} and buffer its {@code data}.
+     *
+     * @param parser     {@link JsonParser} positioned before the message.
+     * @param frame      {@link SocketFrame} to fill.
+     * @param byteSource true if the {@code parser} reads bytes, false if it reads characters.
+     * @return start and end offsets of the {@code data} subtree in the source of the {@code parser},
+     * or null if the message has no data.
+     * @throws IOException if the message is not a valid JSON object.
+     */
+    private long[] read(JsonParser parser, SocketFrame frame, boolean byteSource) throws IOException {
+        long[] span = null;
+        try {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                throw new IOException("Message is not a JSON object");
+            }
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.getCurrentName();
+                JsonToken token = parser.nextToken();
+                if (token == JsonToken.VALUE_NULL) {
+                    continue;
+                }
+                switch (field) {
+                    case "type":
+                        frame.setType(SocketMessageType.parse(parser.getValueAsInt(-1)));
+                        break;
+                    case "destination":
+                        frame.setDestination(parser.getValueAsString());
+                        break;
+                    case "origin":
+                        frame.setOrigin(parser.getValueAsString());
+                        break;
+                    case "serial":
+                        frame.setSerial(parser.getValueAsInt());
+                        break;
+                    case "signature":
+                        frame.setSignature(parser.getValueAsString());
+                        break;
+                    case "data":
+                        long start = offsetOf(parser.getTokenLocation(), byteSource);
+                        TokenBuffer tokens = new TokenBuffer(parser);
+                        tokens.copyCurrentStructure(parser);
+                        long end = offsetOf(parser.getCurrentLocation(), byteSource);
+                        frame.setDataTokens(tokens);
+                        span = new long[]{start, end};
+                        break;
+                    default:
+                        parser.skipChildren();
+                        break;
+                }
+            }
+        } finally {
+            parser.close();
+        }
+        return span;
+    }
+
+    private static long offsetOf(JsonLocation location, boolean byteSource) {
+        return byteSource ? location.getByteOffset() : location.getCharOffset();
+    }
+
+    /**
+     * Write the {@code message} as UTF-8 JSON directly into {@code out}. The envelope fields are
+     * always written in the same order ({@code type}, {@code destination}, {@code origin},
+     * {@code serial}, {@code signature}, {@code data}) so the output can be signed.
+     *
+     * @param message {@link SocketMessage} instance to write.
+     * @param out     {@link OutputStream} destination.
+     * @throws IOException if the payload can't be serialized.
+     */
+    public void encode(SocketMessage<?> message, OutputStream out) throws IOException {
+        JsonGenerator generator = mapper.getFactory().createGenerator(out, JsonEncoding.UTF8);
+        generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+        try {
+            write(message, generator);
+        } finally {
+            generator.close();
+        }
+    }
+
+    /**
+     * Write the {@code message} into the buffer of the calling thread and return the encoded bytes.
+     * The buffer is kept for the next call, only the returned array is allocated.
+     *
+     * @param message {@link SocketMessage} instance to write.
+     * @return UTF-8 bytes of the serialized message.
+     * @throws IOException if the payload can't be serialized.
+     */
+    public byte[] encode(SocketMessage<?> message) throws IOException {
+        return encode(message, mapper.getFactory());
+    }
+
+    /**
+     * Write the {@code message} with a generator of the given {@code factory} into the buffer of
+     * the calling thread.
+     *
+     * @param message {@link SocketMessage} instance to write.
+     * @param factory {@link JsonFactory} defining the output format.
+     * @return encoded bytes of the message.
+     * @throws IOException if the payload can't be serialized.
+     */
+    byte[] encode(SocketMessage<?> message, JsonFactory factory) throws IOException {
+        ByteArrayBuilder buffer = buffers.get();
+        try {
+            JsonGenerator generator = factory.createGenerator(buffer, JsonEncoding.UTF8);
+            try {
+                write(message, generator);
+            } finally {
+                generator.close();
+            }
+            return buffer.toByteArray();
+        } finally {
+            buffer.reset();
+        }
+    }
+
+    /**
+     * Write the {@code message} as a JSON {@link String}, with the same field order than
+     * {@link #encode(SocketMessage, OutputStream)}.
+     *
+     * @param message {@link SocketMessage} instance to write.
+     * @return {@link String} serialized message.
+     * @throws IOException if the payload can't be serialized.
+     */
+    public String encodeToString(SocketMessage<?> message) throws IOException {
+        SegmentedStringWriter writer = new SegmentedStringWriter(mapper.getFactory()._getBufferRecycler());
+        JsonGenerator generator = mapper.getFactory().createGenerator(writer);
+        try {
+            write(message, generator);
+        } finally {
+            generator.close();
+        }
+        return writer.getAndClear();
+    }
+
+    /**
+     * Write the {@code message} with the given {@code generator}, whatever the format of the
+     * underlying {@link JsonFactory}. The {@code generator} is not closed.
+     *
+     * @param message   {@link SocketMessage} instance to write.
+     * @param generator {@link JsonGenerator} destination.
+     * @throws IOException if the payload can't be serialized.
+     */
+    void write(SocketMessage<?> message, JsonGenerator generator) throws IOException {
+        generator.writeStartObject();
+        generator.writeNumberField("type", message.getType().getValue());
+        if (message.getDestination() != null) {
+            generator.writeStringField("destination", message.getDestination());
+        }
+        if (message.getOrigin() != null) {
+            generator.writeStringField("origin", message.getOrigin());
+        }
+        generator.writeNumberField("serial", message.getSerial());
+        if (message.getSignature() != null) {
+            generator.writeStringField("signature", message.getSignature());
+        }
+        Object data = message.getData();
+        if (data != null) {
+            generator.writeFieldName("data");
+            writerFor(data.getClass()).writeValue(generator, data);
+        }
+        generator.writeEndObject();
+    }
+}
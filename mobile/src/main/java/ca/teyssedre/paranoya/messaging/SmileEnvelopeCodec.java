@@ -0,0 +1,88 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015. Pierre Teyssedre
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package ca.teyssedre.paranoya.messaging;
+
+import com.fasterxml.jackson.dataformat.smile.SmileConstants;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Binary {@link IEnvelopeCodec} based on Jackson Smile. Field names are back-referenced and
+ * numbers are written as variable length integers, which makes the frames smaller and faster to
+ * read than the JSON text. The Smile header is always written so the format can be detected on
+ * reception.
+ * <p/>
+ * The frames read with this codec carry no {@link SocketFrame#getRawData()}, the signed messages
+ * stay on JSON in both directions.
+ */
+public class SmileEnvelopeCodec implements IEnvelopeCodec {
+
+    public static final String NAME = "smile";
+
+    private final MessageCodec codec;
+    private final SmileFactory factory;
+
+    public SmileEnvelopeCodec() {
+        this.codec = MessageCodec.getInstance();
+        this.factory = new SmileFactory();
+        this.factory.setCodec(codec.getMapper());
+    }
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    @Override
+    public boolean isBinary() {
+        return true;
+    }
+
+    @Override
+    public boolean accept(ByteBuffer raw) {
+        int p = raw.position();
+        return raw.remaining() >= 3
+                && raw.get(p) == SmileConstants.HEADER_BYTE_1
+                && raw.get(p + 1) == SmileConstants.HEADER_BYTE_2
+                && raw.get(p + 2) == SmileConstants.HEADER_BYTE_3;
+    }
+
+    @Override
+    public byte[] encode(SocketMessage<?> message) throws IOException {
+        return codec.encode(message, factory);
+    }
+
+    @Override
+    public SocketFrame decode(ByteBuffer raw) throws IOException {
+        if (raw == null || !raw.hasRemaining()) {
+            return new SocketFrame();
+        }
+        byte[] bytes = MessageCodec.bytesOf(raw);
+        // no raw data, a signed payload is only accepted as JSON
+        return codec.decode(factory.createParser(bytes, 0, raw.remaining()), bytes, false);
+    }
+}
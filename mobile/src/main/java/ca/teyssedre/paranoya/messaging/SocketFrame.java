@@ -0,0 +1,141 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015. Pierre Teyssedre
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package ca.teyssedre.paranoya.messaging;
+
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.util.TokenBuffer;
+
+import java.io.IOException;
+
+import ca.teyssedre.paranoya.messaging.enums.SocketMessageType;
+
+/**
+ * Result of a single pass over a serialized {@link SocketMessage}. The header fields are read
+ * directly and the {@code data} subtree is kept twice: as the exact text received (used for the
+ * signature validation) and as a buffer of tokens that can be bound later to the payload class
+ * without reading the text again.
+ */
+public class SocketFrame {
+
+    private SocketMessageType type = SocketMessageType.Unknown;
+    private String destination;
+    private String origin;
+    private int serial;
+    private String signature;
+    private byte[] rawData;
+    private TokenBuffer dataTokens;
+
+    SocketFrame() {
+    }
+
+    //region Getters and Setters
+    public SocketMessageType getType() {
+        return type;
+    }
+
+    void setType(SocketMessageType type) {
+        this.type = type;
+    }
+
+    public String getDestination() {
+        return destination;
+    }
+
+    void setDestination(String destination) {
+        this.destination = destination;
+    }
+
+    public String getOrigin() {
+        return origin;
+    }
+
+    void setOrigin(String origin) {
+        this.origin = origin;
+    }
+
+    public int getSerial() {
+        return serial;
+    }
+
+    void setSerial(int serial) {
+        this.serial = serial;
+    }
+
+    public String getSignature() {
+        return signature;
+    }
+
+    void setSignature(String signature) {
+        this.signature = signature;
+    }
+
+    /**
+     * Exact UTF-8 bytes of the {@code data} subtree as it was received, only kept for JSON frames.
+     *
+     * @return {@code byte[]} raw value or null if the frame has no data or was not JSON.
+     */
+    public byte[] getRawData() {
+        return rawData;
+    }
+
+    void setRawData(byte[] rawData) {
+        this.rawData = rawData;
+    }
+
+    void setDataTokens(TokenBuffer dataTokens) {
+        this.dataTokens = dataTokens;
+    }
+
+    public boolean hasData() {
+        return dataTokens != null;
+    }
+    //endregion
+
+    /**
+     * @return {@code byte[]} header bytes authenticated along an AES-GCM encrypted payload.
+     * @see MessageCodec#headerAad(SocketMessageType, String, int)
+     */
+    public byte[] getHeaderAad() {
+        return MessageCodec.headerAad(type, destination, serial);
+    }
+
+    /**
+     * Bind the buffered {@code data} to the payload class expected for the {@link #getType()}
+     * of the frame.
+     *
+     * @param dataType {@link Class} of the payload.
+     * @param <E>      type of the payload.
+     * @return {@link SocketMessage} instance with header and payload.
+     * @throws IOException if the payload can't be bound to {@code dataType}.
+     */
+    public <E> SocketMessage<E> toMessage(Class<E> dataType) throws IOException {
+        E data = null;
+        if (dataTokens != null && dataType != null) {
+            ObjectReader reader = MessageCodec.getInstance().dataReaderFor(dataType);
+            data = reader.readValue(dataTokens.asParser(reader));
+        }
+        return new SocketMessage<>(type, data, destination, origin, signature, serial);
+    }
+}
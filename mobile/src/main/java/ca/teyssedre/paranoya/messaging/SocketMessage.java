@@ -24,14 +24,7 @@
 
 package ca.teyssedre.paranoya.messaging;
 
-import com.fasterxml.jackson.annotation.JsonInclude;
-import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.core.type.TypeReference;
-import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.databind.SerializationFeature;
-
-import org.json.JSONException;
-import org.json.JSONObject;
+import com.fasterxml.jackson.annotation.JsonIgnore;
 
 import java.io.IOException;
 
@@ -126,25 +119,22 @@ public class SocketMessage<T> {
         this.serial = serial;
     }
 
+    /**
+     * @return {@code byte[]} header bytes authenticated along an AES-GCM encrypted payload.
+     * @see MessageCodec#headerAad(SocketMessageType, String, int)
+     */
+    @JsonIgnore
+    public byte[] getHeaderAad() {
+        return MessageCodec.headerAad(type, destination, serial);
+    }
+
     private String Serialize() {
-        JSONObject jsonObject = new JSONObject();
         try {
-            ObjectMapper mapper = new ObjectMapper();
-            mapper.setSerializationInclusion(JsonInclude.Include.NON_NULL);
-            mapper.configure(SerializationFeature.FAIL_ON_EMPTY_BEANS, false);
-            if (data != null) {
-                JSONObject d = new JSONObject(mapper.writeValueAsString(data));
-                jsonObject.put("data", d);
-            }
-            jsonObject.put("type", type.getValue());
-            jsonObject.put("destination", destination);
-            jsonObject.put("signature", signature);
-            jsonObject.put("origin", origin);
-            jsonObject.put("serial", serial);
-        } catch (JSONException | JsonProcessingException e) {
+            return MessageCodec.getInstance().encodeToString(this);
+        } catch (IOException e) {
             e.printStackTrace();
         }
-        return jsonObject.toString();
+        return "";
     }
 
     @Override
@@ -155,8 +145,8 @@ public class SocketMessage<T> {
     public static SocketMessageType parseType(String raw) {
         if (raw != null && raw.length() > 0) {
             try {
-                return SocketMessageType.parse(new JSONObject(raw).getInt("type"));
-            } catch (JSONException e) {
+                return MessageCodec.getInstance().decode(raw).getType();
+            } catch (IOException e) {
                 e.printStackTrace();
             }
         }
@@ -164,12 +154,22 @@ public class SocketMessage<T> {
     }
 
     public static <E> SocketMessage<E> parse(String raw) {
-        ObjectMapper mapper = new ObjectMapper();
-        mapper.setSerializationInclusion(JsonInclude.Include.NON_NULL);
-        mapper.configure(SerializationFeature.FAIL_ON_EMPTY_BEANS, false);
+        return parse(raw, null);
+    }
+
+    /**
+     * Parse the {@code raw} message using the shared {@link MessageCodec} so the {@code data} is
+     * bound to the {@code dataType} class.
+     *
+     * @param raw      {@link String} serialized message.
+     * @param dataType {@link Class} of the payload, if null the payload is kept as a generic map.
+     * @param <E>      type of the payload.
+     * @return {@link SocketMessage} instance or null if the message can't be parsed.
+     */
+    public static <E> SocketMessage<E> parse(String raw, Class<E> dataType) {
         SocketMessage<E> msg = null;
         try {
-            msg = mapper.readValue(raw, new TypeReference<SocketMessage<E>>(){});
+            msg = MessageCodec.getInstance().readerFor(dataType).readValue(raw);
         } catch (IOException e) {
             e.printStackTrace();
         }
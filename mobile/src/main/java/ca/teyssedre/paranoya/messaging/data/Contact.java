@@ -0,0 +1,70 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015. Pierre Teyssedre
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package ca.teyssedre.paranoya.messaging.data;
+
+import java.security.PublicKey;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A contact {@link User} with its {@link KeyRelation} and the public key of each relation, read
+ * in a single query by {@link ca.teyssedre.paranoya.store.sources.ParanoyaUserSource}.
+ */
+public class Contact {
+
+    private final User user;
+    private final List<KeyRelation> relations;
+    private final List<PublicKey> publicKeys;
+
+    public Contact(User user) {
+        this.user = user;
+        this.relations = new ArrayList<>();
+        this.publicKeys = new ArrayList<>();
+    }
+
+    /**
+     * @param relation  {@link KeyRelation} of the user.
+     * @param publicKey parsed key of the relation, null if the key is not stored or can't be parsed.
+     */
+    public void addKey(KeyRelation relation, PublicKey publicKey) {
+        relations.add(relation);
+        publicKeys.add(publicKey);
+    }
+
+    public User getUser() {
+        return user;
+    }
+
+    public List<KeyRelation> getRelations() {
+        return relations;
+    }
+
+    /**
+     * @return the public keys in the order of {@link #getRelations()}.
+     */
+    public List<PublicKey> getPublicKeys() {
+        return publicKeys;
+    }
+}
@@ -37,7 +37,11 @@ public enum SocketMessageType {
     DataText(300),
     DataBinary(400),
     CleanProcess(500),
-    WipeOut(600);
+    WipeOut(600),
+    /**
+     * Wire formats supported by the sender, see {@link ca.teyssedre.paranoya.messaging.IEnvelopeCodec#getName()}.
+     */
+    Capabilities(700);
 
 
     private final int value;
@@ -66,6 +70,8 @@ public enum SocketMessageType {
                 return CleanProcess;
             case 600:
                 return WipeOut;
+            case 700:
+                return Capabilities;
             default:
                 return Unknown;
         }
@@ -0,0 +1,218 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015. Pierre Teyssedre
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package ca.teyssedre.paranoya.store;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.util.SparseArray;
+import android.util.SparseBooleanArray;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+/**
+ * Window of pages over a table ordered by id. Only the page of the last requested position and
+ * {@code prefetch} pages around it are kept, the others are dropped. A page is loaded after the
+ * last id of the previous one (keyset pagination), by position only when that id is unknown.
+ * <p/>
+ * All the public methods must be called from the main thread, the loads run on the
+ * {@link Executor} and the {@link IPageListener} is called back on the main thread.
+ *
+ * @param <T> type of the rows.
+ */
+public class PagedSource<T> {
+
+    public interface IPageLoader<T> {
+
+        long count();
+
+        List<T> loadAfter(long afterId, int limit);
+
+        List<T> loadAt(int offset, int limit);
+
+        long idOf(T item);
+    }
+
+    public interface IPageListener {
+
+        /**
+         * The count was read again and all the pages were dropped.
+         */
+        void onRefreshed(int count);
+
+        void onPageLoaded(int start, int count);
+    }
+
+    private static final long UNKNOWN_ID = Long.MIN_VALUE;
+    private static final long FIRST_PAGE_AFTER_ID = -1;
+
+    private final IPageLoader<T> loader;
+    private final Executor executor;
+    private final Handler mainThread;
+    private final int pageSize;
+    private final int prefetch;
+    private final SparseArray<List<T>> pages;
+    private final SparseBooleanArray loading;
+    private IPageListener listener;
+    private long[] lastIds;
+    private int count;
+    private int currentPage;
+    private int generation;
+
+    /**
+     * @param loader   {@link IPageLoader} reading the rows.
+     * @param executor {@link Executor} running the loads, a serial one keeps the keyset path.
+     * @param pageSize number of rows per page.
+     * @param prefetch number of pages kept loaded before and after the current one.
+     */
+    public PagedSource(IPageLoader<T> loader, Executor executor, int pageSize, int prefetch) {
+        this.loader = loader;
+        this.executor = executor;
+        this.mainThread = new Handler(Looper.getMainLooper());
+        this.pageSize = pageSize;
+        this.prefetch = prefetch;
+        this.pages = new SparseArray<>();
+        this.loading = new SparseBooleanArray();
+        this.lastIds = new long[0];
+    }
+
+    public void setListener(IPageListener listener) {
+        this.listener = listener;
+    }
+
+    public int size() {
+        return count;
+    }
+
+    /**
+     * @param position position of the row.
+     * @return the row or null if its page is not loaded yet, the load is then requested.
+     */
+    public T get(int position) {
+        if (position < 0 || position >= count) {
+            return null;
+        }
+        int page = position / pageSize;
+        if (page != currentPage || pages.get(page) == null) {
+            currentPage = page;
+            evict();
+            requestWindow();
+        }
+        List<T> rows = pages.get(page);
+        int index = position - page * pageSize;
+        return rows != null && index < rows.size() ? rows.get(index) : null;
+    }
+
+    /**
+     * Read the count again and drop all the pages, the pending loads are ignored.
+     */
+    public void refresh() {
+        final int refreshGeneration = ++generation;
+        pages.clear();
+        loading.clear();
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                final long total = loader.count();
+                mainThread.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (refreshGeneration != generation) {
+                            return;
+                        }
+                        count = (int) Math.min(total, Integer.MAX_VALUE);
+                        lastIds = new long[(count + pageSize - 1) / pageSize];
+                        Arrays.fill(lastIds, UNKNOWN_ID);
+                        if (listener != null) {
+                            listener.onRefreshed(count);
+                        }
+                        requestWindow();
+                    }
+                });
+            }
+        });
+    }
+
+    //<editor-fold desc="Private Methods">
+    private void requestWindow() {
+        int first = Math.max(0, currentPage - prefetch);
+        int last = Math.min(lastIds.length - 1, currentPage + prefetch);
+        for (int page = first; page <= last; page++) {
+            if (pages.get(page) != null || loading.get(page)) {
+                continue;
+            }
+            if (page == 0) {
+                load(page, FIRST_PAGE_AFTER_ID);
+            } else if (lastIds[page - 1] != UNKNOWN_ID) {
+                load(page, lastIds[page - 1]);
+            } else if (!loading.get(page - 1)) {
+                load(page, UNKNOWN_ID);
+            }
+            // else the page is requested again once the previous one gives its last id
+        }
+    }
+
+    private void evict() {
+        for (int i = pages.size() - 1; i >= 0; i--) {
+            if (Math.abs(pages.keyAt(i) - currentPage) > prefetch) {
+                pages.removeAt(i);
+            }
+        }
+    }
+
+    private void load(final int page, final long afterId) {
+        final int loadGeneration = generation;
+        loading.put(page, true);
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                final List<T> rows = afterId == UNKNOWN_ID
+                        ? loader.loadAt(page * pageSize, pageSize)
+                        : loader.loadAfter(afterId, pageSize);
+                mainThread.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (loadGeneration != generation) {
+                            return;
+                        }
+                        loading.delete(page);
+                        if (rows.size() > 0 && page < lastIds.length) {
+                            lastIds[page] = loader.idOf(rows.get(rows.size() - 1));
+                        }
+                        if (Math.abs(page - currentPage) <= prefetch) {
+                            pages.put(page, rows);
+                            if (listener != null) {
+                                listener.onPageLoaded(page * pageSize, rows.size());
+                            }
+                        }
+                        requestWindow();
+                    }
+                });
+            }
+        });
+    }
+    //</editor-fold>
+}
@@ -59,6 +59,18 @@ public class ParanoyaDBHelper extends SQLiteOpenHelper {
     }
 
 
+    /**
+     * Called when the database connection is being configured, before its creation or upgrade.
+     * The connection is kept open for the life of the application, write-ahead logging lets the
+     * readers run while a write is in progress.
+     *
+     * @param db The database.
+     */
+    @Override
+    public void onConfigure(SQLiteDatabase db) {
+        db.enableWriteAheadLogging();
+    }
+
     /**
      * Called when the database is created for the first time. This is where the
      * creation of tables and the initial population of the tables should happen.
@@ -24,17 +24,30 @@
 
 package ca.teyssedre.paranoya.store.sources;
 
-import android.content.ContentValues;
 import android.content.Context;
 import android.database.Cursor;
 import android.database.DatabaseUtils;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteDoneException;
+import android.database.sqlite.SQLiteStatement;
 import android.util.Log;
 
-import java.sql.SQLException;
+import java.io.File;
+import java.nio.charset.Charset;
+import java.security.GeneralSecurityException;
+import java.security.NoSuchAlgorithmException;
+import java.security.PublicKey;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
 
+import ca.teyssedre.crypto.Crypto;
+import ca.teyssedre.crypto.store.db.ConflictMode;
+import ca.teyssedre.crypto.store.db.CryptoStorageHelper;
+import ca.teyssedre.crypto.store.db.KeyStoreDataSource;
+import ca.teyssedre.crypto.store.models.KeySet;
+import ca.teyssedre.crypto.utils.PrimitivePool;
+import ca.teyssedre.paranoya.messaging.data.Contact;
 import ca.teyssedre.paranoya.messaging.data.KeyRelation;
 import ca.teyssedre.paranoya.messaging.data.User;
 import ca.teyssedre.paranoya.store.ParanoyaDBHelper;
@@ -42,7 +55,12 @@ import ca.teyssedre.paranoya.store.ParanoyaDBHelper;
 public class ParanoyaUserSource extends DBSource {
 
     private static final String TAG = "ParanoyaUserSource";
+    private static final Charset UTF8 = Charset.forName("UTF-8");
     private static final String USERS_STORE_DB_NAME = "users.db";
+    /**
+     * Version 2 adds the {@link #USER_FINGERPRINT} column and the indexes of the lookups.
+     */
+    private static final int USERS_STORE_DB_VERSION = 2;
 
     //<editor-fold desc="USER TABLE">
     private static final String USERS_TABLE_NAME = "paranoyaUser";
@@ -53,6 +71,7 @@ public class ParanoyaUserSource extends DBSource {
     private static final String USER_DESCRIPTION = "description";
     private static final String USER_TYPE = "type";
     private static final String USER_RELAY = "relayTo";
+    private static final String USER_FINGERPRINT = "fingerprint";
     private static final String[] ALL_USER_COLUMNS = {USER_ID, USER_HASH, USER_AVATAR, USER_PSEUDO, USER_DESCRIPTION, USER_TYPE, USER_RELAY};
 
     private static final String CREATE_USER_TABLE = "CREATE TABLE "
@@ -62,8 +81,11 @@ public class ParanoyaUserSource extends DBSource {
             + USER_PSEUDO + " TEXT, "
             + USER_DESCRIPTION + " TEXT, "
             + USER_TYPE + " INTEGER, "
-            + USER_RELAY + " INTEGER "
+            + USER_RELAY + " INTEGER, "
+            + USER_FINGERPRINT + " BLOB "
             + ");";
+    private static final String ADD_FINGERPRINT_COLUMN = "ALTER TABLE " + USERS_TABLE_NAME
+            + " ADD COLUMN " + USER_FINGERPRINT + " BLOB";
     //</editor-fold>
 
     //<editor-fold desc="RELATION TABLE">
@@ -72,7 +94,7 @@ public class ParanoyaUserSource extends DBSource {
     private static final String RELATION_KEY_LINK = "keyId";
     private static final String RELATION_DESCRIPTION = "description";
     private static final String RELATION_TYPE = "type";
-    private static final String[] ALL_RELATION_COLUMNS = {RELATION_ID, USER_ID, RELATION_KEY_LINK, RELATION_DESCRIPTION, RELATION_TYPE};
+    private static final String[] ALL_RELATION_COLUMNS = {RELATION_ID, USER_ID, RELATION_KEY_LINK, RELATION_TYPE, RELATION_DESCRIPTION};
 
     private static final String CREATE_RELATION_TABLE = "CREATE TABLE "
             + RELATION_KEY_TABLE_NAME + " (" + RELATION_ID + " INTEGER PRIMARY KEY AUTOINCREMENT, "
@@ -83,21 +105,94 @@ public class ParanoyaUserSource extends DBSource {
             + ");";
     //</editor-fold>
 
+    //<editor-fold desc="INDEXES">
+    /**
+     * Indexes of the lookups. The plans using them are asserted by {@code ParanoyaUserSourceTest}
+     * under androidTest, an {@code EXPLAIN QUERY PLAN} needs the Android SQLite so it runs on a
+     * device or an emulator, not in the JVM unit tests.
+     */
+    private static final String[] CREATE_INDEXES = {
+            "CREATE UNIQUE INDEX IF NOT EXISTS idx_user_fingerprint ON " + USERS_TABLE_NAME + " (" + USER_FINGERPRINT + ")",
+            "CREATE INDEX IF NOT EXISTS idx_user_relay ON " + USERS_TABLE_NAME + " (" + USER_RELAY + ")",
+            "CREATE INDEX IF NOT EXISTS idx_user_type ON " + USERS_TABLE_NAME + " (" + USER_TYPE + ")",
+            "CREATE INDEX IF NOT EXISTS idx_relation_user_key ON " + RELATION_KEY_TABLE_NAME + " (" + USER_ID + ", " + RELATION_KEY_LINK + ")"
+    };
+    //</editor-fold>
+
+    //<editor-fold desc="STATEMENTS">
+    private static final String INSERT_USER = "INSERT INTO " + USERS_TABLE_NAME + " ("
+            + USER_HASH + ", " + USER_AVATAR + ", " + USER_PSEUDO + ", " + USER_DESCRIPTION + ", "
+            + USER_TYPE + ", " + USER_RELAY + ", " + USER_FINGERPRINT + ") VALUES (?, ?, ?, ?, ?, ?, ?)";
+    private static final String INSERT_RELATION = "INSERT INTO " + RELATION_KEY_TABLE_NAME + " ("
+            + USER_ID + ", " + RELATION_KEY_LINK + ", " + RELATION_DESCRIPTION + ", " + RELATION_TYPE
+            + ") VALUES (?, ?, ?, ?)";
+    private static final String DELETE_USER = "DELETE FROM " + USERS_TABLE_NAME + " WHERE " + USER_ID + " = ?";
+    private static final String USER_ID_BY_HASH = "SELECT " + USER_ID + " FROM " + USERS_TABLE_NAME
+            + " WHERE " + USER_FINGERPRINT + " = ? LIMIT 1";
+    private static final String UPDATE_USER = "UPDATE " + USERS_TABLE_NAME + " SET "
+            + USER_AVATAR + " = ?, " + USER_PSEUDO + " = ?, " + USER_DESCRIPTION + " = ?, "
+            + USER_TYPE + " = ?, " + USER_RELAY + " = ? WHERE " + USER_ID + " = ?";
+    private static final String RELATION_ID_BY_LINK = "SELECT " + RELATION_ID + " FROM " + RELATION_KEY_TABLE_NAME
+            + " WHERE " + USER_ID + " = ? AND " + RELATION_KEY_LINK + " = ? LIMIT 1";
+    private static final String UPDATE_RELATION = "UPDATE " + RELATION_KEY_TABLE_NAME + " SET "
+            + RELATION_TYPE + " = ?, " + RELATION_DESCRIPTION + " = ? WHERE " + RELATION_ID + " = ?";
+    private static final String REPLACE_USER = "UPDATE " + USERS_TABLE_NAME + " SET "
+            + USER_HASH + " = ?, " + USER_AVATAR + " = ?, " + USER_PSEUDO + " = ?, " + USER_DESCRIPTION + " = ?, "
+            + USER_TYPE + " = ?, " + USER_RELAY + " = ?, " + USER_FINGERPRINT + " = ? WHERE " + USER_ID + " = ?";
+    private static final String REPLACE_RELATION = "UPDATE " + RELATION_KEY_TABLE_NAME + " SET "
+            + USER_ID + " = ?, " + RELATION_KEY_LINK + " = ?, " + RELATION_DESCRIPTION + " = ?, "
+            + RELATION_TYPE + " = ? WHERE " + RELATION_ID + " = ?";
+    //</editor-fold>
+
+    //<editor-fold desc="CONTACT KEYS JOIN">
+    private static final String CRYPTO_SCHEMA = "crypto";
+    private static final String ATTACH_CRYPTO = "ATTACH DATABASE ? AS " + CRYPTO_SCHEMA;
+    private static final String JOURNAL_MODE_WAL = "wal";
+    /**
+     * Contacts of an user with their relations and public keys, ordered by user so the rows of a
+     * contact are contiguous. Users without relation come with null relation columns.
+     */
+    private static final String CONTACT_KEYS = "SELECT u." + USER_ID + ", u." + USER_HASH + ", u." + USER_AVATAR
+            + ", u." + USER_PSEUDO + ", u." + USER_DESCRIPTION + ", u." + USER_TYPE + ", u." + USER_RELAY
+            + ", r." + RELATION_ID + ", r." + RELATION_KEY_LINK + ", r." + RELATION_TYPE + ", r." + RELATION_DESCRIPTION
+            + ", k." + KeyStoreDataSource.DECRYPT_KEY_COLUMN + ", k." + KeyStoreDataSource.ALGORITHM_KEY_COLUMN
+            + " FROM " + USERS_TABLE_NAME + " u"
+            + " LEFT JOIN " + RELATION_KEY_TABLE_NAME + " r ON r." + USER_ID + " = u." + USER_ID
+            + " LEFT JOIN " + CRYPTO_SCHEMA + "." + KeyStoreDataSource.KEY_STORE_TABLE_NAME + " k ON k."
+            + CryptoStorageHelper.COLUMN_ID + " = r." + RELATION_KEY_LINK
+            + " WHERE u." + USER_RELAY + " = ? ORDER BY u." + USER_ID + ", r." + RELATION_ID;
+    //</editor-fold>
+
+    private final Context context;
     private final ParanoyaDBHelper dbHelper;
     private SQLiteDatabase database;
+    private SQLiteDatabase joinDatabase;
+    private SQLiteStatement insertUser;
+    private SQLiteStatement insertRelation;
+    private SQLiteStatement deleteUser;
+    private SQLiteStatement userIdByHash;
+    private SQLiteStatement updateUser;
+    private SQLiteStatement relationIdByLink;
+    private SQLiteStatement updateRelation;
+    private SQLiteStatement replaceUser;
+    private SQLiteStatement replaceRelation;
 
     //<editor-fold desc="Singleton Instance">
     private static ParanoyaUserSource instance;
 
     private ParanoyaUserSource(Context context) {
-        dbHelper = new ParanoyaDBHelper(context, USERS_STORE_DB_NAME, 1, this);
+        // The connection lives as long as the application, never hold an activity.
+        this.context = context.getApplicationContext();
+        dbHelper = new ParanoyaDBHelper(context.getApplicationContext(), USERS_STORE_DB_NAME, USERS_STORE_DB_VERSION, this);
     }
 
+    /**
+     * Open the connection, it stays open until {@link #close()}.
+     */
     public void initialization() {
         try {
             open();
-            close();
-        } catch (SQLException e) {
+        } catch (Exception e) {
             e.printStackTrace();
         }
     }
@@ -126,7 +221,7 @@ public class ParanoyaUserSource extends DBSource {
 
     @Override
     public int dbVersion() {
-        return 1;
+        return USERS_STORE_DB_VERSION;
     }
     //</editor-fold>
 
@@ -135,56 +230,329 @@ public class ParanoyaUserSource extends DBSource {
     public void onCreate(SQLiteDatabase db) {
         db.execSQL(CREATE_USER_TABLE);
         db.execSQL(CREATE_RELATION_TABLE);
+        for (String index : CREATE_INDEXES) {
+            db.execSQL(index);
+        }
     }
 
     @Override
     public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
-
+        if (oldVersion < 2) {
+            db.execSQL(ADD_FINGERPRINT_COLUMN);
+            fillFingerprints(db);
+            for (String index : CREATE_INDEXES) {
+                db.execSQL(index);
+            }
+        }
     }
     //</editor-fold>
 
-    //<editor-fold desc="Private Methods">
-    private void open() throws SQLException {
-        database = dbHelper.getWritableDatabase();
-    }
+    //<editor-fold desc="Connection">
 
-    private void close() {
+    /**
+     * Release the connection and its compiled statements, the next accessor call opens it again.
+     */
+    public synchronized void close() {
         if (database != null) {
-            database.close();
+            insertUser.close();
+            insertRelation.close();
+            deleteUser.close();
+            userIdByHash.close();
+            updateUser.close();
+            relationIdByLink.close();
+            updateRelation.close();
+            replaceUser.close();
+            replaceRelation.close();
             database = null;
         }
+        if (joinDatabase != null) {
+            joinDatabase.close();
+            joinDatabase = null;
+        }
         dbHelper.close();
     }
 
-    //<editor-fold desc="Converters">
-    private ContentValues keyRelationToContentValues(KeyRelation keyRelation) {
-        ContentValues values = new ContentValues();
-        values.put(USER_ID, keyRelation.getUserId());
-        values.put(RELATION_KEY_LINK, keyRelation.getKeyId());
-        values.put(RELATION_DESCRIPTION, keyRelation.getDescription());
-        values.put(RELATION_TYPE, keyRelation.getType());
-        return values;
-    }
-
-    private ContentValues userToContentValues(User user) {
-        ContentValues values = new ContentValues();
-        values.put(USER_HASH, DatabaseUtils.sqlEscapeString(user.getHash()));
-        values.put(USER_AVATAR, user.getAvatarUrl());
-        values.put(USER_PSEUDO, user.getPseudo());
-        values.put(USER_DESCRIPTION, user.getMessage());
-        values.put(USER_TYPE, user.getType());
-        values.put(USER_RELAY, user.getRelayId());
-        return values;
+    /**
+     * Long lived connection shared by all the accessors, the statements used on every insert and
+     * lookup are compiled once with it.
+     *
+     * @return {@link SQLiteDatabase} open instance.
+     */
+    private synchronized SQLiteDatabase open() {
+        if (database == null || !database.isOpen()) {
+            database = dbHelper.getWritableDatabase();
+            insertUser = database.compileStatement(INSERT_USER);
+            insertRelation = database.compileStatement(INSERT_RELATION);
+            deleteUser = database.compileStatement(DELETE_USER);
+            userIdByHash = database.compileStatement(USER_ID_BY_HASH);
+            updateUser = database.compileStatement(UPDATE_USER);
+            relationIdByLink = database.compileStatement(RELATION_ID_BY_LINK);
+            updateRelation = database.compileStatement(UPDATE_RELATION);
+            replaceUser = database.compileStatement(REPLACE_USER);
+            replaceRelation = database.compileStatement(REPLACE_RELATION);
+        }
+        return database;
+    }
+
+    /**
+     * Second connection to the user database with {@code crypto_storage.db} attached. Attaching on
+     * the main connection would make the framework disable its write-ahead logging, this one is
+     * only used by the contact keys join.
+     * <p/>
+     * The framework keeps a connection with attached databases out of write-ahead logging, so this
+     * one is opened without it and its pool holds a single connection, the one with the attach. The
+     * journal mode belongs to the file though: on open the framework asks to leave WAL, which
+     * SQLite refuses while the main connection is open in WAL. The main connection is opened first
+     * and the mode of the file is checked, and restored if it changed anyway.
+     *
+     * @return {@link SQLiteDatabase} open instance with the crypto schema attached.
+     */
+    private synchronized SQLiteDatabase openJoined() {
+        if (joinDatabase == null || !joinDatabase.isOpen()) {
+            // the main connection runs the migrations first and keeps the file in WAL
+            open();
+            File cryptoStorage = context.getDatabasePath(CryptoStorageHelper.STORAGE_NAME);
+            if (!cryptoStorage.exists()) {
+                throw new IllegalStateException("No crypto storage to attach");
+            }
+            SQLiteDatabase db = SQLiteDatabase.openDatabase(context.getDatabasePath(USERS_STORE_DB_NAME).getPath(),
+                    null, SQLiteDatabase.OPEN_READWRITE);
+            try {
+                keepWriteAheadLogging(db);
+                db.execSQL(ATTACH_CRYPTO, new Object[]{cryptoStorage.getPath()});
+            } catch (RuntimeException e) {
+                db.close();
+                throw e;
+            }
+            joinDatabase = db;
+        }
+        return joinDatabase;
+    }
+
+    /**
+     * Put the users database file back in WAL if opening {@code db} took it out.
+     */
+    private static void keepWriteAheadLogging(SQLiteDatabase db) {
+        String mode = DatabaseUtils.stringForQuery(db, "PRAGMA journal_mode", null);
+        if (!JOURNAL_MODE_WAL.equalsIgnoreCase(mode)) {
+            Log.w(TAG, "Users database left write-ahead logging (" + mode + "), switching it back");
+            mode = DatabaseUtils.stringForQuery(db, "PRAGMA journal_mode=" + JOURNAL_MODE_WAL, null);
+            if (!JOURNAL_MODE_WAL.equalsIgnoreCase(mode)) {
+                throw new IllegalStateException("Users database stuck in journal mode " + mode);
+            }
+        }
+    }
+    //</editor-fold>
+
+    //<editor-fold desc="Private Methods">
+
+    /**
+     * The hash is stored escaped, the lookups bind the same form.
+     */
+    private static String storedHash(String hash) {
+        return DatabaseUtils.sqlEscapeString(hash);
+    }
+
+    /**
+     * The hash is a full public key, the lookups go through its SHA-256 digest which has a fixed
+     * size and a unique index.
+     */
+    private static byte[] fingerprintOf(String hash) {
+        try {
+            return PrimitivePool.getMessageDigest("SHA-256").digest(hash.getBytes(UTF8));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Compute the fingerprint of the users stored before version 2. The users sharing a hash are
+     * merged into the oldest one, their relations are moved to it, so the unique index can be built.
+     * Runs inside the upgrade transaction.
+     */
+    private static void fillFingerprints(SQLiteDatabase db) {
+        SQLiteStatement lookup = db.compileStatement("SELECT " + USER_ID + " FROM " + USERS_TABLE_NAME
+                + " WHERE " + USER_FINGERPRINT + " = ? LIMIT 1");
+        SQLiteStatement update = db.compileStatement("UPDATE " + USERS_TABLE_NAME + " SET "
+                + USER_FINGERPRINT + " = ? WHERE " + USER_ID + " = ?");
+        SQLiteStatement moveRelations = db.compileStatement("UPDATE " + RELATION_KEY_TABLE_NAME + " SET "
+                + USER_ID + " = ? WHERE " + USER_ID + " = ?");
+        SQLiteStatement delete = db.compileStatement(DELETE_USER);
+        Cursor cursor = db.query(USERS_TABLE_NAME, new String[]{USER_ID, USER_HASH},
+                USER_HASH + " IS NOT NULL", null, null, null, USER_ID);
+        try {
+            while (cursor.moveToNext()) {
+                long id = cursor.getLong(0);
+                byte[] fingerprint = fingerprintOf(cursor.getString(1).replaceAll("'", ""));
+                lookup.bindBlob(1, fingerprint);
+                long existing = simpleQueryForId(lookup);
+                if (existing > -1) {
+                    moveRelations.bindLong(1, existing);
+                    moveRelations.bindLong(2, id);
+                    moveRelations.executeUpdateDelete();
+                    moveRelations.clearBindings();
+                    delete.bindLong(1, id);
+                    delete.executeUpdateDelete();
+                    delete.clearBindings();
+                } else {
+                    update.bindBlob(1, fingerprint);
+                    update.bindLong(2, id);
+                    update.executeUpdateDelete();
+                    update.clearBindings();
+                }
+            }
+        } finally {
+            cursor.close();
+            lookup.close();
+            update.close();
+            moveRelations.close();
+            delete.close();
+        }
+    }
+
+    private static void bindString(SQLiteStatement statement, int index, String value) {
+        if (value == null) {
+            statement.bindNull(index);
+        } else {
+            statement.bindString(index, value);
+        }
+    }
+
+    /**
+     * Insert the {@code user} with the compiled statement, the caller must hold its lock.
+     */
+    private void insertUser(User user) {
+        bindUser(insertUser, user);
+        user.setId(insertUser.executeInsert());
+        insertUser.clearBindings();
+    }
+
+    /**
+     * Overwrite every column of the row {@code id} with the {@code user}, the caller must hold the
+     * lock of {@link #insertUser}.
+     */
+    private void replaceUser(long id, User user) {
+        synchronized (replaceUser) {
+            bindUser(replaceUser, user);
+            replaceUser.bindLong(8, id);
+            replaceUser.executeUpdateDelete();
+            replaceUser.clearBindings();
+        }
+        user.setId(id);
+    }
+
+    /**
+     * Bind the columns of the {@code user} in the order of {@link #INSERT_USER} and
+     * {@link #REPLACE_USER}.
+     */
+    private static void bindUser(SQLiteStatement statement, User user) {
+        bindString(statement, 1, user.getHash() == null ? null : storedHash(user.getHash()));
+        bindString(statement, 2, user.getAvatarUrl());
+        bindString(statement, 3, user.getPseudo());
+        bindString(statement, 4, user.getMessage());
+        statement.bindLong(5, user.getType());
+        statement.bindLong(6, user.getRelayId());
+        if (user.getHash() == null || user.getHash().length() == 0) {
+            statement.bindNull(7);
+        } else {
+            statement.bindBlob(7, fingerprintOf(user.getHash()));
+        }
+    }
+
+    /**
+     * Insert the {@code keyRelation} with the compiled statement, the caller must hold its lock.
+     */
+    private void insertRelation(KeyRelation keyRelation) {
+        bindRelation(insertRelation, keyRelation);
+        keyRelation.setId(insertRelation.executeInsert());
+        insertRelation.clearBindings();
+    }
+
+    /**
+     * Overwrite every column of the row {@code id} with the {@code keyRelation}, the caller must
+     * hold the lock of {@link #insertRelation}.
+     */
+    private void replaceRelation(long id, KeyRelation keyRelation) {
+        synchronized (replaceRelation) {
+            bindRelation(replaceRelation, keyRelation);
+            replaceRelation.bindLong(5, id);
+            replaceRelation.executeUpdateDelete();
+            replaceRelation.clearBindings();
+        }
+        keyRelation.setId(id);
+    }
+
+    /**
+     * Bind the columns of the {@code keyRelation} in the order of {@link #INSERT_RELATION} and
+     * {@link #REPLACE_RELATION}.
+     */
+    private static void bindRelation(SQLiteStatement statement, KeyRelation keyRelation) {
+        statement.bindLong(1, keyRelation.getUserId());
+        statement.bindLong(2, keyRelation.getKeyId());
+        bindString(statement, 3, keyRelation.getDescription());
+        statement.bindLong(4, keyRelation.getType());
+    }
+
+    private static long simpleQueryForId(SQLiteStatement statement) {
+        try {
+            return statement.simpleQueryForLong();
+        } catch (SQLiteDoneException e) {
+            return -1;
+        } finally {
+            statement.clearBindings();
+        }
+    }
+
+    private List<User> queryUsers(String selection, String... args) {
+        return queryUserPage(selection, null, args);
+    }
+
+    /**
+     * @param limit LIMIT clause of the query, the users are ordered by id when it's set.
+     */
+    private List<User> queryUserPage(String selection, String limit, String... args) {
+        List<User> users = new ArrayList<>();
+        Cursor cursor = open().query(USERS_TABLE_NAME, ALL_USER_COLUMNS, selection, args, null, null,
+                limit == null ? null : USER_ID, limit);
+        try {
+            while (cursor.moveToNext()) {
+                User user = cursorToUser(cursor);
+                if (user != null) {
+                    users.add(user);
+                }
+            }
+        } finally {
+            cursor.close();
+        }
+        return users;
+    }
+
+    private List<KeyRelation> queryRelations(String selection, String... args) {
+        List<KeyRelation> keyRelations = new ArrayList<>();
+        Cursor cursor = open().query(RELATION_KEY_TABLE_NAME, ALL_RELATION_COLUMNS, selection, args, null, null, null);
+        try {
+            while (cursor.moveToNext()) {
+                KeyRelation keyRelation = cursorToKeyRelation(cursor);
+                if (keyRelation != null) {
+                    keyRelations.add(keyRelation);
+                }
+            }
+        } finally {
+            cursor.close();
+        }
+        return keyRelations;
     }
 
+    //<editor-fold desc="Converters">
     private User cursorToUser(Cursor cursor) {
         if (cursor == null || cursor.isNull(0)) {
             return null;
         }
         User user = null;
         try {
-            user = new User(cursor.getInt(0),
-                    cursor.getString(1).replaceAll("'", ""),
+            // users written without hash have none stored
+            user = new User(cursor.getLong(0),
+                    cursor.isNull(1) ? null : cursor.getString(1).replaceAll("'", ""),
                     cursor.getString(2),
                     cursor.getString(3),
                     cursor.getString(4),
@@ -196,6 +564,23 @@ public class ParanoyaUserSource extends DBSource {
         return user;
     }
 
+    /**
+     * Parse the public key of a {@link #CONTACT_KEYS} row, the parsed keys are interned by
+     * {@link Crypto#StringToPublicKey(String, String)}.
+     */
+    private PublicKey cursorToPublicKey(Cursor cursor) {
+        if (cursor.isNull(11)) {
+            return null;
+        }
+        String algorithm = cursor.isNull(12) ? KeySet.ALGORITHM_RSA : cursor.getString(12);
+        try {
+            return Crypto.StringToPublicKey(cursor.getString(11).replaceAll("'", ""), algorithm);
+        } catch (GeneralSecurityException e) {
+            e.printStackTrace();
+        }
+        return null;
+    }
+
     private KeyRelation cursorToKeyRelation(Cursor cursor) {
         if (cursor == null || cursor.isNull(0)) {
             return null;
@@ -222,26 +607,89 @@ public class ParanoyaUserSource extends DBSource {
      * @param userId {@link Long} unique identifier of the user.
      */
     public List<User> getContactsList(long userId) {
-        List<User> result = new ArrayList<>();
         try {
-            open();
-//            String query = "SELECT * FROM " + USERS_TABLE_NAME + " u INNER JOIN " + RELATION_KEY_TABLE_NAME + " r " +
-//                    "ON u." + USER_ID + "=" + "r." + USER_ID + " WHERE u." + USER_TYPE + " !=? AND u." + USER_ID + " !=?";
-//            Cursor cursor = database.rawQuery(query, new String[]{String.valueOf(1), String.valueOf(userId)});
-            Cursor cursor = database.query(USERS_TABLE_NAME, ALL_USER_COLUMNS, USER_RELAY + " =  " + userId, null, null, null, null);
-            cursor.moveToFirst();
-            while (!cursor.isAfterLast()) {
-                result.add(cursorToUser(cursor));
-                cursor.moveToNext();
+            return queryUsers(USER_RELAY + " = ?", String.valueOf(userId));
+        } catch (Exception ex) {
+            Log.e(TAG, "Exception during getContactsList");
+            ex.printStackTrace();
+        }
+        return new ArrayList<>();
+    }
+
+    /**
+     * Read the contacts of an user with their {@link KeyRelation} and parsed public keys in a single
+     * join across the user and crypto databases. Each {@link Contact} is handed to the
+     * {@code visitor} as soon as its last row is read. A row that can't be read is logged and
+     * skipped, the user row skips its whole contact, a relation row only that key.
+     *
+     * @param userId  {@link Long} unique identifier of the user.
+     * @param visitor {@link IContactVisitor} receiving the contacts.
+     * @return number of contacts read.
+     */
+    public int visitContactsWithKeys(long userId, IContactVisitor visitor) {
+        int count = 0;
+        Cursor cursor = openJoined().rawQuery(CONTACT_KEYS, new String[]{String.valueOf(userId)});
+        try {
+            Contact contact = null;
+            long skipped = -1;
+            while (cursor.moveToNext()) {
+                long id = cursor.getLong(0);
+                if (contact != null && contact.getUser().getId() != id) {
+                    visitor.onContact(contact);
+                    count++;
+                    contact = null;
+                }
+                if (contact == null) {
+                    if (id == skipped) {
+                        continue;
+                    }
+                    User user = cursorToUser(cursor);
+                    if (user == null) {
+                        Log.w(TAG, "Unreadable user " + id + ", contact skipped");
+                        skipped = id;
+                        continue;
+                    }
+                    contact = new Contact(user);
+                }
+                if (!cursor.isNull(7)) {
+                    try {
+                        KeyRelation keyRelation = new KeyRelation(cursor.getLong(7), id, cursor.getLong(8),
+                                cursor.getInt(9), cursor.getString(10));
+                        contact.addKey(keyRelation, cursorToPublicKey(cursor));
+                    } catch (RuntimeException e) {
+                        Log.w(TAG, "Unreadable key relation of user " + id + ", skipped", e);
+                    }
+                }
             }
+            if (contact != null) {
+                visitor.onContact(contact);
+                count++;
+            }
+        } finally {
             cursor.close();
-            close();
+        }
+        return count;
+    }
 
+    /**
+     * @param userId {@link Long} unique identifier of the user.
+     * @return a {@link List} of {@link Contact}, see {@link #visitContactsWithKeys(long, IContactVisitor)}.
+     * If a error happen the list will be empty.
+     */
+    public List<Contact> getContactsWithKeys(long userId) {
+        final List<Contact> contacts = new ArrayList<>();
+        try {
+            visitContactsWithKeys(userId, new IContactVisitor() {
+                @Override
+                public void onContact(Contact contact) {
+                    contacts.add(contact);
+                }
+            });
         } catch (Exception ex) {
-            Log.e(TAG, "Exception during getContactsList");
+            Log.e(TAG, "Exception during getContactsWithKeys");
             ex.printStackTrace();
         }
-        return result;
+        return contacts;
     }
 
     /**
@@ -253,17 +701,15 @@ public class ParanoyaUserSource extends DBSource {
     public List<Long> getKeysByUserId(long userId) {
         List<Long> ids = new ArrayList<>();
         try {
-            open();
-            Cursor cursor = database.query(RELATION_KEY_TABLE_NAME, ALL_RELATION_COLUMNS, USER_ID + " = " + userId, null, null, null, null);
-            cursor.moveToFirst();
-            while (!cursor.isAfterLast()) {
-                KeyRelation keyRelation = cursorToKeyRelation(cursor);
-                ids.add(keyRelation.getKeyId());
-                cursor.moveToNext();
+            Cursor cursor = open().query(RELATION_KEY_TABLE_NAME, new String[]{RELATION_KEY_LINK}, USER_ID + " = ?",
+                    new String[]{String.valueOf(userId)}, null, null, null);
+            try {
+                while (cursor.moveToNext()) {
+                    ids.add(cursor.getLong(0));
+                }
+            } finally {
+                cursor.close();
             }
-            cursor.close();
-            close();
-
         } catch (Exception ex) {
             ex.printStackTrace();
         }
@@ -276,24 +722,57 @@ public class ParanoyaUserSource extends DBSource {
      * @return a {@link List} of {@link User} instances. If a error happen the list will be empty.
      */
     public List<User> getAllUsers() {
-        List<User> users = new ArrayList<>();
         try {
-            open();
-            Cursor cursor = database.query(USERS_TABLE_NAME, ALL_USER_COLUMNS, null, null, null, null, null);
-            cursor.moveToFirst();
-            while (!cursor.isAfterLast()) {
-                User user = cursorToUser(cursor);
-                if (user != null) {
-                    users.add(user);
-                }
-                cursor.moveToNext();
-            }
-            cursor.close();
-            close();
+            return queryUsers(null);
         } catch (Exception e) {
             e.printStackTrace();
         }
-        return users;
+        return new ArrayList<>();
+    }
+
+    /**
+     * Keyset pagination on the id, the page starts right after {@code afterId} whatever the number
+     * of rows before it.
+     *
+     * @param afterId id of the last {@link User} of the previous page, -1 for the first page.
+     * @param limit   maximum number of {@link User} in the page.
+     * @return a {@link List} of {@link User} ordered by id. If a error happen the list will be empty.
+     */
+    public List<User> getUsersPage(long afterId, int limit) {
+        try {
+            return queryUserPage(USER_ID + " > ?", String.valueOf(limit), String.valueOf(afterId));
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+        return new ArrayList<>();
+    }
+
+    /**
+     * Page at a position, used when the id before the page is unknown (e.g. a fast scroll).
+     *
+     * @param offset position of the first {@link User} of the page.
+     * @param limit  maximum number of {@link User} in the page.
+     * @return a {@link List} of {@link User} ordered by id. If a error happen the list will be empty.
+     */
+    public List<User> getUsersPageAt(int offset, int limit) {
+        try {
+            return queryUserPage(null, offset + "," + limit);
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+        return new ArrayList<>();
+    }
+
+    /**
+     * @return number of {@link User} in the database.
+     */
+    public long getUsersCount() {
+        try {
+            return DatabaseUtils.queryNumEntries(open(), USERS_TABLE_NAME);
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+        return 0;
     }
 
     /**
@@ -302,24 +781,12 @@ public class ParanoyaUserSource extends DBSource {
      * @return a {@link List} of {@link KeyRelation} instances. If a error happen the list will be empty.
      */
     public List<KeyRelation> getAllRelations() {
-        List<KeyRelation> keyRelations = new ArrayList<>();
         try {
-            open();
-            Cursor cursor = database.query(RELATION_KEY_TABLE_NAME, ALL_RELATION_COLUMNS, null, null, null, null, null);
-            cursor.moveToFirst();
-            while (!cursor.isAfterLast()) {
-                KeyRelation keyRelation = cursorToKeyRelation(cursor);
-                if (keyRelation != null) {
-                    keyRelations.add(keyRelation);
-                }
-                cursor.moveToNext();
-            }
-            cursor.close();
-            close();
+            return queryRelations(null);
         } catch (Exception e) {
             e.printStackTrace();
         }
-        return keyRelations;
+        return new ArrayList<>();
     }
 
     /**
@@ -330,24 +797,12 @@ public class ParanoyaUserSource extends DBSource {
      * @return a {@link List} of {@link KeyRelation} instances. If a error happen the list will be empty.
      */
     public List<KeyRelation> getAllKeyRelationByUserId(long userId) {
-        List<KeyRelation> keyRelations = new ArrayList<>();
         try {
-            open();
-            Cursor cursor = database.query(RELATION_KEY_TABLE_NAME, ALL_RELATION_COLUMNS, USER_ID + " = " + userId, null, null, null, null);
-            cursor.moveToFirst();
-            while (!cursor.isAfterLast()) {
-                KeyRelation keyRelation = cursorToKeyRelation(cursor);
-                if (keyRelation != null) {
-                    keyRelations.add(keyRelation);
-                }
-                cursor.moveToNext();
-            }
-            cursor.close();
-            close();
+            return queryRelations(USER_ID + " = ?", String.valueOf(userId));
         } catch (Exception e) {
             e.printStackTrace();
         }
-        return keyRelations;
+        return new ArrayList<>();
     }
 
     /**
@@ -360,18 +815,15 @@ public class ParanoyaUserSource extends DBSource {
      */
     public User addUser(User user) {
         if (user != null) {
-            if (user.getHash() != null && user.getHash().length() > 0) {
-                User u = getUserByHash(user.getHash());
-                if (u != null) {
+            try {
+                open();
+                if (user.getHash() != null && user.getHash().length() > 0 && getUserIdByHash(user.getHash()) > -1) {
                     Log.e(TAG, "User already exist");
                     return user;
                 }
-            }
-            try {
-                open();
-                long insertId = database.insert(USERS_TABLE_NAME, null, userToContentValues(user));
-                user.setId(insertId);
-                close();
+                synchronized (insertUser) {
+                    insertUser(user);
+                }
             } catch (Exception e) {
                 e.printStackTrace();
             }
@@ -384,51 +836,44 @@ public class ParanoyaUserSource extends DBSource {
      * @return
      */
     public User getUserById(long id) {
-        List<User> users = new ArrayList<>();
         try {
-            open();
-            Cursor cursor = database.query(USERS_TABLE_NAME, ALL_USER_COLUMNS, USER_ID + " = " + id, null, null, null, null);
-            cursor.moveToFirst();
-            while (!cursor.isAfterLast()) {
-                User user = cursorToUser(cursor);
-                if (user != null) {
-                    users.add(user);
-                }
-                cursor.moveToNext();
-            }
-            cursor.close();
-            close();
+            List<User> users = queryUsers(USER_ID + " = ?", String.valueOf(id));
+            return users.size() > 0 ? users.get(0) : null;
         } catch (Exception e) {
             e.printStackTrace();
         }
-        return users.size() > 0 ? users.get(0) : null;
+        return null;
     }
 
     /**
-     * Accessor to retrieve an {@link User} instance using the {@link User#getHash()} value.
+     * Lookup of the id of an {@link User} through a compiled statement, no row is materialized.
+     *
+     * @param hash unique value to identify an user.
+     * @return id of the user or -1 if the hash is unknown.
+     */
+    public long getUserIdByHash(String hash) {
+        open();
+        synchronized (userIdByHash) {
+            userIdByHash.bindBlob(1, fingerprintOf(hash));
+            return simpleQueryForId(userIdByHash);
+        }
+    }
+
+    /**
+     * Accessor to retrieve an {@link User} instance using the {@link User#getHash()} value, the
+     * lookup goes through the unique index of its fingerprint.
      *
      * @param hash unique value to identify an user.
      * @return {@link User} instance parse from the storage.
      */
     public User getUserByHash(String hash) {
-        List<User> users = new ArrayList<>();
         try {
-            open();
-            Cursor cursor = database.query(USERS_TABLE_NAME, ALL_USER_COLUMNS, USER_HASH + " = " + DatabaseUtils.sqlEscapeString(hash), null, null, null, null);
-            cursor.moveToFirst();
-            while (!cursor.isAfterLast()) {
-                User user = cursorToUser(cursor);
-                if (user != null) {
-                    users.add(user);
-                }
-                cursor.moveToNext();
-            }
-            cursor.close();
-            close();
+            long id = getUserIdByHash(hash);
+            return id > -1 ? getUserById(id) : null;
         } catch (Exception e) {
             e.printStackTrace();
         }
-        return users.size() > 0 ? users.get(0) : null;
+        return null;
     }
 
     /**
@@ -438,24 +883,12 @@ public class ParanoyaUserSource extends DBSource {
      * @return {@link List<User>} instance parse from the storage.
      */
     public List<User> getUsersByType(int type) {
-        List<User> users = new ArrayList<>();
         try {
-            open();
-            Cursor cursor = database.query(USERS_TABLE_NAME, ALL_USER_COLUMNS, USER_TYPE + " = " + type, null, null, null, null);
-            cursor.moveToFirst();
-            while (!cursor.isAfterLast()) {
-                User user = cursorToUser(cursor);
-                if (user != null) {
-                    users.add(user);
-                }
-                cursor.moveToNext();
-            }
-            cursor.close();
-            close();
+            return queryUsers(USER_TYPE + " = ?", String.valueOf(type));
         } catch (Exception e) {
             e.printStackTrace();
         }
-        return users;
+        return new ArrayList<>();
     }
 
     /**
@@ -467,8 +900,11 @@ public class ParanoyaUserSource extends DBSource {
         if (user != null && user.getId() > -1) {
             try {
                 open();
-                database.delete(USERS_TABLE_NAME, USER_ID + " = " + user.getId(), null);
-                close();
+                synchronized (deleteUser) {
+                    deleteUser.bindLong(1, user.getId());
+                    deleteUser.executeUpdateDelete();
+                    deleteUser.clearBindings();
+                }
             } catch (Exception e) {
                 e.printStackTrace();
             }
@@ -485,13 +921,154 @@ public class ParanoyaUserSource extends DBSource {
         }
         try {
             open();
-            long insertId = database.insert(RELATION_KEY_TABLE_NAME, null, keyRelationToContentValues(keyRelation));
-            keyRelation.setId(insertId);
-            close();
+            synchronized (insertRelation) {
+                insertRelation(keyRelation);
+            }
         } catch (Exception e) {
             e.printStackTrace();
         }
         return keyRelation;
     }
+
+    /**
+     * Insert many {@link User} in a single transaction with the compiled statements. A user already
+     * stored is recognized by its {@link User#getHash()} and handled according to {@code mode}, the
+     * users without hash are always inserted. The id of each user is updated, and restored if the
+     * transaction fails.
+     *
+     * @param users {@link Collection} of {@link User} to write.
+     * @param mode  {@link ConflictMode} applied to the users already stored.
+     * @return number of rows inserted or updated, 0 if the transaction failed.
+     */
+    public int addUsers(Collection<User> users, ConflictMode mode) {
+        int written = 0;
+        long[] ids = new long[users.size()];
+        int index = 0;
+        for (User user : users) {
+            ids[index++] = user.getId();
+        }
+        try {
+            SQLiteDatabase db = open();
+            // The monitor is taken before the transaction holds the primary connection, in the
+            // order of the single row writes which wait for that connection holding it.
+            synchronized (insertUser) {
+                db.beginTransactionNonExclusive();
+                try {
+                    for (User user : users) {
+                        long existing = user.getHash() != null && user.getHash().length() > 0
+                                ? getUserIdByHash(user.getHash()) : -1;
+                        if (existing > -1) {
+                            if (mode == ConflictMode.IGNORE) {
+                                user.setId(existing);
+                                continue;
+                            }
+                            if (mode == ConflictMode.UPDATE_ON_HASH) {
+                                synchronized (updateUser) {
+                                    bindString(updateUser, 1, user.getAvatarUrl());
+                                    bindString(updateUser, 2, user.getPseudo());
+                                    bindString(updateUser, 3, user.getMessage());
+                                    updateUser.bindLong(4, user.getType());
+                                    updateUser.bindLong(5, user.getRelayId());
+                                    updateUser.bindLong(6, existing);
+                                    updateUser.executeUpdateDelete();
+                                    updateUser.clearBindings();
+                                }
+                                user.setId(existing);
+                                written++;
+                                continue;
+                            }
+                            replaceUser(existing, user);
+                        } else {
+                            insertUser(user);
+                        }
+                        written++;
+                    }
+                    db.setTransactionSuccessful();
+                } finally {
+                    db.endTransaction();
+                }
+            }
+        } catch (Exception e) {
+            e.printStackTrace();
+            // The rows were rolled back, so are the ids.
+            index = 0;
+            for (User user : users) {
+                user.setId(ids[index++]);
+            }
+            return 0;
+        }
+        return written;
+    }
+
+    /**
+     * Insert many {@link KeyRelation} in a single transaction with the compiled statements. A
+     * relation already stored is recognized by its user and key ids and handled according to
+     * {@code mode}, {@link ConflictMode#UPDATE_ON_HASH} updates its type and description. The id of
+     * each relation is updated, and restored if the transaction fails.
+     *
+     * @param keyRelations {@link Collection} of {@link KeyRelation} to write.
+     * @param mode         {@link ConflictMode} applied to the relations already stored.
+     * @return number of rows inserted or updated, 0 if the transaction failed.
+     */
+    public int addRelations(Collection<KeyRelation> keyRelations, ConflictMode mode) {
+        int written = 0;
+        long[] ids = new long[keyRelations.size()];
+        int index = 0;
+        for (KeyRelation keyRelation : keyRelations) {
+            ids[index++] = keyRelation.getId();
+        }
+        try {
+            SQLiteDatabase db = open();
+            // The monitor is taken before the transaction holds the primary connection, in the
+            // order of the single row writes which wait for that connection holding it.
+            synchronized (insertRelation) {
+                db.beginTransactionNonExclusive();
+                try {
+                    for (KeyRelation keyRelation : keyRelations) {
+                        long existing;
+                        synchronized (relationIdByLink) {
+                            relationIdByLink.bindLong(1, keyRelation.getUserId());
+                            relationIdByLink.bindLong(2, keyRelation.getKeyId());
+                            existing = simpleQueryForId(relationIdByLink);
+                        }
+                        if (existing > -1) {
+                            if (mode == ConflictMode.IGNORE) {
+                                keyRelation.setId(existing);
+                                continue;
+                            }
+                            if (mode == ConflictMode.UPDATE_ON_HASH) {
+                                synchronized (updateRelation) {
+                                    updateRelation.bindLong(1, keyRelation.getType());
+                                    bindString(updateRelation, 2, keyRelation.getDescription());
+                                    updateRelation.bindLong(3, existing);
+                                    updateRelation.executeUpdateDelete();
+                                    updateRelation.clearBindings();
+                                }
+                                keyRelation.setId(existing);
+                                written++;
+                                continue;
+                            }
+                            replaceRelation(existing, keyRelation);
+                        } else {
+                            insertRelation(keyRelation);
+                        }
+                        written++;
+                    }
+                    db.setTransactionSuccessful();
+                } finally {
+                    db.endTransaction();
+                }
+            }
+        } catch (Exception e) {
+            e.printStackTrace();
+            // The rows were rolled back, so are the ids.
+            index = 0;
+            for (KeyRelation keyRelation : keyRelations) {
+                keyRelation.setId(ids[index++]);
+            }
+            return 0;
+        }
+        return written;
+    }
     //</editor-fold>
 }
@@ -0,0 +1,171 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015. Pierre Teyssedre
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package ca.teyssedre.paranoya.utils;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Default {@link IExecutorLanes} implementation.
+ * <p/>
+ * The message lane is striped over single thread executors, a peer always hashes on the same
+ * stripe which keeps its messages ordered while different peers are handled in parallel. The crypto
+ * lane is a fixed pool with a bounded queue, when full the task is handed to the IO lane. The
+ * submitting thread never runs the task itself, it may be the UI thread. The IO lane is a single
+ * thread.
+ */
+public class ExecutorLanes implements IExecutorLanes {
+
+    private static final int CRYPTO_QUEUE_CAPACITY = 256;
+
+    private final ThreadPoolExecutor[] messageStripes;
+    private final ThreadPoolExecutor crypto;
+    private final ThreadPoolExecutor io;
+
+    public ExecutorLanes() {
+        this(Runtime.getRuntime().availableProcessors(), Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * @param stripes       number of threads handling the inbound messages.
+     * @param cryptoThreads number of threads running the crypto tasks.
+     */
+    public ExecutorLanes(int stripes, int cryptoThreads) {
+        if (stripes < 1 || cryptoThreads < 1) {
+            throw new IllegalArgumentException("Lanes need at least one thread");
+        }
+        this.messageStripes = new ThreadPoolExecutor[stripes];
+        for (int i = 0; i < stripes; i++) {
+            messageStripes[i] = SingleThread("paranoya-message-" + i);
+        }
+        this.io = SingleThread("paranoya-io");
+        this.crypto = new ThreadPoolExecutor(cryptoThreads, cryptoThreads, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<Runnable>(CRYPTO_QUEUE_CAPACITY), new LaneThreadFactory("paranoya-crypto"),
+                new HandOffPolicy(io));
+    }
+
+    //region IExecutorLanes
+
+    @Override
+    public Executor getMessageLane(String key) {
+        if (key == null) {
+            return messageStripes[0];
+        }
+        int hash = key.hashCode();
+        hash ^= (hash >>> 16);
+        return messageStripes[(hash & 0x7fffffff) % messageStripes.length];
+    }
+
+    @Override
+    public Executor getCryptoLane() {
+        return crypto;
+    }
+
+    @Override
+    public Executor getIOLane() {
+        return io;
+    }
+
+    @Override
+    public int getQueueDepth(Lane lane) {
+        switch (lane) {
+            case MESSAGE:
+                int depth = 0;
+                for (ThreadPoolExecutor stripe : messageStripes) {
+                    depth += stripe.getQueue().size();
+                }
+                return depth;
+            case CRYPTO:
+                return crypto.getQueue().size();
+            case IO:
+                return io.getQueue().size();
+            default:
+                return 0;
+        }
+    }
+
+    @Override
+    public void Shutdown() {
+        for (ThreadPoolExecutor stripe : messageStripes) {
+            stripe.shutdownNow();
+        }
+        crypto.shutdownNow();
+        io.shutdownNow();
+    }
+    //endregion
+
+    private static ThreadPoolExecutor SingleThread(String name) {
+        return new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>(),
+                new LaneThreadFactory(name));
+    }
+
+    /**
+     * Run the tasks rejected by a full lane on the {@code overflow} executor, the IO lane whose
+     * writes follow the crypto work anyway. Once the lane is shut down the task is rejected.
+     */
+    private static class HandOffPolicy implements RejectedExecutionHandler {
+
+        private final Executor overflow;
+
+        HandOffPolicy(Executor overflow) {
+            this.overflow = overflow;
+        }
+
+        @Override
+        public void rejectedExecution(Runnable r, ThreadPoolExecutor executor) {
+            if (executor.isShutdown()) {
+                throw new RejectedExecutionException("Lane shut down");
+            }
+            overflow.execute(r);
+        }
+    }
+
+    /**
+     * Name the threads of a lane and mark them as daemon so they never hold the process.
+     */
+    private static class LaneThreadFactory implements ThreadFactory {
+
+        private final String name;
+        private final AtomicInteger count = new AtomicInteger();
+
+        LaneThreadFactory(String name) {
+            this.name = name;
+        }
+
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, name + "#" + count.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
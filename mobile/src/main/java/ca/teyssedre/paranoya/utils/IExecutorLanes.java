@@ -0,0 +1,75 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015. Pierre Teyssedre
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package ca.teyssedre.paranoya.utils;
+
+import java.util.concurrent.Executor;
+
+/**
+ * Set of executors used by the {@link SocketClient} to split its work by nature:
+ * <ul>
+ * <li>{@link Lane#MESSAGE}: inbound messages, ordered per peer,</li>
+ * <li>{@link Lane#CRYPTO}: CPU bound work such as signature validation, run in parallel,</li>
+ * <li>{@link Lane#IO}: outbound writes and connection calls, run one at a time.</li>
+ * </ul>
+ */
+public interface IExecutorLanes {
+
+    enum Lane {
+        MESSAGE,
+        CRYPTO,
+        IO
+    }
+
+    /**
+     * Executor running the tasks of the same {@code key} in submission order.
+     *
+     * @param key {@link String} identifier of the peer, null for the system messages.
+     * @return {@link Executor} instance bound to the {@code key}.
+     */
+    Executor getMessageLane(String key);
+
+    /**
+     * @return {@link Executor} instance running CPU bound tasks in parallel.
+     */
+    Executor getCryptoLane();
+
+    /**
+     * @return {@link Executor} instance running the writes one at a time.
+     */
+    Executor getIOLane();
+
+    /**
+     * Number of tasks waiting to be executed on the {@code lane}.
+     *
+     * @param lane {@link Lane} to inspect.
+     * @return number of pending tasks.
+     */
+    int getQueueDepth(Lane lane);
+
+    /**
+     * Stop every lane, pending tasks are discarded.
+     */
+    void Shutdown();
+}
@@ -30,6 +30,7 @@ import java.util.List;
 
 import ca.teyssedre.crypto.Crypto;
 import ca.teyssedre.crypto.store.models.KeySet;
+import ca.teyssedre.paranoya.messaging.data.Contact;
 import ca.teyssedre.paranoya.messaging.data.User;
 import ca.teyssedre.paranoya.store.sources.ParanoyaUserSource;
 
@@ -41,6 +42,7 @@ public class IdentityHelper {
 
     User currentUser;
     List<User> contacts;
+    List<Contact> contactKeys;
     KeySet userIdentityKeySet;
 
     public IdentityHelper(Crypto crypto, ParanoyaUserSource userSource) {
@@ -72,6 +74,16 @@ public class IdentityHelper {
         return contacts;
     }
 
+    /**
+     * Contacts of the current user with their relations and public keys, read in a single query.
+     */
+    public List<Contact> getCurrentUserContactsWithKeys() {
+        if (getCurrentUser() != null) {
+            contactKeys = userSource.getContactsWithKeys(getCurrentUser().getId());
+        }
+        return contactKeys;
+    }
+
     public KeySet getIdentityKey() {
         if (userIdentityKeySet == null) {
             if (getCurrentUser() != null) {
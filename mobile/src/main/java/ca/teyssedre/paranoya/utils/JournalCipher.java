@@ -0,0 +1,85 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015. Pierre Teyssedre
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package ca.teyssedre.paranoya.utils;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.security.GeneralSecurityException;
+
+import javax.crypto.SecretKey;
+
+import ca.teyssedre.crypto.Crypto;
+import ca.teyssedre.wsservice.contract.IJournalCipher;
+
+/**
+ * {@link IJournalCipher} sealing the outbound queue journal with AES-GCM. The key is generated on
+ * the first use and kept in the private preferences of the application, next to the key store of
+ * the identity keys, so the journal is never written in clear on the storage.
+ */
+public class JournalCipher implements IJournalCipher {
+
+    private static final String PREFERENCES = "paranoya_journal";
+    private static final String KEY_PREFERENCE = "key";
+    private static final int KEY_LENGTH = 256;
+    private static final byte[] AAD = "paranoya-outbound-queue".getBytes(Charset.forName("UTF-8"));
+
+    private final SecretKey key;
+
+    /**
+     * @param context {@link Context} of the application holding the key.
+     * @throws GeneralSecurityException if no key can be generated.
+     */
+    public JournalCipher(Context context) throws GeneralSecurityException {
+        SharedPreferences preferences = context.getSharedPreferences(PREFERENCES, Context.MODE_PRIVATE);
+        String stored = preferences.getString(KEY_PREFERENCE, null);
+        if (stored != null) {
+            key = Crypto.StringToAESKey(stored);
+        } else {
+            key = Crypto.GenerateAESSecretKey(KEY_LENGTH);
+            preferences.edit().putString(KEY_PREFERENCE, Crypto.SecretKeyToString(key)).commit();
+        }
+    }
+
+    @Override
+    public byte[] Seal(byte[] data) throws IOException {
+        try {
+            return Crypto.EncryptWithAESGCM(key, data, AAD);
+        } catch (GeneralSecurityException e) {
+            throw new IOException("Journal record can't be sealed", e);
+        }
+    }
+
+    @Override
+    public byte[] Open(byte[] sealed) throws IOException {
+        try {
+            return Crypto.DecryptWithAESGCM(key, sealed, AAD);
+        } catch (GeneralSecurityException e) {
+            throw new IOException("Journal record can't be opened", e);
+        }
+    }
+}
@@ -25,15 +25,6 @@ package ca.teyssedre.paranoya.utils;
 
 import android.util.Log;
 
-import com.fasterxml.jackson.annotation.JsonInclude;
-import com.fasterxml.jackson.core.type.TypeReference;
-import com.fasterxml.jackson.databind.DeserializationFeature;
-import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.databind.SerializationFeature;
-
-import org.json.JSONException;
-import org.json.JSONObject;
-
 import java.io.IOException;
 import java.security.GeneralSecurityException;
 import java.security.InvalidKeyException;
@@ -41,43 +32,58 @@ import java.security.NoSuchAlgorithmException;
 import java.security.NoSuchProviderException;
 import java.security.PublicKey;
 import java.security.SignatureException;
+import java.util.concurrent.Executor;
 
 import ca.teyssedre.crypto.Crypto;
+import ca.teyssedre.crypto.SessionEnvelope;
 import ca.teyssedre.crypto.store.models.KeySet;
+import ca.teyssedre.paranoya.messaging.MessageCodec;
+import ca.teyssedre.paranoya.messaging.SocketFrame;
 import ca.teyssedre.paranoya.messaging.SocketMessage;
 import ca.teyssedre.paranoya.messaging.data.KeyMessage;
 import ca.teyssedre.paranoya.messaging.data.User;
-import ca.teyssedre.paranoya.messaging.enums.SocketMessageType;
 
 public class PMessageLogic {
 
     public static final String TAG = "PMessageLogic";
 
-    private final ObjectMapper mapper;
-    private PublicKey serverPublicKey;
+    private final MessageCodec codec;
+    private final Executor cryptoExecutor;
+    private final SessionEnvelope envelopes;
+    // Written on the message lane, read by the validations on the crypto lane.
+    private volatile PublicKey serverPublicKey;
     private KeySet currentUserKeySet;
 
-    public PMessageLogic() {
-        this.mapper = new ObjectMapper();
-        this.mapper.setSerializationInclusion(JsonInclude.Include.NON_NULL);
-        this.mapper.configure(SerializationFeature.FAIL_ON_EMPTY_BEANS, false);
-        this.mapper.configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+    /**
+     * @param cryptoExecutor {@link Executor} running the signature validations, away from the
+     *                       thread handling the messages.
+     * @param envelopes      {@link SessionEnvelope} holding the session keys of the peers.
+     */
+    public PMessageLogic(Executor cryptoExecutor, SessionEnvelope envelopes) {
+        this.codec = MessageCodec.getInstance();
+        this.cryptoExecutor = cryptoExecutor;
+        this.envelopes = envelopes;
     }
 
     public void OnMessage(String message) {
-        SocketMessageType type = SocketMessage.parseType(message);
-        switch (type) {
-            case KeyExchange:
-                SocketMessage<KeyMessage> msg = null;
-                try {
-                    msg = mapper.readValue(message, new TypeReference<SocketMessage<KeyMessage>>() {
-                    });
+        try {
+            OnMessage(codec.decode(message));
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    public void OnMessage(SocketFrame frame) {
+        try {
+            switch (frame.getType()) {
+                case KeyExchange:
+                    SocketMessage<KeyMessage> msg = frame.toMessage(KeyMessage.class);
                     if (msg.getData() != null) {
                         if (msg.getData().isSystem()) {
                             try {
                                 serverPublicKey = Crypto.StringToPublicKey(msg.getData().getKey().getPublicKey());
                                 Log.d(TAG, "Server key found ");
-                                validateDataWithKey(message, serverPublicKey);
+                                validateDataWithKeyAsync(frame, serverPublicKey);
                             } catch (GeneralSecurityException e) {
                                 e.printStackTrace();
                             }
@@ -90,41 +96,55 @@ public class PMessageLogic {
                             msg.getOrigin();
                         }
                     }
-                } catch (IOException e) {
-                    e.printStackTrace();
-                }
-
-                break;
-            case OnlineStatus:
-                SocketMessage<User> parsed = SocketMessage.parse(message);
-                Log.d(TAG, "New user status " + parsed.getData());
-                break;
-
-            case KeyValidation:
-                //TODO: Prompt
-                SocketMessage.parse(message);
-                break;
-            case DataText:
-                break;
-            default:
-                Log.e(TAG, "Message type not recognized");
-                break;
+                    break;
+                case OnlineStatus:
+                    SocketMessage<User> parsed = frame.toMessage(User.class);
+                    Log.d(TAG, "New user status " + parsed.getData());
+                    break;
+
+                case KeyValidation:
+                    //TODO: Prompt
+                    frame.toMessage(MessageCodec.dataTypeOf(frame.getType()));
+                    break;
+                case DataText:
+                case DataBinary:
+                    openDataAsync(frame);
+                    break;
+                default:
+                    Log.e(TAG, "Message type not recognized");
+                    break;
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
         }
     }
 
-    private void validateDataWithKey(String message, PublicKey serverKey) {
+    private void validateDataWithKeyAsync(final SocketFrame frame, final PublicKey serverKey) {
+        cryptoExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                validateDataWithKey(frame, serverKey);
+            }
+        });
+    }
+
+    private void validateDataWithKey(SocketFrame frame, PublicKey serverKey) {
         try {
-            JSONObject parsed = new JSONObject(message);
-            if (parsed.has("data") && parsed.has("signature")) {
-                String data = parsed.getJSONObject("data").toString();
-                String signature = parsed.getString("signature");
+            if (frame.hasData() && frame.getSignature() != null) {
+                byte[] data = frame.getRawData();
+                if (data == null) {
+                    // the signature is over the JSON text, a binary frame can't be checked
+                    Log.e(TAG, "signed message not received as JSON, rejected");
+                    return;
+                }
+                String signature = frame.getSignature();
 
 //                byte[] pubBytes = serverPublicKey.getEncoded();
 //                SubjectPublicKeyInfo spkInfo = SubjectPublicKeyInfo.getInstance(pubBytes);
 //                ASN1Primitive primitive = spkInfo.parsePublicKey();
 //                byte[] publicKeyPKCS1 = primitive.getEncoded();
 
-                boolean isValid = Crypto.ValidateSignatureWithRSA(serverKey, data.getBytes("UTF-8"), signature.getBytes("UTF-8"));
+                boolean isValid = Crypto.ValidateSignatureWithRSA(serverKey, data, signature.getBytes("UTF-8"));
 //                byte[] bytes = Crypto.DecryptWithRSA(serverPublicKey, Crypto.base64Decode(signature));
 //                String str = new String(bytes, StandardCharsets.UTF_8);
 //                Log.d(TAG, " Trying :" +str);
@@ -134,11 +154,32 @@ public class PMessageLogic {
                 }
                 Log.d(TAG, "message validated");
             }
-        } catch (JSONException | IOException | NoSuchProviderException | NoSuchAlgorithmException | InvalidKeyException | SignatureException e) {
+        } catch (IOException | NoSuchProviderException | NoSuchAlgorithmException | InvalidKeyException | SignatureException e) {
             e.printStackTrace();
         }
     }
 
+    private void openDataAsync(final SocketFrame frame) throws IOException {
+        final SocketMessage<String> msg = frame.toMessage(String.class);
+        if (msg.getData() == null || currentUserKeySet == null || currentUserKeySet.getPrivateKey() == null) {
+            Log.e(TAG, "Data message can't be opened");
+            return;
+        }
+        cryptoExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    byte[] content = envelopes.Open(currentUserKeySet.getPrivateKey(),
+                            Crypto.base64Decode(msg.getData()), frame.getHeaderAad());
+                    Log.d(TAG, "Data message opened " + content.length + " bytes from " + msg.getOrigin());
+                    //TODO: deliver to the conversation.
+                } catch (GeneralSecurityException e) {
+                    Log.e(TAG, "Data message can't be authenticated");
+                }
+            }
+        });
+    }
+
     public void setCurrentUserKeySet(KeySet currentUserKeySet) {
         this.currentUserKeySet = currentUserKeySet;
     }
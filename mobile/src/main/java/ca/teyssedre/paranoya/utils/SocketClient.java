@@ -33,35 +33,54 @@ import android.support.design.widget.Snackbar;
 import android.util.Log;
 import android.view.View;
 
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
 import java.security.PublicKey;
 import java.util.Random;
-import java.util.concurrent.LinkedBlockingDeque;
-import java.util.concurrent.ThreadPoolExecutor;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import ca.teyssedre.crypto.Crypto;
+import ca.teyssedre.crypto.SessionEnvelope;
 import ca.teyssedre.crypto.store.models.CryptoInfo;
 import ca.teyssedre.crypto.views.UIHelper;
+import ca.teyssedre.paranoya.messaging.CodecNegotiation;
+import ca.teyssedre.paranoya.messaging.IEnvelopeCodec;
+import ca.teyssedre.paranoya.messaging.IFrameSink;
+import ca.teyssedre.paranoya.messaging.JsonEnvelopeCodec;
+import ca.teyssedre.paranoya.messaging.MessageCodec;
+import ca.teyssedre.paranoya.messaging.SmileEnvelopeCodec;
+import ca.teyssedre.paranoya.messaging.SocketFrame;
 import ca.teyssedre.paranoya.messaging.SocketMessage;
 import ca.teyssedre.paranoya.messaging.enums.SocketMessageType;
+import ca.teyssedre.wsservice.contract.IBackpressureListener;
 import ca.teyssedre.wsservice.contract.ISocketListener;
+import ca.teyssedre.wsservice.enums.OverflowPolicy;
 import ca.teyssedre.wsservice.enums.SocketState;
 import ca.teyssedre.wsservice.socket.WSSocket;
 import ca.teyssedre.wsservice.socket.WebSocketService;
 
-public class SocketClient implements ISocketListener {
+public class SocketClient implements ISocketListener, IBackpressureListener {
 
     public static final String TAG = "SocketClient";
+    private static final String QUEUE_JOURNAL = "paranoya_outbound.journal";
+    private static final String LEGACY_QUEUE_JOURNAL = "paranoya_outbound.queue";
 
     private final Handler uiThread;
-    private final ThreadPoolExecutor background;
+    private final IExecutorLanes lanes;
+    private final boolean ownLanes;
     private final CryptoInfo cryptoInfo;
+    private final MessageCodec codec;
+    private final SessionEnvelope envelopes;
+    private final CodecNegotiation negotiation;
     private IParanoyaMessageListener listner;
 
     //region Properties
     private Context context;
     private WSSocket socket;
     private Snackbar snackbar;
-    private int msgSerial;
+    private final AtomicInteger msgSerial;
     private boolean _connectCalled = false;
     private PublicKey serverKey;
     private PMessageLogic PMLogic;
@@ -70,19 +89,54 @@ public class SocketClient implements ISocketListener {
 
     //region Constructor
     public SocketClient(Context context) {
+        this(context, new ExecutorLanes(), true);
+    }
+
+    /**
+     * @param context {@link Context} instance used for the UI feedback.
+     * @param lanes   {@link IExecutorLanes} running the work of the client, left running on
+     *                {@link #Dispose()}.
+     */
+    public SocketClient(Context context, IExecutorLanes lanes) {
+        this(context, lanes, false);
+    }
+
+    private SocketClient(Context context, IExecutorLanes lanes, boolean ownLanes) {
         this.context = context;
-        this.msgSerial = new Random().nextInt();
+        this.lanes = lanes;
+        this.ownLanes = ownLanes;
+        this.msgSerial = new AtomicInteger(new Random().nextInt());
         this.uiThread = new Handler(Looper.getMainLooper());
-        this.socket = new WSSocket();
+        this.socket = NewSocket(context);
         this.socket.AddListener(this);
-        int i = Runtime.getRuntime().availableProcessors();
-        LinkedBlockingDeque<Runnable> queue = new LinkedBlockingDeque<>();
-        this.background = new ThreadPoolExecutor(1, i, 1, TimeUnit.SECONDS, queue);
-        this.PMLogic = new PMessageLogic();
+        this.socket.setBackpressureListener(this);
+        this.envelopes = new SessionEnvelope();
+        this.PMLogic = new PMessageLogic(lanes.getCryptoLane(), envelopes);
         this.cryptoInfo = new CryptoInfo();
+        this.codec = MessageCodec.getInstance();
+        this.negotiation = new CodecNegotiation(new JsonEnvelopeCodec(), new SmileEnvelopeCodec());
     }
     //endregion
 
+    /**
+     * Helper to create the {@link WSSocket} with a sealed journal, the queue is kept in memory
+     * only if no journal key is available. The plaintext journal of the previous versions is
+     * removed.
+     *
+     * @param context {@link Context} of the application.
+     * @return {@link WSSocket} instance.
+     */
+    private static WSSocket NewSocket(Context context) {
+        context.deleteFile(LEGACY_QUEUE_JOURNAL);
+        try {
+            return new WSSocket(WSSocket.DEFAULT_QUEUE_CAPACITY, OverflowPolicy.DROP_OLDEST,
+                    new File(context.getFilesDir(), QUEUE_JOURNAL), new JournalCipher(context));
+        } catch (GeneralSecurityException e) {
+            Log.e(TAG, "No journal key, outbound queue kept in memory");
+            return new WSSocket(WSSocket.DEFAULT_QUEUE_CAPACITY, OverflowPolicy.DROP_OLDEST, null, null);
+        }
+    }
+
     //region OnNewState
 
     /**
@@ -93,7 +147,10 @@ public class SocketClient implements ISocketListener {
      */
     @Override
     public void OnNewSocketState(final SocketState state) {
-        background.execute(new Runnable() {
+        // Read on the socket thread, a later connection can be open once the lane runs.
+        WSSocket current = socket;
+        final long connection = current != null ? current.getConnectionId() : -1;
+        lanes.getMessageLane(null).execute(new Runnable() {
             @Override
             public void run() {
                 switch (state) {
@@ -105,6 +162,10 @@ public class SocketClient implements ISocketListener {
                         break;
                     case CONNECTED:
                         Snack("Connected", 2000);
+                        // Every connection start with JSON, the codecs we read are announced and
+                        // the outgoing codec only changes once the peer picks one of them.
+                        negotiation.reset(connection);
+                        Send(NewMessage(SocketMessageType.Capabilities, negotiation.getNames()));
                         // Send identity
                         Send(NewMessage(SocketMessageType.OnlineStatus, idHelper.getCurrentUser()));
                         break;
@@ -137,13 +198,84 @@ public class SocketClient implements ISocketListener {
     @Override
     public void OnNewMessage(final String message) {
         Log.d(TAG, "Incoming message :" + message);
-        background.execute(new Runnable() {
+        lanes.getMessageLane(null).execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    Dispatch(codec.decode(message));
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        });
+    }
+
+    /**
+     * On every binary message received by the {@link WebSocketService} the current listener will
+     * be notify through this method.
+     *
+     * @param message {@link ByteBuffer} view of the binary frame.
+     */
+    @Override
+    public void OnNewBinaryMessage(final ByteBuffer message) {
+        Log.d(TAG, "Incoming binary message :" + message.remaining() + " bytes");
+        lanes.getMessageLane(null).execute(new Runnable() {
             @Override
             public void run() {
-                PMLogic.OnMessage(message);
+                IEnvelopeCodec detected = negotiation.detect(message);
+                if (detected == null) {
+                    Log.e(TAG, "Binary message format not recognized");
+                    return;
+                }
+                try {
+                    Dispatch(detected.decode(message));
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
             }
         });
     }
+
+    /**
+     * Hand the decoded {@code frame} to the message lane of its origin. Frames are decoded in
+     * arrival order on the system lane, so the messages of a peer keep their order while
+     * different peers are processed in parallel.
+     *
+     * @param frame {@link SocketFrame} decoded envelope.
+     */
+    private void Dispatch(final SocketFrame frame) {
+        if (frame.getType() == SocketMessageType.Capabilities) {
+            SelectCodec(frame);
+            return;
+        }
+        lanes.getMessageLane(frame.getOrigin()).execute(new Runnable() {
+            @Override
+            public void run() {
+                PMLogic.OnMessage(frame);
+            }
+        });
+    }
+
+    /**
+     * Answer of the peer to our {@link SocketMessageType#Capabilities}: the first name we support
+     * becomes the outgoing codec of the current connection. A peer that never answers keeps the
+     * connection on JSON.
+     *
+     * @param frame {@link SocketFrame} of type {@link SocketMessageType#Capabilities}.
+     */
+    private void SelectCodec(SocketFrame frame) {
+        String[] names;
+        try {
+            names = frame.toMessage(String[].class).getData();
+        } catch (IOException e) {
+            e.printStackTrace();
+            return;
+        }
+        IEnvelopeCodec selected = negotiation.select(names);
+        if (selected != null) {
+            Log.d(TAG, "Peer selected " + selected.getName() + " as outgoing codec");
+        }
+    }
     //endregion
 
     //region Connect & Disconnect
@@ -153,16 +285,20 @@ public class SocketClient implements ISocketListener {
      */
     @Override
     public void Connect() {
-        if (socket != null) {
-            background.execute(new Runnable() {
-                @Override
-                public void run() {
-                    if (socket.getSocketState() == SocketState.INITIALIZE && !_connectCalled) {
-                        socket.SecureConnect("teyssedre.ca", 4445);
-                        _connectCalled = true;
-                    }
+        WSSocket current = socket;
+        if (current != null) {
+            // Not run on the IO lane, a sender blocked on a full queue would hold the lane and
+            // the connection which drains the queue would never start. The connection itself is
+            // opened asynchronously by the socket.
+            synchronized (this) {
+                SocketState state = current.getSocketState();
+                // Once connected the socket reconnects by itself, an explicit call is only
+                // needed the first time or after the scheduler gave up.
+                if (state != SocketState.CONNECTING && state != SocketState.CONNECTED) {
+                    current.SecureConnect("teyssedre.ca", 4445);
+                    _connectCalled = true;
                 }
-            });
+            }
         }
     }
 
@@ -205,38 +341,147 @@ public class SocketClient implements ISocketListener {
     //endregion
 
     //region Send Message
+
+    /**
+     * Send the {@code message} with the codec agreed for the current connection, as JSON text
+     * otherwise. Only the text frames are queued while the socket is closed, see
+     * {@link CodecNegotiation}.
+     *
+     * @param message {@link SocketMessage} instance to send.
+     */
     public void Send(final SocketMessage message) {
-        background.execute(new Runnable() {
+        lanes.getIOLane().execute(new Runnable() {
             @Override
             public void run() {
-                if (socket != null && socket.getSocketState() == SocketState.CONNECTED) {
-                    Log.d(TAG, "Outgoing message :" + message.toString());
-                    socket.Send(message.toString());
-                } else {
-                    Log.e(TAG, "Trying to send message " + message.toString());
-                    //TODO: Queue messages ?
+                SendEncoded(message);
+            }
+        });
+    }
+
+    /**
+     * Send the {@code message} as a binary frame when a binary {@link IEnvelopeCodec} is agreed
+     * with the peer, the message is encoded directly into bytes without building an intermediate
+     * {@link String}. A signed message is sent as JSON text, see {@link #Send(SocketMessage)}.
+     *
+     * @param message {@link SocketMessage} instance to send.
+     */
+    public void SendBinary(final SocketMessage message) {
+        Send(message);
+    }
+
+    /**
+     * Helper to encode the {@code message} with the negotiated {@link IEnvelopeCodec} and push it
+     * on the socket. Must be called from the IO lane.
+     *
+     * @param message {@link SocketMessage} instance to send.
+     */
+    private void SendEncoded(SocketMessage message) {
+        final WSSocket current = socket;
+        if (current == null) {
+            Log.e(TAG, "Trying to send message without socket");
+            return;
+        }
+        try {
+            negotiation.send(message, new IFrameSink() {
+                @Override
+                public boolean sendOnConnection(byte[] frame, long connection) {
+                    Log.d(TAG, "Outgoing binary message :" + frame.length + " bytes");
+                    return current.SendOnConnection(frame, connection);
+                }
+
+                @Override
+                public void send(String frame) {
+                    // Queued by the socket until the connection is open.
+                    Log.d(TAG, "Outgoing message :" + frame);
+                    current.Send(frame);
+                }
+            });
+        } catch (IOException e) {
+            // Nothing is put on the wire for a message that can't be written.
+            Log.e(TAG, "Message can't be serialized, not sent");
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Encrypt {@code content} for the peer and send it as a {@link SocketMessageType#DataText} or
+     * {@link SocketMessageType#DataBinary} message. The content is sealed in a {@link SessionEnvelope}
+     * on the crypto lane, the RSA cost is only paid when the session with the peer rotates.
+     *
+     * @param destination {@link String} identifier of the peer.
+     * @param peerKey     {@link PublicKey} of the peer.
+     * @param content     {@code byte[]} content to send.
+     * @param binary      true to send a {@link SocketMessageType#DataBinary} message.
+     */
+    public void SendData(final String destination, final PublicKey peerKey, final byte[] content, boolean binary) {
+        final SocketMessage<String> message = NewMessage(binary ? SocketMessageType.DataBinary : SocketMessageType.DataText,
+                null, destination);
+        lanes.getCryptoLane().execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    byte[] sealed = envelopes.Seal(destination, peerKey, content, message.getHeaderAad());
+                    message.setData(Crypto.base64Encode(sealed));
+                    Send(message);
+                } catch (GeneralSecurityException e) {
+                    Log.e(TAG, "Data message can't be sealed for " + destination);
                 }
             }
         });
     }
 
     public <T> SocketMessage<T> NewMessage(SocketMessageType type, T data) {
-        SocketMessage<T> message = new SocketMessage<>(type, data, null);
-        message.setSerial(msgSerial);
-        message.setOrigin(""); //TODO: set socket id ... ?
-        msgSerial++;
-        return message;
+        return NewMessage(type, data, null);
     }
 
     public <T> SocketMessage<T> NewMessage(SocketMessageType type, T data, String destination) {
+        if (data != null) {
+            // Resolve the writer on the caller thread, the IO lane will only hit the cache.
+            codec.writerFor(data.getClass());
+        }
         SocketMessage<T> message = new SocketMessage<>(type, data, destination);
-        message.setSerial(msgSerial);
+        // Messages are built from several lanes, each one gets its own serial.
+        message.setSerial(msgSerial.getAndIncrement());
         message.setOrigin(""); //TODO: set socket id ... ?
-        msgSerial++;
         return message;
     }
     //endregion
 
+    //region Backpressure
+
+    /**
+     * The {@link WSSocket} notify through this method when its outbound queue is saturated or
+     * released.
+     *
+     * @param saturated true if the callers should slow down.
+     * @param size      number of messages waiting in the queue.
+     * @param capacity  maximum number of messages the queue can hold.
+     */
+    @Override
+    public void OnBackpressure(boolean saturated, int size, int capacity) {
+        Log.d(TAG, "Outbound queue " + (saturated ? "saturated " : "released ") + size + "/" + capacity);
+    }
+
+    /**
+     * Flag raised while the outbound queue of the socket is saturated.
+     *
+     * @return true if the callers should slow down.
+     */
+    public boolean isBackpressured() {
+        return socket != null && socket.isBackpressured();
+    }
+
+    /**
+     * Number of tasks waiting on one of the {@link IExecutorLanes} of the client.
+     *
+     * @param lane {@link IExecutorLanes.Lane} to inspect.
+     * @return number of pending tasks.
+     */
+    public int getQueueDepth(IExecutorLanes.Lane lane) {
+        return lanes.getQueueDepth(lane);
+    }
+    //endregion
+
     //region UI Helpers
 
     /**
@@ -325,13 +570,18 @@ public class SocketClient implements ISocketListener {
 
     /**
      * Function to clean all variables to force the garbage collection.
-     * The {@code Dispose} will trigger a {@code Disconnect}.
+     * The {@code Dispose} will disconnect the socket and release its threads.
      */
     @Override
     public void Dispose() {
-        if (this.socket != null) {
-            this.socket.RemoveListener(SocketClient.this);
-            Disconnect();
+        WSSocket current = this.socket;
+        if (current != null) {
+            current.RemoveListener(SocketClient.this);
+            this.socket = null;
+            current.Dispose();
+        }
+        if (ownLanes) {
+            lanes.Shutdown();
         }
         this.context = null;
     }
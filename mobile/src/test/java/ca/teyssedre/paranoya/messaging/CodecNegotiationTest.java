@@ -0,0 +1,172 @@
+package ca.teyssedre.paranoya.messaging;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import ca.teyssedre.paranoya.messaging.enums.SocketMessageType;
+
+import static org.junit.Assert.*;
+
+/**
+ * Walk the socket through connect, negotiate, disconnect, reconnect and renegotiate, and check
+ * that no binary frame reaches a peer which didn't pick the binary codec.
+ */
+public class CodecNegotiationTest {
+
+    private static final byte BINARY_MARKER = 0x3a;
+
+    /**
+     * Binary codec writing a marker byte before the JSON bytes, stands for Smile.
+     */
+    private static class MarkedCodec implements IEnvelopeCodec {
+
+        private final MessageCodec codec = MessageCodec.getInstance();
+
+        @Override
+        public String getName() {
+            return "marked";
+        }
+
+        @Override
+        public boolean isBinary() {
+            return true;
+        }
+
+        @Override
+        public boolean accept(ByteBuffer raw) {
+            return raw.hasRemaining() && raw.get(raw.position()) == BINARY_MARKER;
+        }
+
+        @Override
+        public byte[] encode(SocketMessage<?> message) throws IOException {
+            byte[] json = codec.encode(message);
+            byte[] marked = new byte[json.length + 1];
+            marked[0] = BINARY_MARKER;
+            System.arraycopy(json, 0, marked, 1, json.length);
+            return marked;
+        }
+
+        @Override
+        public SocketFrame decode(ByteBuffer raw) throws IOException {
+            ByteBuffer json = raw.duplicate();
+            json.position(json.position() + 1);
+            return codec.decode(json);
+        }
+    }
+
+    /**
+     * Socket keeping the text frames in a queue while closed, like WSSocket, and recording what
+     * the peer of each connection received.
+     */
+    private static class FakeSocket implements IFrameSink {
+
+        long connection = -1;
+        boolean open;
+        final List<String> queue = new ArrayList<>();
+        final List<Object> received = new ArrayList<>();
+
+        long connect() {
+            connection++;
+            open = true;
+            received.clear();
+            received.addAll(queue);
+            queue.clear();
+            return connection;
+        }
+
+        @Override
+        public boolean sendOnConnection(byte[] frame, long connection) {
+            if (!open || this.connection != connection) {
+                return false;
+            }
+            received.add(frame);
+            return true;
+        }
+
+        @Override
+        public void send(String frame) {
+            if (open) {
+                received.add(frame);
+            } else {
+                queue.add(frame);
+            }
+        }
+    }
+
+    private final CodecNegotiation negotiation = new CodecNegotiation(new JsonEnvelopeCodec(), new MarkedCodec());
+
+    private static SocketMessage<String> message(String data) {
+        return new SocketMessage<>(SocketMessageType.DataText, data, "bob", "alice", null, 1);
+    }
+
+    @Test
+    public void getNames_binaryFirst() {
+        assertArrayEquals(new String[]{"marked", JsonEnvelopeCodec.NAME}, negotiation.getNames());
+    }
+
+    @Test
+    public void send_textUntilPeerSelects() throws Exception {
+        FakeSocket socket = new FakeSocket();
+        negotiation.reset(socket.connect());
+        negotiation.send(message("a"), socket);
+        assertTrue(socket.received.get(0) instanceof String);
+
+        assertNotNull(negotiation.select(new String[]{"marked", JsonEnvelopeCodec.NAME}));
+        negotiation.send(message("b"), socket);
+        assertTrue(socket.received.get(1) instanceof byte[]);
+    }
+
+    @Test
+    public void send_disconnectReconnectRenegotiate() throws Exception {
+        FakeSocket socket = new FakeSocket();
+        negotiation.reset(socket.connect());
+        negotiation.select(new String[]{"marked"});
+        negotiation.send(message("first"), socket);
+        assertTrue(socket.received.get(0) instanceof byte[]);
+
+        // Lost: the messages sent meanwhile are queued as text, not as frames of the old codec.
+        socket.open = false;
+        negotiation.send(message("offline"), socket);
+        assertEquals(1, socket.queue.size());
+
+        // The next peer only reads JSON: the queue is flushed on connect, before the state event.
+        long second = socket.connect();
+        assertEquals(1, socket.received.size());
+        assertEquals("offline", MessageCodec.getInstance().decode((String) socket.received.get(0))
+                .toMessage(String.class).getData());
+        // Sent between the reconnection and the state event, the old codec is not used.
+        negotiation.send(message("early"), socket);
+        assertTrue(socket.received.get(1) instanceof String);
+
+        negotiation.reset(second);
+        assertEquals(JsonEnvelopeCodec.NAME, negotiation.getCodec().getName());
+        assertNull(negotiation.select(new String[]{"cbor"}));
+        negotiation.send(message("json"), socket);
+        assertTrue(socket.received.get(2) instanceof String);
+
+        negotiation.select(new String[]{"marked"});
+        negotiation.send(message("binary"), socket);
+        assertTrue(socket.received.get(3) instanceof byte[]);
+    }
+
+    @Test
+    public void send_signedMessageStaysText() throws Exception {
+        FakeSocket socket = new FakeSocket();
+        negotiation.reset(socket.connect());
+        negotiation.select(new String[]{"marked"});
+        negotiation.send(new SocketMessage<>(SocketMessageType.DataText, "a", "bob", "alice", "c2ln", 1), socket);
+        assertTrue(socket.received.get(0) instanceof String);
+    }
+
+    @Test
+    public void detect_findsTheCodec() throws Exception {
+        byte[] marked = new MarkedCodec().encode(message("a"));
+        assertEquals("marked", negotiation.detect(ByteBuffer.wrap(marked)).getName());
+        byte[] json = MessageCodec.getInstance().encode(message("a"));
+        assertEquals(JsonEnvelopeCodec.NAME, negotiation.detect(ByteBuffer.wrap(json)).getName());
+    }
+}
@@ -0,0 +1,140 @@
+package ca.teyssedre.paranoya.messaging;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+import ca.teyssedre.paranoya.messaging.data.User;
+import ca.teyssedre.paranoya.messaging.enums.SocketMessageType;
+
+import static org.junit.Assert.*;
+
+public class MessageCodecTest {
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private final MessageCodec codec = MessageCodec.getInstance();
+
+    private static SocketMessage<User> newUserMessage() {
+        User user = new User(12, "hash", null, "pseudo \u00e9t\u00e9 \u2603", "say \"hi\"\n", 2, 0);
+        return new SocketMessage<>(SocketMessageType.OnlineStatus, user, "peer", "me", null, 42);
+    }
+
+    private static void assertUser(SocketMessage<User> message) {
+        assertEquals(SocketMessageType.OnlineStatus, message.getType());
+        assertEquals("peer", message.getDestination());
+        assertEquals("me", message.getOrigin());
+        assertEquals(42, message.getSerial());
+        assertEquals("hash", message.getData().getHash());
+        assertEquals("pseudo \u00e9t\u00e9 \u2603", message.getData().getPseudo());
+        assertEquals("say \"hi\"\n", message.getData().getMessage());
+    }
+
+    /**
+     * @return exact text of the {@code data} value in the serialized {@code raw} message.
+     */
+    private static String dataText(String raw) {
+        int start = raw.indexOf("\"data\":") + "\"data\":".length();
+        return raw.substring(start, raw.length() - 1);
+    }
+
+    @Test
+    public void encodeToString_writesTheHeaderFirst() throws Exception {
+        String raw = codec.encodeToString(newUserMessage());
+        assertTrue(raw.startsWith("{\"type\":" + SocketMessageType.OnlineStatus.getValue()
+                + ",\"destination\":\"peer\",\"origin\":\"me\",\"serial\":42,\"data\":{"));
+    }
+
+    @Test
+    public void encodings_produceTheSameText() throws Exception {
+        SocketMessage<User> message = newUserMessage();
+        String raw = codec.encodeToString(message);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        codec.encode(message, out);
+        assertEquals(raw, new String(out.toByteArray(), UTF8));
+        assertEquals(raw, new String(codec.encode(message), UTF8));
+    }
+
+    @Test
+    public void decodeString_roundTrip() throws Exception {
+        String raw = codec.encodeToString(newUserMessage());
+        SocketFrame frame = codec.decode(raw);
+        assertTrue(frame.hasData());
+        assertUser(frame.toMessage(User.class));
+    }
+
+    @Test
+    public void decodeBytes_roundTrip() throws Exception {
+        byte[] raw = codec.encode(newUserMessage());
+        SocketFrame frame = codec.decode(ByteBuffer.wrap(raw));
+        assertUser(frame.toMessage(User.class));
+    }
+
+    @Test
+    public void rawData_isTheExactDataText() throws Exception {
+        String raw = codec.encodeToString(newUserMessage());
+        // Multi-byte characters before the data make char and byte offsets differ.
+        String shifted = "{\"origin\":\"\u00e9\u2603\"," + raw.substring(1);
+        byte[] expected = dataText(shifted).getBytes(UTF8);
+        assertArrayEquals(expected, codec.decode(shifted).getRawData());
+        assertArrayEquals(expected, codec.decode(ByteBuffer.wrap(shifted.getBytes(UTF8))).getRawData());
+    }
+
+    @Test
+    public void rawData_keepsTheReceivedFormatting() throws Exception {
+        String raw = "{ \"type\" : 100 , \"data\" : { \"hash\" : \"h\" ,\n \"type\":1 } , \"serial\" : 7 }";
+        SocketFrame frame = codec.decode(raw);
+        assertEquals("{ \"hash\" : \"h\" ,\n \"type\":1 }", new String(frame.getRawData(), UTF8));
+        assertEquals(7, frame.getSerial());
+    }
+
+    @Test
+    public void rawData_ofAStringPayload() throws Exception {
+        SocketMessage<String> message = new SocketMessage<>(SocketMessageType.DataText, "c2VhbGVk\u00e9", "peer", null, null, 1);
+        SocketFrame frame = codec.decode(codec.encodeToString(message));
+        assertEquals("\"c2VhbGVk\u00e9\"", new String(frame.getRawData(), UTF8));
+        assertEquals("c2VhbGVk\u00e9", frame.toMessage(String.class).getData());
+    }
+
+    @Test
+    public void decodeBytes_readsASliceOfABuffer() throws Exception {
+        byte[] raw = codec.encode(newUserMessage());
+        byte[] padded = new byte[raw.length + 10];
+        System.arraycopy(raw, 0, padded, 5, raw.length);
+        ByteBuffer buffer = ByteBuffer.wrap(padded, 5, raw.length).slice();
+        SocketFrame frame = codec.decode(buffer);
+        assertUser(frame.toMessage(User.class));
+        assertArrayEquals(dataText(new String(raw, UTF8)).getBytes(UTF8), frame.getRawData());
+        assertEquals(0, buffer.position());
+    }
+
+    @Test
+    public void decode_withoutData() throws Exception {
+        SocketMessage<Object> message = new SocketMessage<>(SocketMessageType.CleanProcess, null, null, null, null, 3);
+        SocketFrame frame = codec.decode(codec.encodeToString(message));
+        assertEquals(SocketMessageType.CleanProcess, frame.getType());
+        assertFalse(frame.hasData());
+        assertNull(frame.getRawData());
+    }
+
+    @Test
+    public void decode_skipsUnknownFields() throws Exception {
+        SocketFrame frame = codec.decode("{\"extra\":{\"a\":[1,2]},\"type\":100,\"serial\":9}");
+        assertEquals(SocketMessageType.OnlineStatus, frame.getType());
+        assertEquals(9, frame.getSerial());
+    }
+
+    @Test(expected = IOException.class)
+    public void decode_rejectsANonObject() throws Exception {
+        codec.decode("[1,2]");
+    }
+
+    @Test
+    public void decode_emptyInput() throws Exception {
+        assertFalse(codec.decode("").hasData());
+        assertFalse(codec.decode(ByteBuffer.allocate(0)).hasData());
+    }
+}
@@ -0,0 +1,115 @@
+package ca.teyssedre.paranoya.messaging;
+
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.security.GeneralSecurityException;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+
+import ca.teyssedre.crypto.SessionEnvelope;
+import ca.teyssedre.paranoya.messaging.enums.SocketMessageType;
+
+import static org.junit.Assert.*;
+
+/**
+ * Seal a data message the way the sender does, let a relay rewrite it, and open it from the
+ * decoded frame the way the receiver does.
+ */
+public class SealedMessageTest {
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private static KeyPair peer;
+    private final MessageCodec codec = MessageCodec.getInstance();
+
+    @BeforeClass
+    public static void setUpClass() throws Exception {
+        KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+        generator.initialize(2048);
+        peer = generator.generateKeyPair();
+    }
+
+    private static String hex(byte[] bytes) {
+        char[] chars = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            chars[2 * i] = HEX[(bytes[i] >> 4) & 0xf];
+            chars[2 * i + 1] = HEX[bytes[i] & 0xf];
+        }
+        return new String(chars);
+    }
+
+    private static byte[] unhex(String value) {
+        byte[] bytes = new byte[value.length() / 2];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) Integer.parseInt(value.substring(2 * i, 2 * i + 2), 16);
+        }
+        return bytes;
+    }
+
+    /**
+     * @return serialized message as sent, the origin is left empty like SocketClient.NewMessage.
+     */
+    private String seal(SessionEnvelope envelopes, byte[] content) throws Exception {
+        SocketMessage<String> message = new SocketMessage<>(SocketMessageType.DataText, "bob", "", 1234);
+        byte[] sealed = envelopes.Seal("bob", peer.getPublic(), content, message.getHeaderAad());
+        message.setData(hex(sealed));
+        return codec.encodeToString(message);
+    }
+
+    /**
+     * Rewrite a header field of the serialized message like the relay does.
+     */
+    private String relay(String raw, String field, Object value) throws Exception {
+        ObjectNode node = (ObjectNode) codec.getMapper().readTree(raw);
+        if (value instanceof Integer) {
+            node.put(field, (Integer) value);
+        } else {
+            node.put(field, (String) value);
+        }
+        return codec.getMapper().writeValueAsString(node);
+    }
+
+    private byte[] open(String raw) throws Exception {
+        SocketFrame frame = codec.decode(raw);
+        String data = frame.toMessage(String.class).getData();
+        return new SessionEnvelope().Open(peer.getPrivate(), unhex(data), frame.getHeaderAad());
+    }
+
+    @Test
+    public void open_afterTheRelaySetTheOrigin() throws Exception {
+        byte[] content = "hello bob".getBytes(UTF8);
+        String raw = relay(seal(new SessionEnvelope(), content), "origin", "alice-relay-id");
+        assertEquals("alice-relay-id", codec.decode(raw).getOrigin());
+        assertArrayEquals(content, open(raw));
+    }
+
+    @Test
+    public void open_throughTheBinaryDecoder() throws Exception {
+        byte[] content = "hello bob".getBytes(UTF8);
+        String raw = relay(seal(new SessionEnvelope(), content), "origin", "alice-relay-id");
+        SocketFrame frame = codec.decode(ByteBuffer.wrap(raw.getBytes(UTF8)));
+        String data = frame.toMessage(String.class).getData();
+        assertArrayEquals(content, new SessionEnvelope().Open(peer.getPrivate(), unhex(data), frame.getHeaderAad()));
+    }
+
+    @Test(expected = GeneralSecurityException.class)
+    public void open_rejectsAnotherDestination() throws Exception {
+        open(relay(seal(new SessionEnvelope(), new byte[]{1}), "destination", "eve"));
+    }
+
+    @Test(expected = GeneralSecurityException.class)
+    public void open_rejectsAnotherSerial() throws Exception {
+        open(relay(seal(new SessionEnvelope(), new byte[]{1}), "serial", 1235));
+    }
+
+    @Test(expected = GeneralSecurityException.class)
+    public void open_rejectsAnotherType() throws Exception {
+        open(relay(seal(new SessionEnvelope(), new byte[]{1}), "type", SocketMessageType.DataBinary.getValue()));
+    }
+}
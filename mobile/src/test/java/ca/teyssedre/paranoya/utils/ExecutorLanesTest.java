@@ -0,0 +1,52 @@
+package ca.teyssedre.paranoya.utils;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class ExecutorLanesTest {
+
+    private final ExecutorLanes lanes = new ExecutorLanes(1, 1);
+
+    @After
+    public void tearDown() throws Exception {
+        lanes.Shutdown();
+    }
+
+    @Test(timeout = 10000)
+    public void cryptoLane_handsTheOverflowToTheIOLane() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        Executor crypto = lanes.getCryptoLane();
+        // One task holds the single crypto thread, the others fill the queue.
+        for (int i = 0; i < 257; i++) {
+            crypto.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        release.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            });
+        }
+        final Thread caller = Thread.currentThread();
+        final String[] runner = new String[1];
+        final CountDownLatch ran = new CountDownLatch(1);
+        crypto.execute(new Runnable() {
+            @Override
+            public void run() {
+                runner[0] = Thread.currentThread() == caller ? "caller" : Thread.currentThread().getName();
+                ran.countDown();
+            }
+        });
+        assertTrue(ran.await(5, TimeUnit.SECONDS));
+        assertTrue(runner[0], runner[0].startsWith("paranoya-io"));
+        release.countDown();
+    }
+}
@@ -0,0 +1,50 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015. Pierre Teyssedre
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package ca.teyssedre.wsservice.contract;
+
+import java.io.IOException;
+
+public interface IJournalCipher {
+
+    /**
+     * Called before a queued message is written to the journal, the returned bytes are the only
+     * trace of the message kept on disk. Called by the producers without lock, several threads
+     * may seal at the same time.
+     *
+     * @param data {@code byte[]} content of the message.
+     * @return {@code byte[]} sealed content.
+     * @throws IOException if the content can't be sealed, the message is then kept in memory only.
+     */
+    byte[] Seal(byte[] data) throws IOException;
+
+    /**
+     * Called when the journal is restored to recover the content given to {@link #Seal(byte[])}.
+     *
+     * @param sealed {@code byte[]} content read from the journal.
+     * @return {@code byte[]} original content of the message.
+     * @throws IOException if the content can't be opened, the message is then discarded.
+     */
+    byte[] Open(byte[] sealed) throws IOException;
+}
@@ -0,0 +1,52 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015. Pierre Teyssedre
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package ca.teyssedre.wsservice.contract;
+
+public interface IReconnectListener {
+
+    /**
+     * Called when a new connection attempt has been scheduled after the loss of the socket.
+     *
+     * @param attempt number of the attempt, starting at 1.
+     * @param delay   milliseconds before the attempt.
+     */
+    void OnReconnectScheduled(int attempt, long delay);
+
+    /**
+     * Called when the socket is connected again, after the queued outbound messages have been
+     * pushed. This is the place to replay any state the server needs to know about.
+     *
+     * @param attempts number of attempts needed to reconnect.
+     */
+    void OnReconnected(int attempts);
+
+    /**
+     * Called when the maximum number of attempts has been reached, no more attempt will be made
+     * until the next explicit connect.
+     *
+     * @param attempts number of attempts made.
+     */
+    void OnReconnectAbandoned(int attempts);
+}
@@ -24,6 +24,8 @@
 
 package ca.teyssedre.wsservice.contract;
 
+import java.nio.ByteBuffer;
+
 import ca.teyssedre.wsservice.enums.SocketState;
 import ca.teyssedre.wsservice.socket.WebSocketService;
 
@@ -45,6 +47,15 @@ public interface ISocketListener {
      */
     void OnNewMessage(String message);
 
+    /**
+     * On every binary message received by the {@link WebSocketService} the current listener will
+     * be notify through this method. The {@code message} is a view over a buffer shared by all the
+     * listeners, its content must not be modified.
+     *
+     * @param message {@link ByteBuffer} view of the binary frame.
+     */
+    void OnNewBinaryMessage(ByteBuffer message);
+
     /**
      * When an error is raise in the {@link WebSocketService} the exception is
      * push back through this function.
@@ -24,6 +24,8 @@
 
 package ca.teyssedre.wsservice.contract;
 
+import java.nio.ByteBuffer;
+
 import ca.teyssedre.wsservice.enums.SocketState;
 import ca.teyssedre.wsservice.socket.WebSocketService;
 
@@ -67,6 +69,21 @@ public interface IWebSocketService {
      */
     void Send(String message);
 
+    /**
+     * Binary version of {@link #Send(String)}, the {@code message} is sent as a binary frame.
+     *
+     * @param message {@code byte[]} content to send.
+     */
+    void Send(byte[] message);
+
+    /**
+     * Binary version of {@link #Send(String)}, the remaining bytes of {@code message} are sent as
+     * a binary frame.
+     *
+     * @param message {@link ByteBuffer} content to send.
+     */
+    void Send(ByteBuffer message);
+
     /**
      * Disconnect the socket and reset the {@link ca.teyssedre.wsservice.enums.SocketState} of the
      * {@link WebSocketService}.
@@ -96,4 +113,12 @@ public interface IWebSocketService {
      * @return {@link SocketState} current value.
      */
     SocketState getSocketState();
+
+    /**
+     * Round-trip time percentile measured by the heartbeat of the socket.
+     *
+     * @param percentile value between 0 and 100, e.g. 50 for the median.
+     * @return round-trip time in milliseconds, -1 if no sample has been taken yet.
+     */
+    double getRttPercentile(double percentile);
 }
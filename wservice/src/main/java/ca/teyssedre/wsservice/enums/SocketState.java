@@ -31,7 +31,8 @@ public enum SocketState {
     CONNECTED(2, "Connected"),
     FAILED(3, "Failed"),
     DISCONNECTED(4, "Disconnected"),
-    ERROR(5, "Error");
+    ERROR(5, "Error"),
+    STALE(6, "Stale");
 
     private final int code;
     private final String description;
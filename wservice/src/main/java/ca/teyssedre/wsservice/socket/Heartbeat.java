@@ -0,0 +1,241 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015. Pierre Teyssedre
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package ca.teyssedre.wsservice.socket;
+
+import java.util.Arrays;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Liveness detection of an open socket. A ping carrying its send time is emitted every
+ * {@code pingInterval} milliseconds; if no pong came back after {@code pongTimeout} milliseconds the
+ * connection is declared stale. Each pong gives a round-trip time sample, the last
+ * {@code SAMPLE_COUNT} samples are kept to compute percentiles.
+ */
+public class Heartbeat {
+
+    public static final long DEFAULT_PING_INTERVAL = 10000;
+    public static final long DEFAULT_PONG_TIMEOUT = 5000;
+    private static final int SAMPLE_COUNT = 128;
+
+    /**
+     * Actions of the socket driven by the {@link Heartbeat}.
+     */
+    interface Target {
+
+        /**
+         * @param payload {@link String} to send in the ping frame.
+         * @return false if the socket is not able to send the ping.
+         */
+        boolean SendPing(String payload);
+
+        /**
+         * Called from the timer thread when a pong was not received in time.
+         */
+        void OnStale();
+    }
+
+    //region Properties
+    private final Target target;
+    private final ScheduledExecutorService timer;
+    private final long[] samples;
+    private final Object lock;
+    private long pingInterval;
+    private long pongTimeout;
+    private ScheduledFuture<?> task;
+    private long pendingSince;
+    private long lastPingAt;
+    private int sampleCount;
+    private int sampleIndex;
+    //endregion
+
+    Heartbeat(Target target) {
+        this.target = target;
+        this.pingInterval = DEFAULT_PING_INTERVAL;
+        this.pongTimeout = DEFAULT_PONG_TIMEOUT;
+        this.samples = new long[SAMPLE_COUNT];
+        this.lock = new Object();
+        this.timer = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "WSSocket-heartbeat");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    //region Public Methods
+
+    /**
+     * Change the timings, applied on the next {@link #Start()}.
+     *
+     * @param pingInterval milliseconds between two pings, 0 to disable the heartbeat.
+     * @param pongTimeout  milliseconds to wait for a pong before declaring the socket stale.
+     */
+    public void Configure(long pingInterval, long pongTimeout) {
+        synchronized (lock) {
+            if (timer.isShutdown()) {
+                return;
+            }
+            this.pingInterval = pingInterval;
+            this.pongTimeout = pongTimeout;
+        }
+    }
+
+    /**
+     * Start to ping, to call once the socket is connected.
+     */
+    public void Start() {
+        synchronized (lock) {
+            Cancel();
+            pendingSince = 0;
+            lastPingAt = System.nanoTime();
+            if (pingInterval <= 0) {
+                return;
+            }
+            long period = Math.max(1, Math.min(pingInterval, pongTimeout) / 2);
+            task = timer.scheduleAtFixedRate(new Runnable() {
+                @Override
+                public void run() {
+                    Tick();
+                }
+            }, period, period, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Stop to ping, to call when the socket is closed.
+     */
+    public void Stop() {
+        synchronized (lock) {
+            Cancel();
+            pendingSince = 0;
+        }
+    }
+
+    /**
+     * Stop to ping and release the timer thread, the heartbeat can't be started anymore. To call
+     * when the socket is disposed.
+     */
+    public void Shutdown() {
+        synchronized (lock) {
+            Cancel();
+            pendingSince = 0;
+            pingInterval = 0;
+        }
+        timer.shutdownNow();
+    }
+
+    /**
+     * To call on every pong received by the socket.
+     *
+     * @param payload {@link String} content of the pong, the send time of the ping.
+     */
+    public void OnPong(String payload) {
+        long now = System.nanoTime();
+        long sentAt;
+        try {
+            sentAt = Long.parseLong(payload);
+        } catch (NumberFormatException e) {
+            // Unsolicited pong, it still proves the connection is alive.
+            sentAt = 0;
+        }
+        synchronized (lock) {
+            if (pendingSince != 0 && sentAt == pendingSince) {
+                samples[sampleIndex] = now - sentAt;
+                sampleIndex = (sampleIndex + 1) % SAMPLE_COUNT;
+                if (sampleCount < SAMPLE_COUNT) {
+                    sampleCount++;
+                }
+            }
+            pendingSince = 0;
+        }
+    }
+
+    /**
+     * Round-trip time percentile over the last samples.
+     *
+     * @param percentile value between 0 and 100.
+     * @return round-trip time in milliseconds, -1 if no sample has been taken yet.
+     */
+    public double getRttPercentile(double percentile) {
+        long[] sorted;
+        synchronized (lock) {
+            if (sampleCount == 0) {
+                return -1;
+            }
+            sorted = Arrays.copyOf(samples, sampleCount);
+        }
+        Arrays.sort(sorted);
+        int index = (int) Math.ceil(percentile / 100d * sorted.length) - 1;
+        index = Math.max(0, Math.min(sorted.length - 1, index));
+        return sorted[index] / 1000000d;
+    }
+    //endregion
+
+    //region Private Helper
+
+    /**
+     * Run on each period: detect the missing pong or send a new ping when the interval is elapsed.
+     */
+    private void Tick() {
+        long now = System.nanoTime();
+        boolean stale = false;
+        String payload = null;
+        synchronized (lock) {
+            if (pendingSince != 0) {
+                stale = now - pendingSince >= TimeUnit.MILLISECONDS.toNanos(pongTimeout);
+            } else if (now - lastPingAt >= TimeUnit.MILLISECONDS.toNanos(pingInterval)) {
+                // nanoTime can be 0, pendingSince must not.
+                pendingSince = now == 0 ? 1 : now;
+                lastPingAt = now;
+                payload = String.valueOf(pendingSince);
+            }
+            if (stale) {
+                Cancel();
+                pendingSince = 0;
+            }
+        }
+        if (stale) {
+            target.OnStale();
+        } else if (payload != null && !target.SendPing(payload)) {
+            synchronized (lock) {
+                pendingSince = 0;
+            }
+        }
+    }
+
+    private void Cancel() {
+        if (task != null) {
+            task.cancel(false);
+            task = null;
+        }
+    }
+    //endregion
+}
@@ -0,0 +1,208 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015. Pierre Teyssedre
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package ca.teyssedre.wsservice.socket;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicReference;
+
+import ca.teyssedre.wsservice.contract.ISocketListener;
+import ca.teyssedre.wsservice.enums.SocketState;
+
+/**
+ * Fan-out of the socket events to the registered {@link ISocketListener}. The registrations are
+ * kept in an immutable array replaced atomically on every add or remove, so the dispatch never
+ * takes a lock and never see a list being modified. Listeners registered without
+ * {@link Executor} are called inline on the socket thread without any allocation, the others are
+ * called through their {@link Executor}.
+ */
+public class ListenerDispatcher {
+
+    private static final Registration[] EMPTY = new Registration[0];
+
+    private final AtomicReference<Registration[]> registrations;
+
+    public ListenerDispatcher() {
+        this.registrations = new AtomicReference<>(EMPTY);
+    }
+
+    //region Registration
+
+    /**
+     * Register the {@code listener}, nothing is done if it's already registered.
+     *
+     * @param listener {@link ISocketListener} instance to register.
+     * @param executor {@link Executor} to deliver the events, null to deliver them inline.
+     */
+    public void Add(ISocketListener listener, Executor executor) {
+        if (listener == null) {
+            return;
+        }
+        Registration registration = new Registration(listener, executor);
+        while (true) {
+            Registration[] current = registrations.get();
+            if (IndexOf(current, listener) >= 0) {
+                return;
+            }
+            Registration[] next = new Registration[current.length + 1];
+            System.arraycopy(current, 0, next, 0, current.length);
+            next[current.length] = registration;
+            if (registrations.compareAndSet(current, next)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Unregister the {@code listener}, nothing is done if it's not registered.
+     *
+     * @param listener {@link ISocketListener} instance to remove.
+     */
+    public void Remove(ISocketListener listener) {
+        while (true) {
+            Registration[] current = registrations.get();
+            int index = IndexOf(current, listener);
+            if (index < 0) {
+                return;
+            }
+            Registration[] next;
+            if (current.length == 1) {
+                next = EMPTY;
+            } else {
+                next = new Registration[current.length - 1];
+                System.arraycopy(current, 0, next, 0, index);
+                System.arraycopy(current, index + 1, next, index, current.length - index - 1);
+            }
+            if (registrations.compareAndSet(current, next)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Snapshot of the registered listeners.
+     *
+     * @return {@link List} of {@link ISocketListener}, modifications are not reflected.
+     */
+    public List<ISocketListener> getListeners() {
+        Registration[] current = registrations.get();
+        List<ISocketListener> list = new ArrayList<>(current.length);
+        for (Registration registration : current) {
+            list.add(registration.listener);
+        }
+        return list;
+    }
+    //endregion
+
+    //region Dispatch
+    public void PushSocketState(final SocketState state) {
+        for (final Registration r : registrations.get()) {
+            if (r.executor == null) {
+                r.listener.OnNewSocketState(state);
+            } else {
+                r.executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        r.listener.OnNewSocketState(state);
+                    }
+                });
+            }
+        }
+    }
+
+    public void PushMessage(final String message) {
+        for (final Registration r : registrations.get()) {
+            if (r.executor == null) {
+                r.listener.OnNewMessage(message);
+            } else {
+                r.executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        r.listener.OnNewMessage(message);
+                    }
+                });
+            }
+        }
+    }
+
+    /**
+     * Each listener receive its own view of the {@code message} so the position of one doesn't
+     * affect the others.
+     *
+     * @param message {@link ByteBuffer} content of the binary frame.
+     */
+    public void PushBinaryMessage(ByteBuffer message) {
+        for (final Registration r : registrations.get()) {
+            final ByteBuffer view = message.duplicate();
+            if (r.executor == null) {
+                r.listener.OnNewBinaryMessage(view);
+            } else {
+                r.executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        r.listener.OnNewBinaryMessage(view);
+                    }
+                });
+            }
+        }
+    }
+
+    public void PushError(final Exception exception) {
+        for (final Registration r : registrations.get()) {
+            if (r.executor == null) {
+                r.listener.OnError(exception);
+            } else {
+                r.executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        r.listener.OnError(exception);
+                    }
+                });
+            }
+        }
+    }
+    //endregion
+
+    private static int IndexOf(Registration[] array, ISocketListener listener) {
+        for (int i = 0; i < array.length; i++) {
+            if (array[i].listener == listener) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static final class Registration {
+        final ISocketListener listener;
+        final Executor executor;
+
+        Registration(ISocketListener listener, Executor executor) {
+            this.listener = listener;
+            this.executor = executor;
+        }
+    }
+}
@@ -0,0 +1,783 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015. Pierre Teyssedre
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package ca.teyssedre.wsservice.socket;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.Charset;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+
+import ca.teyssedre.wsservice.contract.IBackpressureListener;
+import ca.teyssedre.wsservice.contract.IJournalCipher;
+import ca.teyssedre.wsservice.enums.OverflowPolicy;
+
+/**
+ * Bounded queue of the messages waiting for the socket to be connected. Messages are either
+ * {@link String} (text frames) or {@code byte[]} (binary frames).
+ * <p/>
+ * The queue is a ring buffer where producers claim slots with a compare-and-set on the tail. The
+ * head side (poll, eviction and re-insertion of the messages which could not be sent) is
+ * serialized by a lock.
+ * <p/>
+ * When a {@code journal} file is provided every accepted message is sealed by the
+ * {@link IJournalCipher} and appended to it with its position in the queue. The journal starts
+ * with the position of the head, so the messages already polled are never restored. The file is
+ * truncated when no live record is left and rewritten with the live records once the dead ones
+ * dominate.
+ * <p/>
+ * The journal is written by group commit: producers seal their record without lock and leave it
+ * in a pending list, the thread holding the journal writes every pending record and the last head
+ * position in one pass. A producer never waits for the journal, if another thread is writing it
+ * that thread writes the record too. A drain moves the head of the journal once for the whole
+ * batch. A message may then be accepted a moment before its record reaches the file, and a
+ * message polled just before the process dies may be restored and sent again.
+ */
+public class OutboundQueue {
+
+    /**
+     * Longest time a producer waits for a free slot with the {@link OverflowPolicy#BLOCK} policy
+     * before the message is rejected.
+     */
+    public static final long BLOCK_TIMEOUT_MILLIS = 5000;
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final long BLOCK_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+    private static final int HEADER_SIZE = 8;
+    private static final byte TEXT_RECORD = 0;
+    private static final byte BINARY_RECORD = 1;
+
+    //region Properties
+    private final int capacity;
+    private final int mask;
+    private final AtomicReferenceArray<Object> items;
+    private final AtomicLongArray sequences;
+    private final AtomicLong tail;
+    private final AtomicLong head;
+    private final OverflowPolicy policy;
+    private final AtomicBoolean saturated;
+    private final AtomicLong dropped;
+    private final Object headLock;
+    private final ArrayDeque<Entry> retries;
+    private volatile int retryCount;
+    private final File journal;
+    private final IJournalCipher cipher;
+    private final ReentrantLock journalLock;
+    private final ConcurrentLinkedQueue<Record> pendingRecords;
+    private volatile long headTarget;
+    private volatile long journalHead;
+    private volatile int journalRecords;
+    private long lastRecordSeq = Long.MIN_VALUE;
+    private RandomAccessFile journalFile;
+    private volatile boolean closed;
+    private volatile IBackpressureListener backpressureListener;
+    //endregion
+
+    //region Constructor
+
+    /**
+     * @param capacity minimal number of messages the queue can hold, rounded up to a power of two
+     *                 of at least 2.
+     * @param policy   {@link OverflowPolicy} to apply when the queue is full.
+     * @param journal  {@link File} where the messages are persisted, null to keep them in memory only.
+     * @param cipher   {@link IJournalCipher} sealing the messages written in the {@code journal},
+     *                 required when a {@code journal} is given.
+     */
+    public OutboundQueue(int capacity, OverflowPolicy policy, File journal, IJournalCipher cipher) {
+        if (journal != null && cipher == null) {
+            throw new IllegalArgumentException("A journal cipher is required to persist the queue");
+        }
+        // A slot is free when its sequence equals the position of the producer, a single slot
+        // would always look free once published.
+        int size = 2;
+        while (size < capacity) {
+            size <<= 1;
+        }
+        this.capacity = size;
+        this.mask = size - 1;
+        this.items = new AtomicReferenceArray<>(size);
+        this.sequences = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) {
+            sequences.set(i, i);
+        }
+        this.tail = new AtomicLong();
+        this.head = new AtomicLong();
+        this.policy = policy;
+        this.saturated = new AtomicBoolean(false);
+        this.dropped = new AtomicLong();
+        this.headLock = new Object();
+        this.retries = new ArrayDeque<>();
+        this.journal = journal;
+        this.cipher = cipher;
+        this.journalLock = new ReentrantLock();
+        this.pendingRecords = new ConcurrentLinkedQueue<>();
+        Restore();
+    }
+    //endregion
+
+    //region Public Methods
+
+    /**
+     * Add a message at the end of the queue, applying the {@link OverflowPolicy} if it's full.
+     * With the {@link OverflowPolicy#BLOCK} policy the caller waits at most
+     * {@link #BLOCK_TIMEOUT_MILLIS} for a free slot. Nothing is accepted once the queue is closed.
+     *
+     * @param message {@link String} or {@code byte[]} to queue.
+     * @return true if the message has been queued.
+     */
+    public boolean Offer(Object message) {
+        if (closed) {
+            return false;
+        }
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(BLOCK_TIMEOUT_MILLIS);
+        while (!TryOffer(message, true)) {
+            switch (policy) {
+                case REJECT:
+                    return false;
+                case DROP_OLDEST:
+                    if (PollHead() != null) {
+                        dropped.incrementAndGet();
+                    }
+                    break;
+                case BLOCK:
+                    if (System.nanoTime() - deadline >= 0 || Thread.currentThread().isInterrupted()) {
+                        return false;
+                    }
+                    LockSupport.parkNanos(BLOCK_PARK_NANOS);
+                    break;
+            }
+        }
+        Flush();
+        CheckWatermarks();
+        return true;
+    }
+
+    /**
+     * Remove the first message of the queue. The messages put back by {@link #Requeue(List)} come
+     * first. The head of the journal is moved past the message.
+     *
+     * @return {@link String} or {@code byte[]} message, null if the queue is empty.
+     */
+    public Object Poll() {
+        Object message = PollHead();
+        if (message != null) {
+            Flush();
+            CheckWatermarks();
+        }
+        return message;
+    }
+
+    /**
+     * Move up to {@code max} messages from the head of the queue into {@code batch}. The head of
+     * the journal is moved once for the whole batch.
+     *
+     * @param batch {@link List} receiving the messages in order.
+     * @param max   maximum number of messages to move.
+     * @return number of messages moved.
+     */
+    public int Drain(List<Object> batch, int max) {
+        int count = 0;
+        Object message;
+        while (count < max && (message = PollHead()) != null) {
+            batch.add(message);
+            count++;
+        }
+        if (count > 0) {
+            Flush();
+            CheckWatermarks();
+        }
+        return count;
+    }
+
+    /**
+     * Put back at the head of the queue, in the same order, messages taken by {@link #Poll()} or
+     * {@link #Drain(List, int)} which could not be sent. They will be the next ones polled and are
+     * journaled again in front of the queued messages. The queue never grows over its capacity:
+     * if new messages took the place in the meantime, the oldest of {@code messages} are dropped
+     * and counted by {@link #getDroppedCount()}.
+     *
+     * @param messages {@link List} of {@link String} or {@code byte[]} messages.
+     * @return number of messages put back.
+     */
+    public int Requeue(List<Object> messages) {
+        int kept;
+        synchronized (headLock) {
+            kept = Math.min(messages.size(), capacity - getSize());
+            if (kept <= 0) {
+                dropped.addAndGet(messages.size());
+                return 0;
+            }
+            dropped.addAndGet(messages.size() - kept);
+            long seq = FirstSeq() - kept;
+            List<Entry> entries = new ArrayList<>(kept);
+            for (Object message : messages.subList(messages.size() - kept, messages.size())) {
+                entries.add(new Entry(seq++, message));
+            }
+            for (int i = entries.size() - 1; i >= 0; i--) {
+                retries.addFirst(entries.get(i));
+            }
+            retryCount = retries.size();
+            headTarget = entries.get(0).seq;
+            if (journal != null) {
+                journalLock.lock();
+                try {
+                    WritePending();
+                    for (Entry entry : entries) {
+                        AppendRecord(entry.seq, entry.message);
+                    }
+                    WriteJournalHead(headTarget);
+                } finally {
+                    journalLock.unlock();
+                }
+            }
+        }
+        Flush();
+        CheckWatermarks();
+        return kept;
+    }
+
+    /**
+     * Write the pending records and the head of the journal, to call once every drained message
+     * has been sent. The journal is left truncated if the queue is empty.
+     *
+     * @return true if the queue was empty.
+     */
+    public boolean Commit() {
+        if (journal != null) {
+            journalLock.lock();
+            try {
+                WritePending();
+            } finally {
+                journalLock.unlock();
+            }
+            Flush();
+        }
+        return isEmpty();
+    }
+
+    public int getSize() {
+        long size = tail.get() - head.get();
+        return (int) Math.max(0, Math.min(size, capacity)) + retryCount;
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public boolean isEmpty() {
+        return getSize() == 0;
+    }
+
+    /**
+     * Flag raised while the queue is above its high watermark.
+     *
+     * @return true if the callers should slow down.
+     */
+    public boolean isSaturated() {
+        return saturated.get();
+    }
+
+    /**
+     * Number of messages discarded by the {@link OverflowPolicy#DROP_OLDEST} policy.
+     *
+     * @return count of dropped messages.
+     */
+    public long getDroppedCount() {
+        return dropped.get();
+    }
+
+    public void setBackpressureListener(IBackpressureListener backpressureListener) {
+        this.backpressureListener = backpressureListener;
+    }
+
+    /**
+     * Write the pending records and release the journal file. The queue is closed for good: the
+     * messages offered afterward are rejected and the journal is never written again, the messages
+     * still queued are restored by the next instance opened on the same journal.
+     */
+    public void Close() {
+        closed = true;
+        if (journal == null) {
+            return;
+        }
+        journalLock.lock();
+        try {
+            WritePending();
+            CloseJournal();
+        } finally {
+            journalLock.unlock();
+        }
+    }
+
+    //endregion
+
+    //region Private Helper
+
+    /**
+     * Claim the next producer slot if one is free. The record of the message is sealed once the
+     * slot is published and left to the next {@link #Flush()}, a message polled in the meantime
+     * has a dead record which is skipped.
+     *
+     * @param message {@link String} or {@code byte[]} to queue.
+     * @param persist false to skip the journal.
+     * @return false if the ring buffer is full.
+     */
+    private boolean TryOffer(Object message, boolean persist) {
+        long pos = tail.get();
+        while (true) {
+            int index = (int) (pos & mask);
+            long diff = sequences.get(index) - pos;
+            if (diff == 0) {
+                if (tail.compareAndSet(pos, pos + 1)) {
+                    items.lazySet(index, message);
+                    sequences.lazySet(index, pos + 1);
+                    if (persist && journal != null) {
+                        byte[] record = EncodeRecord(pos, message);
+                        if (record != null) {
+                            pendingRecords.add(new Record(pos, record));
+                        }
+                    }
+                    return true;
+                }
+                pos = tail.get();
+            } else if (diff < 0) {
+                return false;
+            } else {
+                pos = tail.get();
+            }
+        }
+    }
+
+    /**
+     * Take the message at the head of the ring buffer, must be called with the {@code headLock}.
+     *
+     * @return {@link String} or {@code byte[]} message, null if the ring buffer is empty or its
+     * head slot is not published yet.
+     */
+    private Object PollRing() {
+        long pos = head.get();
+        int index = (int) (pos & mask);
+        if (sequences.get(index) != pos + 1) {
+            return null;
+        }
+        Object message = items.get(index);
+        items.lazySet(index, null);
+        head.lazySet(pos + 1);
+        sequences.lazySet(index, pos + capacity);
+        return message;
+    }
+
+    /**
+     * Take the first message of the queue and move the target of the journal head past it. The
+     * journal is compacted here when the dead records dominate, otherwise it's left to the next
+     * {@link #Flush()}.
+     *
+     * @return {@link String} or {@code byte[]} message, null if the queue is empty.
+     */
+    private Object PollHead() {
+        synchronized (headLock) {
+            long seq;
+            Object message;
+            Entry retry = retries.pollFirst();
+            if (retry != null) {
+                retryCount = retries.size();
+                seq = retry.seq;
+                message = retry.message;
+            } else {
+                seq = head.get();
+                message = PollRing();
+                if (message == null) {
+                    return null;
+                }
+            }
+            headTarget = seq + 1;
+            if (journal != null && journalRecords >= capacity && journalRecords - getSize() > getSize()) {
+                journalLock.lock();
+                try {
+                    WritePending();
+                    RewriteJournal(seq + 1);
+                } finally {
+                    journalLock.unlock();
+                }
+            }
+            return message;
+        }
+    }
+
+    /**
+     * @return position of the first message of the queue, must be called with the {@code headLock}.
+     */
+    private long FirstSeq() {
+        Entry retry = retries.peekFirst();
+        return retry != null ? retry.seq : head.get();
+    }
+
+    /**
+     * Helper to raise or release the {@code saturated} flag and notify the listener on change.
+     */
+    private void CheckWatermarks() {
+        int size = getSize();
+        boolean changed;
+        boolean value;
+        if (size >= capacity - (capacity >> 2)) {
+            value = true;
+            changed = saturated.compareAndSet(false, true);
+        } else if (size <= capacity >> 2) {
+            value = false;
+            changed = saturated.compareAndSet(true, false);
+        } else {
+            return;
+        }
+        IBackpressureListener listener = backpressureListener;
+        if (changed && listener != null) {
+            listener.OnBackpressure(value, size, capacity);
+        }
+    }
+
+    //region Journal
+
+    /**
+     * Write the pending records and the head of the journal if no other thread is writing it. The
+     * caller never waits: the thread holding the journal checks for pending work again once it
+     * releases it.
+     */
+    private void Flush() {
+        if (journal == null) {
+            return;
+        }
+        while (!closed && (!pendingRecords.isEmpty() || headTarget != journalHead) && journalLock.tryLock()) {
+            try {
+                WritePending();
+            } finally {
+                journalLock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Append the pending records of the live messages and write the target head, must be called
+     * with the {@code journalLock}. The journal is truncated when the head is past every record.
+     */
+    private void WritePending() {
+        if (closed) {
+            pendingRecords.clear();
+            return;
+        }
+        Record record;
+        while ((record = pendingRecords.poll()) != null) {
+            if (record.seq >= headTarget) {
+                WriteRecord(record.seq, record.data);
+            }
+        }
+        long target = headTarget;
+        if (target > lastRecordSeq && journalRecords > 0) {
+            TruncateJournal(target);
+        } else if (target != journalHead) {
+            WriteJournalHead(target);
+        }
+    }
+
+    private RandomAccessFile OpenJournal() throws IOException {
+        if (closed) {
+            throw new IOException("Journal closed");
+        }
+        if (journalFile == null) {
+            journalFile = new RandomAccessFile(journal, "rw");
+            if (journalFile.length() < HEADER_SIZE) {
+                journalFile.setLength(0);
+                journalFile.writeLong(journalHead);
+            }
+        }
+        return journalFile;
+    }
+
+    /**
+     * Seal the {@code message} and build its record for position {@code seq}, no lock is needed.
+     *
+     * @return {@code byte[]} record, null if the message can't be sealed and is kept in memory only.
+     */
+    private byte[] EncodeRecord(long seq, Object message) {
+        try {
+            byte kind;
+            byte[] data;
+            if (message instanceof byte[]) {
+                kind = BINARY_RECORD;
+                data = (byte[]) message;
+            } else {
+                kind = TEXT_RECORD;
+                data = message.toString().getBytes(UTF8);
+            }
+            byte[] sealed = cipher.Seal(data);
+            ByteArrayOutputStream record = new ByteArrayOutputStream(sealed.length + 13);
+            DataOutputStream out = new DataOutputStream(record);
+            out.writeLong(seq);
+            out.writeByte(kind);
+            out.writeInt(sealed.length);
+            out.write(sealed);
+            return record.toByteArray();
+        } catch (IOException e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    /**
+     * Append the record of the {@code message} at position {@code seq}, must be called with the
+     * {@code journalLock}.
+     */
+    private void AppendRecord(long seq, Object message) {
+        byte[] record = EncodeRecord(seq, message);
+        if (record != null) {
+            WriteRecord(seq, record);
+        }
+    }
+
+    /**
+     * Append an encoded {@code record}, must be called with the {@code journalLock}.
+     */
+    private void WriteRecord(long seq, byte[] record) {
+        try {
+            RandomAccessFile file = OpenJournal();
+            file.seek(file.length());
+            file.write(record);
+            journalRecords++;
+            lastRecordSeq = Math.max(lastRecordSeq, seq);
+        } catch (IOException e) {
+            if (!closed) {
+                e.printStackTrace();
+            }
+            CloseJournal();
+        }
+    }
+
+    /**
+     * Write the position of the first live record, must be called with the {@code journalLock}.
+     */
+    private void WriteJournalHead(long seq) {
+        journalHead = seq;
+        try {
+            RandomAccessFile file = OpenJournal();
+            file.seek(0);
+            file.writeLong(seq);
+        } catch (IOException e) {
+            e.printStackTrace();
+            CloseJournal();
+        }
+    }
+
+    /**
+     * Drop every record, must be called with the {@code journalLock}.
+     *
+     * @param seq position of the first message of the queue.
+     */
+    private void TruncateJournal(long seq) {
+        journalHead = seq;
+        journalRecords = 0;
+        lastRecordSeq = Long.MIN_VALUE;
+        try {
+            RandomAccessFile file = OpenJournal();
+            file.setLength(0);
+            file.writeLong(journalHead);
+        } catch (IOException e) {
+            e.printStackTrace();
+            CloseJournal();
+        }
+    }
+
+    /**
+     * Replace the journal by the records of the messages currently queued, must be called with
+     * the {@code headLock} and the {@code journalLock}. Slots claimed but not published yet are
+     * skipped, their record is still pending and written by the next flush.
+     *
+     * @param seq position of the first message of the queue.
+     */
+    private void RewriteJournal(long seq) {
+        CloseJournal();
+        File previous = new File(journal.getPath() + ".old");
+        if (journal.exists() && !journal.renameTo(previous)) {
+            WriteJournalHead(seq);
+            return;
+        }
+        journalHead = seq;
+        journalRecords = 0;
+        lastRecordSeq = Long.MIN_VALUE;
+        for (Entry entry : retries) {
+            AppendRecord(entry.seq, entry.message);
+        }
+        long end = tail.get();
+        for (long pos = head.get(); pos < end; pos++) {
+            int index = (int) (pos & mask);
+            Object message = items.get(index);
+            if (sequences.get(index) == pos + 1 && message != null) {
+                AppendRecord(pos, message);
+            }
+        }
+        WriteJournalHead(seq);
+        if (!previous.delete()) {
+            previous.deleteOnExit();
+        }
+    }
+
+    /**
+     * Helper to reload in the ring buffer the messages persisted by a previous process. The
+     * records before the head of the journal have already been polled and are ignored, a record
+     * written again for the same position replaces the previous one. The journal is rewritten
+     * with the restored messages afterward.
+     */
+    private void Restore() {
+        if (journal == null) {
+            return;
+        }
+        synchronized (headLock) {
+            journalLock.lock();
+            try {
+                TreeMap<Long, Object> records = new TreeMap<>();
+                long first = Long.MIN_VALUE;
+                // Left behind if the process died while the journal was rewritten.
+                File previous = new File(journal.getPath() + ".old");
+                if (previous.exists()) {
+                    first = ReadJournal(previous, records);
+                    if (!previous.delete()) {
+                        previous.deleteOnExit();
+                    }
+                }
+                if (journal.exists()) {
+                    first = Math.max(first, ReadJournal(journal, records));
+                }
+                for (Object message : records.tailMap(first, true).values()) {
+                    if (!TryOffer(message, false) && policy == OverflowPolicy.DROP_OLDEST) {
+                        PollRing();
+                        dropped.incrementAndGet();
+                        TryOffer(message, false);
+                    }
+                }
+                headTarget = head.get();
+                RewriteJournal(headTarget);
+            } finally {
+                journalLock.unlock();
+            }
+        }
+        CheckWatermarks();
+    }
+
+    /**
+     * Read the records of the {@code source} journal into {@code records}.
+     *
+     * @param source  {@link File} of the journal.
+     * @param records messages by position, a record replaces the previous one at the same position.
+     * @return position of the head of the journal.
+     */
+    private long ReadJournal(File source, TreeMap<Long, Object> records) {
+        long first = Long.MIN_VALUE;
+        RandomAccessFile in = null;
+        try {
+            in = new RandomAccessFile(source, "r");
+            first = in.readLong();
+            while (true) {
+                long seq;
+                try {
+                    seq = in.readLong();
+                } catch (EOFException e) {
+                    break;
+                }
+                byte kind = in.readByte();
+                byte[] sealed = new byte[in.readInt()];
+                in.readFully(sealed);
+                try {
+                    byte[] data = cipher.Open(sealed);
+                    records.put(seq, kind == BINARY_RECORD ? data : new String(data, UTF8));
+                } catch (IOException e) {
+                    // A record that can't be opened can't be sent either.
+                    records.remove(seq);
+                }
+            }
+        } catch (IOException e) {
+            // A truncated record is the trace of a crash during the write, keep what was read.
+            e.printStackTrace();
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+        return first;
+    }
+
+    private void CloseJournal() {
+        if (journalFile != null) {
+            try {
+                journalFile.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            journalFile = null;
+        }
+    }
+    //endregion
+    //endregion
+
+    /**
+     * Sealed record waiting for the next {@link #Flush()}.
+     */
+    private static class Record {
+        private final long seq;
+        private final byte[] data;
+
+        private Record(long seq, byte[] data) {
+            this.seq = seq;
+            this.data = data;
+        }
+    }
+
+    /**
+     * Message put back at the head of the queue with its position in the journal.
+     */
+    private static class Entry {
+        private final long seq;
+        private final Object message;
+
+        private Entry(long seq, Object message) {
+            this.seq = seq;
+            this.message = message;
+        }
+    }
+}
@@ -0,0 +1,249 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015. Pierre Teyssedre
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package ca.teyssedre.wsservice.socket;
+
+import java.util.Random;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import ca.teyssedre.wsservice.contract.IReconnectListener;
+
+/**
+ * Schedule the connection attempts of a {@link WSSocket} after the socket has been lost. The delay
+ * before an attempt is picked at random between 0 and {@code baseDelay * 2^attempt} (capped to
+ * {@code maxDelay}), the "full jitter" strategy, so a fleet of clients losing the same server
+ * doesn't come back at the same time. A connection that stayed open for {@code stableAfter}
+ * milliseconds resets the backoff, the next loss is retried right away.
+ */
+public class ReconnectScheduler {
+
+    public static final long DEFAULT_BASE_DELAY = 500;
+    public static final long DEFAULT_MAX_DELAY = 60000;
+    public static final int DEFAULT_MAX_ATTEMPTS = 20;
+    public static final long DEFAULT_STABLE_AFTER = 30000;
+
+    //region Properties
+    private final long baseDelay;
+    private final long maxDelay;
+    private final int maxAttempts;
+    private final long stableAfter;
+    private final Random random;
+    private final ScheduledExecutorService timer;
+    private final Object lock;
+    private ScheduledFuture<?> pending;
+    private int attempts;
+    private long connectedAt;
+    private boolean enabled;
+    private boolean shutdown;
+    private volatile IReconnectListener listener;
+    //endregion
+
+    public ReconnectScheduler() {
+        this(DEFAULT_BASE_DELAY, DEFAULT_MAX_DELAY, DEFAULT_MAX_ATTEMPTS, DEFAULT_STABLE_AFTER);
+    }
+
+    /**
+     * @param baseDelay   milliseconds of the first backoff window.
+     * @param maxDelay    maximum milliseconds of a backoff window.
+     * @param maxAttempts number of attempts before giving up, 0 to retry forever.
+     * @param stableAfter milliseconds after which an open connection resets the backoff.
+     */
+    public ReconnectScheduler(long baseDelay, long maxDelay, int maxAttempts, long stableAfter) {
+        this.baseDelay = baseDelay;
+        this.maxDelay = maxDelay;
+        this.maxAttempts = maxAttempts;
+        this.stableAfter = stableAfter;
+        this.random = new Random();
+        this.lock = new Object();
+        this.timer = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "WSSocket-reconnect");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    //region Public Methods
+
+    /**
+     * Allow the scheduler to retry, to call on every explicit connect. A pending attempt is
+     * cancelled since the caller is already connecting.
+     */
+    public void Enable() {
+        synchronized (lock) {
+            CancelPending();
+            enabled = !shutdown;
+            attempts = 0;
+        }
+    }
+
+    /**
+     * Stop any pending attempt and prevent new ones, to call on an explicit disconnect.
+     */
+    public void Disable() {
+        synchronized (lock) {
+            enabled = false;
+            CancelPending();
+        }
+    }
+
+    /**
+     * Stop any pending attempt and release the timer thread, the scheduler can't be enabled
+     * anymore. To call when the socket is disposed.
+     */
+    public void Shutdown() {
+        synchronized (lock) {
+            shutdown = true;
+            enabled = false;
+            CancelPending();
+        }
+        timer.shutdownNow();
+    }
+
+    /**
+     * Notify the scheduler that the socket is connected. The listener is called outside of the
+     * lock, like for every event of the scheduler.
+     *
+     * @return number of attempts that were needed, 0 if it was not a reconnection.
+     */
+    public int OnConnected() {
+        int made;
+        synchronized (lock) {
+            CancelPending();
+            connectedAt = System.currentTimeMillis();
+            made = attempts;
+        }
+        IReconnectListener current = listener;
+        if (made > 0 && current != null) {
+            current.OnReconnected(made);
+        }
+        return made;
+    }
+
+    /**
+     * Notify the scheduler that the socket has been lost or couldn't be opened and schedule the
+     * next attempt. Calling it again while an attempt is pending has no effect.
+     *
+     * @param reconnect {@link Runnable} opening the socket again.
+     * @return true if an attempt has been scheduled.
+     */
+    public boolean OnConnectionLost(Runnable reconnect) {
+        int made;
+        long delay;
+        synchronized (lock) {
+            if (!enabled || pending != null) {
+                return false;
+            }
+            if (connectedAt > 0 && System.currentTimeMillis() - connectedAt >= stableAfter) {
+                // The last connection was healthy, this is a new outage.
+                attempts = 0;
+            }
+            connectedAt = 0;
+            made = attempts;
+            if (maxAttempts > 0 && attempts >= maxAttempts) {
+                enabled = false;
+                delay = -1;
+            } else {
+                delay = NextDelay(attempts);
+                attempts++;
+                pending = timer.schedule(new Attempt(reconnect), delay, TimeUnit.MILLISECONDS);
+            }
+        }
+        IReconnectListener current = listener;
+        if (delay < 0) {
+            if (current != null) {
+                current.OnReconnectAbandoned(made);
+            }
+            return false;
+        }
+        if (current != null) {
+            current.OnReconnectScheduled(made + 1, delay);
+        }
+        return true;
+    }
+
+    public int getAttempts() {
+        synchronized (lock) {
+            return attempts;
+        }
+    }
+
+    public void setListener(IReconnectListener listener) {
+        this.listener = listener;
+    }
+    //endregion
+
+    //region Private Helper
+
+    /**
+     * Full jitter backoff: a random delay between 0 and the exponential window of the attempt.
+     *
+     * @param attempt number of attempts already made.
+     * @return milliseconds before the next attempt.
+     */
+    private long NextDelay(int attempt) {
+        if (attempt == 0) {
+            return 0;
+        }
+        long window = baseDelay << Math.min(attempt - 1, 30);
+        if (window <= 0 || window > maxDelay) {
+            window = maxDelay;
+        }
+        return (long) (random.nextDouble() * window);
+    }
+
+    private void CancelPending() {
+        if (pending != null) {
+            pending.cancel(false);
+            pending = null;
+        }
+    }
+
+    private class Attempt implements Runnable {
+
+        private final Runnable reconnect;
+
+        Attempt(Runnable reconnect) {
+            this.reconnect = reconnect;
+        }
+
+        @Override
+        public void run() {
+            synchronized (lock) {
+                pending = null;
+                if (!enabled) {
+                    return;
+                }
+            }
+            reconnect.run();
+        }
+    }
+    //endregion
+}
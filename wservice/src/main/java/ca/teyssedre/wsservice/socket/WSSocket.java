@@ -24,6 +24,8 @@
 
 package ca.teyssedre.wsservice.socket;
 
+import android.util.Log;
+
 import com.koushikdutta.async.ByteBufferList;
 import com.koushikdutta.async.DataEmitter;
 import com.koushikdutta.async.callback.CompletedCallback;
@@ -31,35 +33,82 @@ import com.koushikdutta.async.callback.DataCallback;
 import com.koushikdutta.async.http.AsyncHttpClient;
 import com.koushikdutta.async.http.WebSocket;
 
+import java.io.File;
+import java.nio.ByteBuffer;
 import java.security.KeyManagementException;
 import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.net.ssl.TrustManager;
 
+import ca.teyssedre.wsservice.contract.IBackpressureListener;
+import ca.teyssedre.wsservice.contract.IJournalCipher;
+import ca.teyssedre.wsservice.contract.IReconnectListener;
 import ca.teyssedre.wsservice.contract.ISocketListener;
+import ca.teyssedre.wsservice.enums.OverflowPolicy;
 import ca.teyssedre.wsservice.enums.SocketState;
 import ca.teyssedre.wsservice.utils.NoSSLValidation;
 
 public class WSSocket implements AsyncHttpClient.WebSocketConnectCallback,
-        WebSocket.StringCallback, DataCallback, CompletedCallback {
+        WebSocket.StringCallback, WebSocket.PongCallback, DataCallback, CompletedCallback {
 
     public static final String TAG = "WSSocket";
+    public static final int DEFAULT_QUEUE_CAPACITY = 256;
+    private static final int QUEUE_BATCH_SIZE = 32;
 
     //region Properties
-    private WebSocket websocket;
-    private List<String> queueMsg;
-    private List<ISocketListener> listeners;
+    private volatile WebSocket websocket;
+    private final OutboundQueue queueMsg;
+    private final ListenerDispatcher listeners;
+    private final ReconnectScheduler reconnectScheduler;
+    private final Heartbeat heartbeat;
+    private String protocol;
+    private String host;
+    private int port;
+    private String path;
     private Exception exception;
-    private SocketState socketState = SocketState.UNKNOWN;
+    private volatile SocketState socketState = SocketState.UNKNOWN;
+    private final AtomicLong connections = new AtomicLong();
+    private volatile long connectionId = -1;
     //endregion
 
     //region Constructor
     public WSSocket() {
-        this.queueMsg = new ArrayList<>();
-        this.listeners = new ArrayList<>();
+        this(DEFAULT_QUEUE_CAPACITY, OverflowPolicy.DROP_OLDEST, null, null);
+    }
+
+    /**
+     * @param queueCapacity  maximum number of messages kept while the socket is not connected.
+     * @param overflowPolicy {@link OverflowPolicy} to apply when the queue is full.
+     * @param queueJournal   {@link File} where queued messages are persisted, null to keep them in
+     *                       memory only.
+     * @param journalCipher  {@link IJournalCipher} sealing the messages written in the
+     *                       {@code queueJournal}, required when a {@code queueJournal} is given.
+     */
+    public WSSocket(int queueCapacity, OverflowPolicy overflowPolicy, File queueJournal, IJournalCipher journalCipher) {
+        this.queueMsg = new OutboundQueue(queueCapacity, overflowPolicy, queueJournal, journalCipher);
+        this.listeners = new ListenerDispatcher();
+        this.reconnectScheduler = new ReconnectScheduler();
+        this.heartbeat = new Heartbeat(new Heartbeat.Target() {
+            @Override
+            public boolean SendPing(String payload) {
+                WebSocket ws = websocket;
+                if (ws == null) {
+                    return false;
+                }
+                ws.ping(payload);
+                return true;
+            }
+
+            @Override
+            public void OnStale() {
+                DropStaleSocket();
+            }
+        });
         setSocketState(SocketState.INITIALIZE);
     }
     //endregion
@@ -73,10 +122,54 @@ public class WSSocket implements AsyncHttpClient.WebSocketConnectCallback,
      * @param path     {@link String} path to add has extension.
      */
     public void Connect(String protocol, String host, int port, String path) {
+        this.protocol = protocol;
+        this.host = host;
+        this.port = port;
+        this.path = path;
+        reconnectScheduler.Enable();
+        Reconnect();
+    }
+
+    /**
+     * Open the socket again with the parameters of the last {@link #Connect(String, String, int, String)}.
+     */
+    private void Reconnect() {
         setSocketState(SocketState.CONNECTING);
         AsyncHttpClient.getDefaultInstance().websocket(BuildHostString(protocol, host, port, path), null, this);
     }
 
+    /**
+     * Helper called when a pong is missing: the socket is detached from its callbacks so a late
+     * close doesn't interfere, then closed, and a new connection is scheduled.
+     */
+    private void DropStaleSocket() {
+        WebSocket ws = this.websocket;
+        // The state leaves CONNECTED before the socket is released, see getConnectedSocket().
+        setSocketState(SocketState.STALE);
+        this.websocket = null;
+        if (ws != null) {
+            ws.setStringCallback(null);
+            ws.setDataCallback(null);
+            ws.setPongCallback(null);
+            ws.setClosedCallback(null);
+            ws.setEndCallback(null);
+            ws.close();
+        }
+        ScheduleReconnect();
+    }
+
+    /**
+     * Helper to ask the {@link ReconnectScheduler} for a new attempt after the socket was lost.
+     */
+    private void ScheduleReconnect() {
+        reconnectScheduler.OnConnectionLost(new Runnable() {
+            @Override
+            public void run() {
+                Reconnect();
+            }
+        });
+    }
+
 
     /**
      * Help function to build the string connection using parameters.
@@ -129,45 +222,176 @@ public class WSSocket implements AsyncHttpClient.WebSocketConnectCallback,
     }
 
     /**
-     *
+     * Close the socket and the outbound queue. The messages sent afterward are rejected, the
+     * messages still queued stay in the journal for the next {@link WSSocket} opened on it.
      */
     public void Disconnect() {
-        if (isSocketConnected()) {
-            this.websocket.close();
+        reconnectScheduler.Disable();
+        WebSocket ws = getConnectedSocket();
+        if (ws != null) {
+            ws.close();
         }
+        queueMsg.Close();
+    }
+
+    /**
+     * Disconnect the socket and release the threads of the reconnect scheduler and of the
+     * heartbeat. The socket can't be connected again afterward.
+     */
+    public void Dispose() {
+        Disconnect();
+        reconnectScheduler.Shutdown();
+        heartbeat.Shutdown();
     }
 
     /**
      * @param message
      */
     public void Send(String message) {
-        if (isSocketConnected()) {
-            this.websocket.send(message);
+        WebSocket ws = getConnectedSocket();
+        if (ws != null) {
+            ws.send(message);
         } else {
             AddToQueue(message);
         }
     }
 
     /**
-     * @param listener
+     * Send the {@code message} as a binary frame.
+     *
+     * @param message {@code byte[]} content to send.
      */
-    public void AddListener(ISocketListener listener) {
-        if (!listeners.contains(listener)) {
-            listeners.add(listener);
+    public void Send(byte[] message) {
+        WebSocket ws = getConnectedSocket();
+        if (ws != null) {
+            ws.send(message);
+        } else {
+            AddToQueue(message);
         }
     }
 
     /**
-     * @param listener
+     * Send the {@code message} as a binary frame only if the connection {@code connection} is still
+     * open, the frame is never queued. Used for the content written in a format agreed with the peer
+     * of that connection, which the peer of the next connection may not read.
+     *
+     * @param message    {@code byte[]} content to send.
+     * @param connection identifier of the connection, see {@link #getConnectionId()}.
+     * @return true if the frame was sent, false if that connection is not open anymore.
      */
-    public void RemoveListener(ISocketListener listener) {
-        Iterator<ISocketListener> iterator = listeners.iterator();
-        while (iterator.hasNext()) {
-            ISocketListener list = iterator.next();
-            if (list == listener) {
-                iterator.remove();
+    public boolean SendOnConnection(byte[] message, long connection) {
+        // The socket is read before the identifier, which is set before the socket on connect.
+        WebSocket ws = getConnectedSocket();
+        if (ws == null || connectionId != connection) {
+            return false;
+        }
+        ws.send(message);
+        return true;
+    }
+
+    /**
+     * Send the remaining bytes of {@code message} as a binary frame. When the buffer is backed by an
+     * array it is sent without copy, the position of {@code message} is not modified.
+     *
+     * @param message {@link ByteBuffer} content to send.
+     */
+    public void Send(ByteBuffer message) {
+        if (message.hasArray()) {
+            WebSocket ws = getConnectedSocket();
+            if (ws != null) {
+                ws.send(message.array(), message.arrayOffset() + message.position(), message.remaining());
+                return;
             }
         }
+        byte[] copy = new byte[message.remaining()];
+        message.duplicate().get(copy);
+        Send(copy);
+    }
+
+    /**
+     * Register the {@code listener} notified when the outbound queue becomes saturated or is
+     * released.
+     *
+     * @param listener {@link IBackpressureListener} instance, null to remove the current one.
+     */
+    public void setBackpressureListener(IBackpressureListener listener) {
+        queueMsg.setBackpressureListener(listener);
+    }
+
+    /**
+     * Register the {@code listener} notified of the automatic reconnection attempts. Once
+     * reconnected, the queued outbound messages are pushed before
+     * {@link IReconnectListener#OnReconnected(int)} is called.
+     *
+     * @param listener {@link IReconnectListener} instance, null to remove the current one.
+     */
+    public void setReconnectListener(IReconnectListener listener) {
+        reconnectScheduler.setListener(listener);
+    }
+
+    /**
+     * Configure the liveness detection, applied on the next connection.
+     *
+     * @param pingInterval milliseconds between two pings, 0 to disable the heartbeat.
+     * @param pongTimeout  milliseconds to wait for a pong before the socket is considered
+     *                     {@link SocketState#STALE}.
+     */
+    public void setHeartbeat(long pingInterval, long pongTimeout) {
+        heartbeat.Configure(pingInterval, pongTimeout);
+    }
+
+    /**
+     * Round-trip time percentile measured by the heartbeat over the last samples.
+     *
+     * @param percentile value between 0 and 100, e.g. 50 for the median.
+     * @return round-trip time in milliseconds, -1 if no sample has been taken yet.
+     */
+    public double getRttPercentile(double percentile) {
+        return heartbeat.getRttPercentile(percentile);
+    }
+
+    /**
+     * Flag raised while the outbound queue is above its high watermark.
+     *
+     * @return true if the callers should slow down.
+     */
+    public boolean isBackpressured() {
+        return queueMsg.isSaturated();
+    }
+
+    /**
+     * Getter of the number of messages waiting for the socket to be connected.
+     *
+     * @return number of queued messages.
+     */
+    public int getQueueSize() {
+        return queueMsg.getSize();
+    }
+
+    /**
+     * Register the {@code listener}, the events are delivered inline on the socket thread.
+     *
+     * @param listener {@link ISocketListener} instance to register.
+     */
+    public void AddListener(ISocketListener listener) {
+        listeners.Add(listener, null);
+    }
+
+    /**
+     * Register the {@code listener}, the events are delivered through the {@code executor}.
+     *
+     * @param listener {@link ISocketListener} instance to register.
+     * @param executor {@link Executor} to deliver the events, null to deliver them inline.
+     */
+    public void AddListener(ISocketListener listener, Executor executor) {
+        listeners.Add(listener, executor);
+    }
+
+    /**
+     * @param listener {@link ISocketListener} instance to remove.
+     */
+    public void RemoveListener(ISocketListener listener) {
+        listeners.Remove(listener);
     }
 
     //region AsyncHttpClient.WebSocketConnectCallback Implementation
@@ -183,18 +407,24 @@ public class WSSocket implements AsyncHttpClient.WebSocketConnectCallback,
     @Override
     public void onCompleted(Exception ex, WebSocket webSocket) {
         if (ex != null) {
-            setSocketState(SocketState.FAILED);
             ex.printStackTrace();
             this.exception = ex;
+            setSocketState(SocketState.FAILED);
             this.websocket = null;
+            ScheduleReconnect();
         } else {
-            setSocketState(SocketState.CONNECTED);
+            // The socket must be set before the state is pushed, listeners may send right away.
+            this.connectionId = connections.incrementAndGet();
             this.websocket = webSocket;
-            this.websocket.setStringCallback(this);
-            this.websocket.setClosedCallback(this);
-            this.websocket.setEndCallback(this);
-            this.websocket.setDataCallback(this);
+            webSocket.setStringCallback(this);
+            webSocket.setClosedCallback(this);
+            webSocket.setEndCallback(this);
+            webSocket.setDataCallback(this);
+            webSocket.setPongCallback(this);
+            setSocketState(SocketState.CONNECTED);
             ProcessQueueMessage();
+            reconnectScheduler.OnConnected();
+            heartbeat.Start();
         }
     }
     //endregion
@@ -209,9 +439,13 @@ public class WSSocket implements AsyncHttpClient.WebSocketConnectCallback,
      */
     @Override
     public void onCompleted(Exception ex) {
+        heartbeat.Stop();
         setSocketState(ex != null ? SocketState.ERROR : SocketState.DISCONNECTED);
-        setException(ex);
         this.websocket = null;
+        if (ex != null) {
+            setException(ex);
+        }
+        ScheduleReconnect();
     }
     //endregion
 
@@ -219,13 +453,29 @@ public class WSSocket implements AsyncHttpClient.WebSocketConnectCallback,
 
     /**
      * The WebSocket protocol allow a data transfer (binary) in that case this method will be called.
+     * The frame is handed to every {@link ISocketListener} as a {@link ByteBuffer} view, the
+     * {@link ByteBufferList} is only merged when the frame was received in several chunks.
      *
-     * @param emitter
-     * @param bb
+     * @param emitter {@link DataEmitter} source of the data.
+     * @param bb      {@link ByteBufferList} content of the binary frame.
      */
     @Override
     public void onDataAvailable(DataEmitter emitter, ByteBufferList bb) {
+        ByteBuffer message = bb.getAll();
+        PushBinaryMessage(message);
+    }
+    //endregion
+
+    //region WebSocket.PongCallback Implementation
 
+    /**
+     * Every pong received proves the connection is alive and gives a round-trip time sample.
+     *
+     * @param s {@link String} payload of the pong, the payload of the matching ping.
+     */
+    @Override
+    public void onPongReceived(String s) {
+        heartbeat.OnPong(s);
     }
     //endregion
 
@@ -244,7 +494,7 @@ public class WSSocket implements AsyncHttpClient.WebSocketConnectCallback,
 
     //endregion
     public List<ISocketListener> getListeners() {
-        return listeners;
+        return listeners.getListeners();
     }
 
     public void setException(Exception exception) {
@@ -257,27 +507,44 @@ public class WSSocket implements AsyncHttpClient.WebSocketConnectCallback,
     //region Private Helper
 
     /**
-     * Helper to add message to the queue. The queue is locked to add new message to it to
-     * avoid {@link java.util.ConcurrentModificationException}.
+     * Helper to add message to the queue. The producers of the {@link OutboundQueue} never wait
+     * for the journal, the {@link OverflowPolicy} is applied when it's full. Nothing is queued once
+     * the socket has been disconnected.
      *
-     * @param message {@link String} instance to store in the queue.
+     * @param message {@link String} or {@code byte[]} instance to store in the queue.
      */
-    private void AddToQueue(String message) {
-        queueMsg.add(message);
+    private void AddToQueue(Object message) {
+        if (!queueMsg.Offer(message)) {
+            Log.e(TAG, "Outbound queue full or closed, message rejected");
+        }
     }
 
     /**
      * Helper to go over the {@code queueMsg} to push all message queued before the opening of the socket.
-     * During the process the queue is locked to avoid {@link java.util.ConcurrentModificationException}.
+     * The queue is drained by batch of {@code QUEUE_BATCH_SIZE} and the journal is truncated once
+     * it's empty. If the socket is lost during the process the remaining messages are put back at
+     * the head of the queue.
      */
     private void ProcessQueueMessage() {
-        if (this.socketState == SocketState.CONNECTED && this.websocket != null) {
-            Iterator<String> iterator = queueMsg.iterator();
-            while (iterator.hasNext()) {
-                String msg = iterator.next();
-                this.websocket.send(msg);
+        List<Object> batch = new ArrayList<>(QUEUE_BATCH_SIZE);
+        while (getConnectedSocket() != null) {
+            if (queueMsg.Drain(batch, QUEUE_BATCH_SIZE) == 0) {
+                queueMsg.Commit();
+                return;
+            }
+            Iterator<Object> iterator = batch.iterator();
+            WebSocket ws;
+            while (iterator.hasNext() && (ws = getConnectedSocket()) != null) {
+                Object msg = iterator.next();
+                if (msg instanceof byte[]) {
+                    ws.send((byte[]) msg);
+                } else {
+                    ws.send((String) msg);
+                }
                 iterator.remove();
             }
+            queueMsg.Requeue(batch);
+            batch.clear();
         }
     }
 
@@ -285,21 +552,27 @@ public class WSSocket implements AsyncHttpClient.WebSocketConnectCallback,
      * Helper to propagate the current {@code state} of the socket to all register {@link ISocketListener}.
      */
     private void PushSocketState() {
-        for (ISocketListener listener : listeners) {
-            listener.OnNewSocketState(this.socketState);
-        }
+        listeners.PushSocketState(this.socketState);
     }
 
     /**
-     * Helper to propagate the message to all register {@link ISocketListener}. During the process
-     * the {@code listeners} list is locked to avoid {@link java.util.ConcurrentModificationException}.
+     * Helper to propagate the message to all register {@link ISocketListener}. The dispatch works
+     * on a snapshot of the {@code listeners}, no lock is taken.
      *
      * @param message {@link String} message
      */
     private void PushMessage(String message) {
-        for (ISocketListener listener : listeners) {
-            listener.OnNewMessage(message);
-        }
+        listeners.PushMessage(message);
+    }
+
+    /**
+     * Helper to propagate a binary message to all register {@link ISocketListener}. Each listener
+     * receive its own view so the position of one doesn't affect the others.
+     *
+     * @param message {@link ByteBuffer} content of the binary frame.
+     */
+    private void PushBinaryMessage(ByteBuffer message) {
+        listeners.PushBinaryMessage(message);
     }
 
     /**
@@ -325,19 +598,36 @@ public class WSSocket implements AsyncHttpClient.WebSocketConnectCallback,
     }
 
     /**
-     * Helper to propagate the {@code exception} to all register {@link ISocketListener}. During the process
-     * the {@code listeners} list is locked to avoid {@link java.util.ConcurrentModificationException}.
+     * Read the {@code websocket} once, for the callers which send on it. The state always leaves
+     * {@link SocketState#CONNECTED} before the field is cleared, and the field is read before the
+     * state, so a socket returned here was connected when it was read.
+     *
+     * @return {@link WebSocket} instance, null if the socket is not connected.
+     */
+    private WebSocket getConnectedSocket() {
+        WebSocket ws = this.websocket;
+        return ws != null && isSocketConnected() ? ws : null;
+    }
+
+    /**
+     * Helper to propagate the {@code exception} to all register {@link ISocketListener}. The dispatch
+     * works on a snapshot of the {@code listeners}, no lock is taken.
      */
     private void PushError() {
-        for (ISocketListener listener : listeners) {
-            listener.OnError(exception);
-        }
+        listeners.PushError(exception);
     }
 
     public Exception getException() {
         return exception;
     }
 
+    /**
+     * @return identifier of the last connection opened, -1 if the socket never connected.
+     */
+    public long getConnectionId() {
+        return connectionId;
+    }
+
     public SocketState getSocketState() {
         return socketState;
     }
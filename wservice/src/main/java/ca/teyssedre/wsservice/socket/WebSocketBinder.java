@@ -26,6 +26,8 @@ package ca.teyssedre.wsservice.socket;
 
 import android.os.Binder;
 
+import java.nio.ByteBuffer;
+
 import ca.teyssedre.wsservice.contract.ISocketListener;
 import ca.teyssedre.wsservice.contract.IWebSocketService;
 import ca.teyssedre.wsservice.enums.SocketState;
@@ -52,6 +54,24 @@ public class WebSocketBinder extends Binder {
         websocket.Send(s);
     }
 
+    /**
+     * Sending binary content through the socket.
+     *
+     * @param data {@code byte[]} content to send as a binary frame.
+     */
+    public void Send(byte[] data) {
+        websocket.Send(data);
+    }
+
+    /**
+     * Sending binary content through the socket.
+     *
+     * @param data {@link ByteBuffer} remaining content to send as a binary frame.
+     */
+    public void Send(ByteBuffer data) {
+        websocket.Send(data);
+    }
+
     //<editor-fold desc="Use SSL Connection">
 
     /**
@@ -162,6 +182,16 @@ public class WebSocketBinder extends Binder {
         return websocket.getSocketState();
     }
 
+    /**
+     * Round-trip time percentile measured by the heartbeat of the socket.
+     *
+     * @param percentile value between 0 and 100, e.g. 50 for the median.
+     * @return round-trip time in milliseconds, -1 if no sample has been taken yet.
+     */
+    public double getRttPercentile(double percentile) {
+        return websocket.getRttPercentile(percentile);
+    }
+
     public void Connect(String host, int port) {
         Connect(host,port,null);
     }
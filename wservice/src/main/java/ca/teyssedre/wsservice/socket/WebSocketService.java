@@ -30,14 +30,28 @@ import android.content.Intent;
 import android.os.IBinder;
 import android.support.annotation.Nullable;
 
+import java.nio.ByteBuffer;
+
 import ca.teyssedre.wsservice.contract.ISocketListener;
 import ca.teyssedre.wsservice.contract.IWebSocketService;
+import ca.teyssedre.wsservice.enums.OverflowPolicy;
 import ca.teyssedre.wsservice.enums.SocketState;
 
 public class WebSocketService extends Service implements IWebSocketService {
 
+    private static final String LEGACY_QUEUE_JOURNAL = "wsservice_outbound.queue";
+
     private WSSocket socket;
 
+    @Override
+    public void onDestroy() {
+        if (socket != null) {
+            socket.Dispose();
+            socket = null;
+        }
+        super.onDestroy();
+    }
+
     /**
      * Return the communication channel to the service.  May return null if
      * clients can not bind to the service.  The returned
@@ -62,7 +76,10 @@ public class WebSocketService extends Service implements IWebSocketService {
     @Override
     public IBinder onBind(Intent intent) {
         if (socket == null) {
-            socket = new WSSocket();
+            // The service has no key to seal a journal, its queue is kept in memory and the
+            // plaintext journal of the previous versions is removed.
+            deleteFile(LEGACY_QUEUE_JOURNAL);
+            socket = new WSSocket(WSSocket.DEFAULT_QUEUE_CAPACITY, OverflowPolicy.DROP_OLDEST, null, null);
         }
         return new WebSocketBinder(this);
     }
@@ -104,6 +121,27 @@ public class WebSocketService extends Service implements IWebSocketService {
         socket.Send(message);
     }
 
+    /**
+     * Binary version of {@link #Send(String)}, the {@code message} is sent as a binary frame.
+     *
+     * @param message {@code byte[]} content to send.
+     */
+    @Override
+    public void Send(byte[] message) {
+        socket.Send(message);
+    }
+
+    /**
+     * Binary version of {@link #Send(String)}, the remaining bytes of {@code message} are sent as
+     * a binary frame.
+     *
+     * @param message {@link ByteBuffer} content to send.
+     */
+    @Override
+    public void Send(ByteBuffer message) {
+        socket.Send(message);
+    }
+
     /**
      * Disconnect the socket and reset the {@link ca.teyssedre.wsservice.enums.SocketState} of the
      * {@link WebSocketService}.
@@ -156,4 +194,15 @@ public class WebSocketService extends Service implements IWebSocketService {
     public SocketState getSocketState(){
         return socket.getSocketState();
     }
+
+    /**
+     * Round-trip time percentile measured by the heartbeat of the socket.
+     *
+     * @param percentile value between 0 and 100, e.g. 50 for the median.
+     * @return round-trip time in milliseconds, -1 if no sample has been taken yet.
+     */
+    @Override
+    public double getRttPercentile(double percentile) {
+        return socket.getRttPercentile(percentile);
+    }
 }
@@ -0,0 +1,77 @@
+package ca.teyssedre.wsservice.socket;
+
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+public class HeartbeatTest {
+
+    private static class Target implements Heartbeat.Target {
+        final AtomicInteger pings = new AtomicInteger();
+        final AtomicReference<Heartbeat> answer = new AtomicReference<>();
+        final CountDownLatch stale = new CountDownLatch(1);
+
+        @Override
+        public boolean SendPing(String payload) {
+            pings.incrementAndGet();
+            Heartbeat heartbeat = answer.get();
+            if (heartbeat != null) {
+                heartbeat.OnPong(payload);
+            }
+            return true;
+        }
+
+        @Override
+        public void OnStale() {
+            stale.countDown();
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void missingPong_declaresTheSocketStale() throws Exception {
+        Target target = new Target();
+        Heartbeat heartbeat = new Heartbeat(target);
+        try {
+            heartbeat.Configure(20, 40);
+            heartbeat.Start();
+            assertTrue(target.stale.await(5, TimeUnit.SECONDS));
+            assertEquals(1, target.pings.get());
+        } finally {
+            heartbeat.Shutdown();
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void pongs_giveRoundTripSamples() throws Exception {
+        Target target = new Target();
+        Heartbeat heartbeat = new Heartbeat(target);
+        target.answer.set(heartbeat);
+        try {
+            heartbeat.Configure(10, 1000);
+            heartbeat.Start();
+            while (heartbeat.getRttPercentile(50) < 0) {
+                Thread.sleep(5);
+            }
+            assertEquals(1, target.stale.getCount());
+            assertTrue(heartbeat.getRttPercentile(99) >= 0);
+        } finally {
+            heartbeat.Shutdown();
+        }
+    }
+
+    @Test
+    public void shutdown_preventsNewPings() throws Exception {
+        Target target = new Target();
+        Heartbeat heartbeat = new Heartbeat(target);
+        heartbeat.Shutdown();
+        heartbeat.Configure(10, 20);
+        heartbeat.Start();
+        Thread.sleep(50);
+        assertEquals(0, target.pings.get());
+    }
+}
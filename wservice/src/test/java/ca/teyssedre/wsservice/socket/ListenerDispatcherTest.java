@@ -0,0 +1,193 @@
+package ca.teyssedre.wsservice.socket;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import ca.teyssedre.wsservice.contract.ISocketListener;
+import ca.teyssedre.wsservice.enums.SocketState;
+
+import static org.junit.Assert.*;
+
+public class ListenerDispatcherTest {
+
+    private static class CountingListener implements ISocketListener {
+        final AtomicInteger messages = new AtomicInteger();
+        final List<ByteBuffer> buffers = new ArrayList<>();
+
+        @Override
+        public void OnNewSocketState(SocketState state) {
+        }
+
+        @Override
+        public void OnNewMessage(String message) {
+            messages.incrementAndGet();
+        }
+
+        @Override
+        public void OnNewBinaryMessage(ByteBuffer message) {
+            buffers.add(message);
+        }
+
+        @Override
+        public void OnError(Exception exception) {
+        }
+
+        @Override
+        public void Dispose() {
+        }
+
+        @Override
+        public void Disconnect() {
+        }
+
+        @Override
+        public Exception getException() {
+            return null;
+        }
+
+        @Override
+        public void Connect() {
+        }
+    }
+
+    @Test
+    public void add_ignoresADuplicate() throws Exception {
+        ListenerDispatcher dispatcher = new ListenerDispatcher();
+        CountingListener listener = new CountingListener();
+        dispatcher.Add(listener, null);
+        dispatcher.Add(listener, null);
+        dispatcher.PushMessage("m");
+        assertEquals(1, dispatcher.getListeners().size());
+        assertEquals(1, listener.messages.get());
+    }
+
+    @Test
+    public void push_goesThroughTheExecutor() throws Exception {
+        ListenerDispatcher dispatcher = new ListenerDispatcher();
+        final List<Runnable> tasks = new ArrayList<>();
+        CountingListener listener = new CountingListener();
+        dispatcher.Add(listener, new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                tasks.add(command);
+            }
+        });
+        dispatcher.PushMessage("m");
+        assertEquals(0, listener.messages.get());
+        assertEquals(1, tasks.size());
+        tasks.get(0).run();
+        assertEquals(1, listener.messages.get());
+    }
+
+    @Test
+    public void pushBinary_givesEachListenerItsOwnView() throws Exception {
+        ListenerDispatcher dispatcher = new ListenerDispatcher();
+        CountingListener first = new CountingListener();
+        CountingListener second = new CountingListener();
+        dispatcher.Add(first, null);
+        dispatcher.Add(second, null);
+        dispatcher.PushBinaryMessage(ByteBuffer.wrap(new byte[]{1, 2, 3}));
+        first.buffers.get(0).get();
+        assertEquals(0, second.buffers.get(0).position());
+        assertEquals(3, second.buffers.get(0).remaining());
+    }
+
+    @Test(timeout = 30000)
+    public void concurrentAdds_areAllKept() throws Exception {
+        final ListenerDispatcher dispatcher = new ListenerDispatcher();
+        final int threads = 8;
+        final int perThread = 200;
+        final CountDownLatch start = new CountDownLatch(1);
+        Thread[] workers = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            workers[t] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    for (int i = 0; i < perThread; i++) {
+                        dispatcher.Add(new CountingListener(), null);
+                    }
+                }
+            });
+            workers[t].start();
+        }
+        start.countDown();
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        assertEquals(threads * perThread, dispatcher.getListeners().size());
+    }
+
+    @Test(timeout = 30000)
+    public void concurrentAddRemove_whileDispatching() throws Exception {
+        final ListenerDispatcher dispatcher = new ListenerDispatcher();
+        CountingListener permanent = new CountingListener();
+        dispatcher.Add(permanent, null);
+        final int threads = 4;
+        final int rounds = 2000;
+        final AtomicBoolean running = new AtomicBoolean(true);
+        final AtomicReference<Throwable> failure = new AtomicReference<>();
+        Thread dispatch = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    while (running.get()) {
+                        dispatcher.PushMessage("m");
+                    }
+                } catch (Throwable e) {
+                    failure.set(e);
+                }
+            }
+        });
+        dispatch.start();
+        final AtomicInteger pushes = new AtomicInteger();
+        Thread[] workers = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            workers[t] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        for (int i = 0; i < rounds; i++) {
+                            CountingListener listener = new CountingListener();
+                            dispatcher.Add(listener, null);
+                            dispatcher.Remove(listener);
+                            int received = listener.messages.get();
+                            // Once removed, only a dispatch which took its snapshot before can
+                            // still deliver, at most one per other dispatching thread.
+                            dispatcher.PushMessage("m");
+                            pushes.incrementAndGet();
+                            assertTrue(listener.messages.get() <= received + threads);
+                        }
+                    } catch (Throwable e) {
+                        failure.compareAndSet(null, e);
+                    }
+                }
+            });
+            workers[t].start();
+        }
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        running.set(false);
+        dispatch.join();
+        if (failure.get() != null) {
+            throw new AssertionError(failure.get());
+        }
+        List<ISocketListener> listeners = dispatcher.getListeners();
+        assertEquals(1, listeners.size());
+        assertSame(permanent, listeners.get(0));
+        assertTrue(permanent.messages.get() >= pushes.get());
+    }
+}
@@ -0,0 +1,412 @@
+package ca.teyssedre.wsservice.socket;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import ca.teyssedre.wsservice.contract.IBackpressureListener;
+import ca.teyssedre.wsservice.contract.IJournalCipher;
+import ca.teyssedre.wsservice.enums.OverflowPolicy;
+
+import static org.junit.Assert.*;
+
+public class OutboundQueueTest {
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    /**
+     * Reversible cipher flipping the bits, enough to check nothing is written in clear.
+     */
+    private static final IJournalCipher CIPHER = new IJournalCipher() {
+        @Override
+        public byte[] Seal(byte[] data) throws IOException {
+            byte[] sealed = new byte[data.length];
+            for (int i = 0; i < data.length; i++) {
+                sealed[i] = (byte) ~data[i];
+            }
+            return sealed;
+        }
+
+        @Override
+        public byte[] Open(byte[] sealed) throws IOException {
+            return Seal(sealed);
+        }
+    };
+
+    private File journal;
+    private final List<OutboundQueue> queues = new ArrayList<>();
+
+    @Before
+    public void setUp() throws Exception {
+        journal = File.createTempFile("outbound", ".journal");
+        assertTrue(journal.delete());
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        for (OutboundQueue queue : queues) {
+            queue.Close();
+        }
+        journal.delete();
+        new File(journal.getPath() + ".old").delete();
+    }
+
+    private OutboundQueue newQueue(int capacity, OverflowPolicy policy) {
+        OutboundQueue queue = new OutboundQueue(capacity, policy, journal, CIPHER);
+        queues.add(queue);
+        return queue;
+    }
+
+    private static List<Object> drainAll(OutboundQueue queue) {
+        List<Object> messages = new ArrayList<>();
+        queue.Drain(messages, Integer.MAX_VALUE);
+        return messages;
+    }
+
+    //region Overflow policies
+    @Test
+    public void reject_refusesMessagesOnceFull() throws Exception {
+        OutboundQueue queue = new OutboundQueue(4, OverflowPolicy.REJECT, null, null);
+        for (int i = 0; i < 4; i++) {
+            assertTrue(queue.Offer("m" + i));
+        }
+        assertFalse(queue.Offer("m4"));
+        assertEquals(Arrays.<Object>asList("m0", "m1", "m2", "m3"), drainAll(queue));
+    }
+
+    @Test
+    public void dropOldest_evictsTheHead() throws Exception {
+        OutboundQueue queue = new OutboundQueue(4, OverflowPolicy.DROP_OLDEST, null, null);
+        for (int i = 0; i < 6; i++) {
+            assertTrue(queue.Offer("m" + i));
+        }
+        assertEquals(2, queue.getDroppedCount());
+        assertEquals(Arrays.<Object>asList("m2", "m3", "m4", "m5"), drainAll(queue));
+    }
+
+    @Test
+    public void block_waitsForAFreeSlot() throws Exception {
+        final OutboundQueue queue = new OutboundQueue(2, OverflowPolicy.BLOCK, null, null);
+        queue.Offer("m0");
+        queue.Offer("m1");
+        Thread consumer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    Thread.sleep(50);
+                } catch (InterruptedException ignored) {
+                }
+                queue.Poll();
+            }
+        });
+        consumer.start();
+        assertTrue(queue.Offer("m2"));
+        consumer.join();
+        assertEquals(Arrays.<Object>asList("m1", "m2"), drainAll(queue));
+    }
+
+    @Test
+    public void block_givesUpWhenInterrupted() throws Exception {
+        OutboundQueue queue = new OutboundQueue(2, OverflowPolicy.BLOCK, null, null);
+        queue.Offer("m0");
+        queue.Offer("m1");
+        Thread.currentThread().interrupt();
+        try {
+            assertFalse(queue.Offer("m2"));
+        } finally {
+            Thread.interrupted();
+        }
+    }
+
+    @Test(timeout = OutboundQueue.BLOCK_TIMEOUT_MILLIS * 3)
+    public void block_rejectsAfterTheTimeout() throws Exception {
+        OutboundQueue queue = new OutboundQueue(2, OverflowPolicy.BLOCK, null, null);
+        queue.Offer("m0");
+        queue.Offer("m1");
+        long start = System.nanoTime();
+        assertFalse(queue.Offer("m2"));
+        assertTrue((System.nanoTime() - start) / 1000000 >= OutboundQueue.BLOCK_TIMEOUT_MILLIS);
+    }
+    //endregion
+
+    //region Watermarks
+    @Test
+    public void capacity_isAtLeastTwo() throws Exception {
+        OutboundQueue queue = new OutboundQueue(1, OverflowPolicy.REJECT, null, null);
+        assertEquals(2, queue.getCapacity());
+        assertTrue(queue.Offer("m0"));
+        assertTrue(queue.Offer("m1"));
+        assertFalse(queue.Offer("m2"));
+    }
+
+    @Test
+    public void watermarks_raiseAndReleaseTheFlagOnce() throws Exception {
+        OutboundQueue queue = new OutboundQueue(8, OverflowPolicy.REJECT, null, null);
+        final List<Boolean> events = new ArrayList<>();
+        queue.setBackpressureListener(new IBackpressureListener() {
+            @Override
+            public void OnBackpressure(boolean saturated, int size, int capacity) {
+                events.add(saturated);
+            }
+        });
+        for (int i = 0; i < 5; i++) {
+            queue.Offer("m" + i);
+        }
+        assertFalse(queue.isSaturated());
+        queue.Offer("m5");
+        queue.Offer("m6");
+        assertTrue(queue.isSaturated());
+        for (int i = 0; i < 4; i++) {
+            queue.Poll();
+        }
+        assertTrue(queue.isSaturated());
+        queue.Poll();
+        assertFalse(queue.isSaturated());
+        assertEquals(Arrays.asList(true, false), events);
+    }
+    //endregion
+
+    //region Concurrency
+    @Test(timeout = 30000)
+    public void concurrentProducers_keepTheirOrder() throws Exception {
+        final OutboundQueue queue = newQueue(64, OverflowPolicy.BLOCK);
+        final int producers = 4;
+        final int count = 500;
+        Thread[] threads = new Thread[producers];
+        for (int p = 0; p < producers; p++) {
+            final int producer = p;
+            threads[p] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < count; i++) {
+                        assertTrue(queue.Offer(producer + ":" + i));
+                    }
+                }
+            });
+            threads[p].start();
+        }
+        int[] next = new int[producers];
+        int received = 0;
+        while (received < producers * count) {
+            Object message = queue.Poll();
+            if (message == null) {
+                Thread.yield();
+                continue;
+            }
+            String[] parts = ((String) message).split(":");
+            int producer = Integer.parseInt(parts[0]);
+            assertEquals(next[producer]++, Integer.parseInt(parts[1]));
+            received++;
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertTrue(queue.Commit());
+        assertTrue(drainAll(newQueue(64, OverflowPolicy.BLOCK)).isEmpty());
+    }
+
+    @Test(timeout = 30000)
+    public void concurrentProducers_everyRecordReachesTheJournal() throws Exception {
+        final OutboundQueue queue = newQueue(1024, OverflowPolicy.REJECT);
+        final int producers = 4;
+        final int count = 200;
+        Thread[] threads = new Thread[producers];
+        for (int p = 0; p < producers; p++) {
+            final int producer = p;
+            threads[p] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < count; i++) {
+                        assertTrue(queue.Offer(producer + ":" + i));
+                    }
+                }
+            });
+            threads[p].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        queue.Commit();
+        assertEquals(producers * count, drainAll(newQueue(1024, OverflowPolicy.REJECT)).size());
+    }
+    //endregion
+
+    //region Requeue
+    @Test
+    public void requeue_putsMessagesBackAtTheHead() throws Exception {
+        OutboundQueue queue = new OutboundQueue(8, OverflowPolicy.REJECT, null, null);
+        queue.Offer("m0");
+        queue.Offer("m1");
+        queue.Offer("m2");
+        List<Object> batch = new ArrayList<>();
+        queue.Drain(batch, 2);
+        queue.Offer("m3");
+        queue.Requeue(batch.subList(1, 2));
+        assertEquals(3, queue.getSize());
+        assertEquals(Arrays.<Object>asList("m1", "m2", "m3"), drainAll(queue));
+    }
+
+    @Test
+    public void requeue_dropsTheOldestOverTheCapacity() throws Exception {
+        OutboundQueue queue = new OutboundQueue(4, OverflowPolicy.REJECT, null, null);
+        for (int i = 0; i < 4; i++) {
+            queue.Offer("m" + i);
+        }
+        List<Object> batch = new ArrayList<>();
+        queue.Drain(batch, 3);
+        queue.Offer("m4");
+        assertEquals(2, queue.Requeue(batch));
+        assertEquals(4, queue.getSize());
+        assertEquals(1, queue.getDroppedCount());
+        assertEquals(Arrays.<Object>asList("m1", "m2", "m3", "m4"), drainAll(queue));
+    }
+
+    @Test
+    public void requeue_dropsEverythingIfTheQueueRefilled() throws Exception {
+        OutboundQueue queue = new OutboundQueue(2, OverflowPolicy.REJECT, null, null);
+        queue.Offer("m0");
+        queue.Offer("m1");
+        List<Object> batch = drainAll(queue);
+        queue.Offer("m2");
+        queue.Offer("m3");
+        assertEquals(0, queue.Requeue(batch));
+        assertEquals(2, queue.getSize());
+        assertEquals(Arrays.<Object>asList("m2", "m3"), drainAll(queue));
+    }
+    //endregion
+
+    //region Journal
+    @Test(expected = IllegalArgumentException.class)
+    public void journal_requiresACipher() throws Exception {
+        new OutboundQueue(4, OverflowPolicy.REJECT, journal, null);
+    }
+
+    @Test
+    public void journal_isNotWrittenInClear() throws Exception {
+        OutboundQueue queue = newQueue(4, OverflowPolicy.REJECT);
+        queue.Offer("secret message");
+        String content = new String(read(journal), UTF8);
+        assertFalse(content.contains("secret"));
+    }
+
+    @Test
+    public void restore_skipsPolledMessages() throws Exception {
+        OutboundQueue queue = newQueue(8, OverflowPolicy.REJECT);
+        queue.Offer("m0");
+        queue.Offer("m1".getBytes(UTF8));
+        queue.Offer("m2");
+        assertEquals("m0", queue.Poll());
+        // The first instance is never closed, as if the process was killed.
+        OutboundQueue restored = newQueue(8, OverflowPolicy.REJECT);
+        List<Object> messages = drainAll(restored);
+        assertEquals(2, messages.size());
+        assertArrayEquals("m1".getBytes(UTF8), (byte[]) messages.get(0));
+        assertEquals("m2", messages.get(1));
+    }
+
+    @Test
+    public void restore_keepsRequeuedMessagesFirst() throws Exception {
+        OutboundQueue queue = newQueue(8, OverflowPolicy.REJECT);
+        for (int i = 0; i < 4; i++) {
+            queue.Offer("m" + i);
+        }
+        List<Object> batch = new ArrayList<>();
+        queue.Drain(batch, 3);
+        queue.Requeue(batch.subList(1, 3));
+        OutboundQueue restored = newQueue(8, OverflowPolicy.REJECT);
+        assertEquals(Arrays.<Object>asList("m1", "m2", "m3"), drainAll(restored));
+    }
+
+    @Test
+    public void restore_ignoresATruncatedRecord() throws Exception {
+        OutboundQueue queue = newQueue(8, OverflowPolicy.REJECT);
+        queue.Offer("m0");
+        queue.Offer("m1");
+        queue.Close();
+        FileOutputStream out = new FileOutputStream(journal, true);
+        out.write(new byte[]{0, 0, 0, 0, 0, 0, 0, 2, 0, 0, 0, 0, 42});
+        out.close();
+        OutboundQueue restored = newQueue(8, OverflowPolicy.REJECT);
+        assertEquals(Arrays.<Object>asList("m0", "m1"), drainAll(restored));
+    }
+
+    @Test
+    public void restore_appliesTheOverflowPolicy() throws Exception {
+        OutboundQueue queue = newQueue(8, OverflowPolicy.REJECT);
+        for (int i = 0; i < 6; i++) {
+            queue.Offer("m" + i);
+        }
+        OutboundQueue restored = newQueue(4, OverflowPolicy.DROP_OLDEST);
+        assertEquals(2, restored.getDroppedCount());
+        assertEquals(Arrays.<Object>asList("m2", "m3", "m4", "m5"), drainAll(restored));
+    }
+
+    @Test
+    public void poll_truncatesTheJournalOnceEmpty() throws Exception {
+        OutboundQueue queue = newQueue(4, OverflowPolicy.REJECT);
+        queue.Offer("m0");
+        queue.Offer("m1");
+        drainAll(queue);
+        assertEquals(8, journal.length());
+        assertTrue(drainAll(newQueue(4, OverflowPolicy.REJECT)).isEmpty());
+    }
+
+    @Test
+    public void close_isTerminal() throws Exception {
+        OutboundQueue queue = newQueue(4, OverflowPolicy.REJECT);
+        queue.Offer("m0");
+        queue.Close();
+        long length = journal.length();
+        assertFalse(queue.Offer("m1"));
+        queue.Poll();
+        assertEquals(length, journal.length());
+        assertEquals(Arrays.<Object>asList("m0"), drainAll(newQueue(4, OverflowPolicy.REJECT)));
+    }
+
+    @Test
+    public void commit_keepsMessagesQueuedAfterTheDrain() throws Exception {
+        OutboundQueue queue = newQueue(4, OverflowPolicy.REJECT);
+        queue.Offer("m0");
+        drainAll(queue);
+        queue.Offer("m1");
+        assertFalse(queue.Commit());
+        assertEquals(Arrays.<Object>asList("m1"), drainAll(queue));
+        assertTrue(queue.Commit());
+    }
+
+    @Test
+    public void journal_isCompactedWhileTheQueueNeverEmpties() throws Exception {
+        OutboundQueue queue = newQueue(4, OverflowPolicy.REJECT);
+        queue.Offer("first");
+        for (int i = 0; i < 1000; i++) {
+            queue.Offer("m" + i);
+            queue.Poll();
+        }
+        assertTrue(journal.length() < 4 * 4 * 32);
+        assertEquals(Arrays.<Object>asList("m999"), drainAll(newQueue(4, OverflowPolicy.REJECT)));
+    }
+    //endregion
+
+    private static byte[] read(File file) throws IOException {
+        byte[] content = new byte[(int) file.length()];
+        FileInputStream in = new FileInputStream(file);
+        try {
+            int offset = 0;
+            while (offset < content.length) {
+                offset += in.read(content, offset, content.length - offset);
+            }
+        } finally {
+            in.close();
+        }
+        return content;
+    }
+}
@@ -0,0 +1,226 @@
+package ca.teyssedre.wsservice.socket;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import ca.teyssedre.wsservice.contract.IReconnectListener;
+
+import static org.junit.Assert.*;
+
+public class ReconnectSchedulerTest {
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private final List<ReconnectScheduler> schedulers = new ArrayList<>();
+    private volatile ServerSocket server;
+
+    @After
+    public void tearDown() throws Exception {
+        for (ReconnectScheduler scheduler : schedulers) {
+            scheduler.Shutdown();
+        }
+        if (server != null) {
+            server.close();
+        }
+    }
+
+    private ReconnectScheduler newScheduler(int maxAttempts) {
+        ReconnectScheduler scheduler = new ReconnectScheduler(10, 50, maxAttempts, 60000);
+        schedulers.add(scheduler);
+        return scheduler;
+    }
+
+    private static class RecordingListener implements IReconnectListener {
+        final List<String> events = Collections.synchronizedList(new ArrayList<String>());
+
+        @Override
+        public void OnReconnectScheduled(int attempt, long delay) {
+            events.add("scheduled " + attempt);
+        }
+
+        @Override
+        public void OnReconnected(int attempts) {
+            events.add("reconnected " + attempts);
+        }
+
+        @Override
+        public void OnReconnectAbandoned(int attempts) {
+            events.add("abandoned " + attempts);
+        }
+    }
+
+    private static final Runnable NOTHING = new Runnable() {
+        @Override
+        public void run() {
+        }
+    };
+
+    @Test
+    public void disabled_schedulesNothing() throws Exception {
+        ReconnectScheduler scheduler = newScheduler(5);
+        assertFalse(scheduler.OnConnectionLost(NOTHING));
+        scheduler.Enable();
+        scheduler.Disable();
+        assertFalse(scheduler.OnConnectionLost(NOTHING));
+    }
+
+    @Test
+    public void abandons_afterMaxAttempts() throws Exception {
+        ReconnectScheduler scheduler = newScheduler(2);
+        RecordingListener listener = new RecordingListener();
+        scheduler.setListener(listener);
+        scheduler.Enable();
+        final AtomicInteger runs = new AtomicInteger();
+        final ReconnectScheduler target = scheduler;
+        final CountDownLatch done = new CountDownLatch(1);
+        Runnable failing = new Runnable() {
+            @Override
+            public void run() {
+                runs.incrementAndGet();
+                if (!target.OnConnectionLost(this)) {
+                    done.countDown();
+                }
+            }
+        };
+        assertTrue(scheduler.OnConnectionLost(failing));
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertEquals(2, runs.get());
+        assertEquals(Arrays.asList("scheduled 1", "scheduled 2", "abandoned 2"), listener.events);
+    }
+
+    @Test
+    public void listener_isCalledOutsideTheLock() throws Exception {
+        final ReconnectScheduler scheduler = newScheduler(5);
+        final AtomicInteger seen = new AtomicInteger(-1);
+        scheduler.setListener(new RecordingListener() {
+            @Override
+            public void OnReconnectScheduled(int attempt, long delay) {
+                // A listener reading the scheduler from another thread must not wait on its lock.
+                Thread reader = new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        seen.set(scheduler.getAttempts());
+                    }
+                });
+                reader.start();
+                try {
+                    reader.join(2000);
+                } catch (InterruptedException ignored) {
+                }
+            }
+        });
+        scheduler.Enable();
+        scheduler.OnConnectionLost(NOTHING);
+        assertEquals(1, seen.get());
+    }
+
+    @Test
+    public void shutdown_preventsNewAttempts() throws Exception {
+        ReconnectScheduler scheduler = newScheduler(5);
+        scheduler.Enable();
+        scheduler.Shutdown();
+        scheduler.Enable();
+        assertFalse(scheduler.OnConnectionLost(NOTHING));
+    }
+
+    /**
+     * The echo server only comes up after a few attempts, the scheduler keeps retrying until a
+     * round-trip succeeds.
+     */
+    @Test(timeout = 30000)
+    public void reconnects_onceTheEchoServerIsBack() throws Exception {
+        ServerSocket probe = new ServerSocket(0);
+        final int port = probe.getLocalPort();
+        probe.close();
+
+        final ReconnectScheduler scheduler = newScheduler(0);
+        final RecordingListener listener = new RecordingListener() {
+            @Override
+            public void OnReconnectScheduled(int attempt, long delay) {
+                super.OnReconnectScheduled(attempt, delay);
+                if (attempt == 3) {
+                    StartEchoServer(port);
+                }
+            }
+        };
+        scheduler.setListener(listener);
+        final CountDownLatch connected = new CountDownLatch(1);
+        final AtomicInteger failures = new AtomicInteger();
+        Runnable connect = new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    assertEquals("ping", Echo(port, "ping"));
+                    scheduler.OnConnected();
+                    connected.countDown();
+                } catch (IOException e) {
+                    failures.incrementAndGet();
+                    scheduler.OnConnectionLost(this);
+                }
+            }
+        };
+        scheduler.Enable();
+        connect.run();
+        assertTrue(connected.await(20, TimeUnit.SECONDS));
+        assertTrue(failures.get() >= 3);
+        assertTrue(listener.events.contains("reconnected " + failures.get()));
+    }
+
+    private void StartEchoServer(int port) {
+        try {
+            final ServerSocket socket = new ServerSocket();
+            socket.setReuseAddress(true);
+            socket.bind(new InetSocketAddress("127.0.0.1", port));
+            server = socket;
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        while (!socket.isClosed()) {
+                            Socket client = socket.accept();
+                            BufferedReader in = new BufferedReader(new InputStreamReader(client.getInputStream(), UTF8));
+                            OutputStream out = client.getOutputStream();
+                            out.write((in.readLine() + "\n").getBytes(UTF8));
+                            out.flush();
+                            client.close();
+                        }
+                    } catch (IOException ignored) {
+                        // Closed by the tear down.
+                    }
+                }
+            });
+            thread.setDaemon(true);
+            thread.start();
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String Echo(int port, String message) throws IOException {
+        Socket socket = new Socket();
+        try {
+            socket.connect(new InetSocketAddress("127.0.0.1", port), 1000);
+            socket.setSoTimeout(1000);
+            socket.getOutputStream().write((message + "\n").getBytes(UTF8));
+            return new BufferedReader(new InputStreamReader(socket.getInputStream(), UTF8)).readLine();
+        } finally {
+            socket.close();
+        }
+    }
+}